@@ -344,9 +344,95 @@ val functionalTest by
       useJUnitPlatform()
     }
 
+// JMH benchmarks for the decompilation and remapping hot paths, run with `./gradlew jmh`
+val jmhSourceSet = sourceSets.create("jmh") {
+  compileClasspath += sourceSets.main.get().output + java8SourceSet!!.output
+  runtimeClasspath += sourceSets.main.get().output + java8SourceSet!!.output
+}
+
+configurations["jmhImplementation"].extendsFrom(configurations.implementation.get())
+configurations["jmhRuntimeOnly"].extendsFrom(runtimeOnlyNonPublishable)
+
+dependencies {
+  "jmhImplementation"(gradleApi())
+  "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+  "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
+}
+
+val jmhResults = layout.buildDirectory.file("reports/jmh/results.json")
+// The committed baseline is recorded on the synthetic corpus, comparing runs against a real sources jar with it makes
+// no sense. Refresh it with `./gradlew jmhUpdateBaseline` on the machine the comparisons run on, e.g. the CI runner.
+// Scores from other machines are only roughly comparable, for an exact comparison use a same-machine baseline instead:
+// run `jmhUpdateBaseline -Prfg.jmh.baseline=build/jmh/baseline.json` on the parent commit, then `jmhCompare` with the
+// same property on the change.
+val jmhBaseline = layout.projectDirectory.file(providers.gradleProperty("rfg.jmh.baseline"))
+    .orElse(layout.projectDirectory.file("src/jmh/baseline.json"))
+
+val jmh by
+    tasks.registering(JavaExec::class) {
+      group = "verification"
+      description = "Runs the JMH benchmarks, -Prfg.jmh.include=<regex> selects benchmarks, " +
+          "-Prfg.jmh.sourcesJar=<jar> benchmarks against a real decompiled sources jar"
+      classpath = jmhSourceSet.runtimeClasspath
+      mainClass.set("org.openjdk.jmh.Main")
+      val include = providers.gradleProperty("rfg.jmh.include")
+      val sourcesJar = providers.gradleProperty("rfg.jmh.sourcesJar")
+      val results = jmhResults
+      outputs.file(results)
+      // Benchmark results are never up to date
+      outputs.upToDateWhen { false }
+      doFirst { results.get().asFile.parentFile.mkdirs() }
+      argumentProviders.add(CommandLineArgumentProvider {
+        listOfNotNull(include.orNull) + listOf("-rf", "json", "-rff", results.get().asFile.absolutePath)
+      })
+      // Relative paths resolve against the project directory, the default working directory
+      jvmArgumentProviders.add(CommandLineArgumentProvider {
+        listOfNotNull(sourcesJar.orNull?.let { "-Drfg.jmh.sourcesJar=$it" })
+      })
+    }
+
+val jmhCompare by
+    tasks.registering(JavaExec::class) {
+      group = "verification"
+      description = "Runs the JMH benchmarks and fails if any is slower than src/jmh/baseline.json, or " +
+          "-Prfg.jmh.baseline=<file>, by more than -Prfg.jmh.tolerance=<fraction>, 0.25 by default"
+      dependsOn(jmh)
+      classpath = jmhSourceSet.runtimeClasspath
+      mainClass.set("com.gtnewhorizons.retrofuturagradle.jmh.BaselineComparison")
+      val tolerance = providers.gradleProperty("rfg.jmh.tolerance").orElse("0.25")
+      val results = jmhResults
+      val baseline = jmhBaseline
+      inputs.file(results)
+      doFirst {
+        if (!baseline.get().asFile.isFile) {
+          throw GradleException("No JMH baseline at ${baseline.get().asFile}, run jmhUpdateBaseline with the same " +
+              "properties on the commit to compare with first")
+        }
+      }
+      argumentProviders.add(CommandLineArgumentProvider {
+        listOf(results.get().asFile.absolutePath, baseline.get().asFile.absolutePath, tolerance.get())
+      })
+    }
+
+val jmhUpdateBaseline by
+    tasks.registering {
+      group = "verification"
+      description = "Runs the JMH benchmarks and replaces src/jmh/baseline.json, or -Prfg.jmh.baseline=<file>, " +
+          "with the results"
+      dependsOn(jmh)
+      val results = jmhResults
+      val baseline = jmhBaseline
+      inputs.file(results)
+      outputs.file(baseline)
+      doLast {
+        results.get().asFile.copyTo(baseline.get().asFile, overwrite = true)
+      }
+    }
+
 listOf(configurations.runtimeClasspath, configurations.compileClasspath,
   configurations.testRuntimeClasspath, configurations.testCompileClasspath,
   configurations.named("functionalTestRuntimeClasspath"), configurations.named("functionalTestCompileClasspath"),
+  configurations.named("jmhRuntimeClasspath"), configurations.named("jmhCompileClasspath"),
 ).forEach {
   it.configure {
     // Make sure we resolve the jar and not the empty classes of :oldasmwrapper
@@ -3,6 +3,7 @@ package com.gtnewhorizons.retrofuturagradle.java8;
 import org.gradle.api.file.ConfigurableFileCollection;
 import org.gradle.api.file.DirectoryProperty;
 import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
 import org.gradle.workers.WorkParameters;
 
 public interface Fg23DecompArgs extends WorkParameters {
@@ -16,4 +17,10 @@ public interface Fg23DecompArgs extends WorkParameters {
     RegularFileProperty getOutputDir();
 
     ConfigurableFileCollection getClasspath();
+
+    /** The zip method of the output jar entries, deflated if not set */
+    Property<Integer> getCompressionMethod();
+
+    /** The deflater level of the output jar entries, the default level if not set */
+    Property<Integer> getCompressionLevel();
 }
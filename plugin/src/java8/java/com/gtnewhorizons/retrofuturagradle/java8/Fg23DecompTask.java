@@ -5,6 +5,8 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
 
 import org.gradle.workers.WorkAction;
 
@@ -41,18 +43,20 @@ public abstract class Fg23DecompTask implements WorkAction<Fg23DecompArgs> {
             // Constants.getTaskLogFile(getProject(), getName() + ".log"), classpath.getFiles(), mapOptions);
 
             PrintStreamLogger logger = new PrintStreamLogger(new PrintStream(settings.getLogFile().getAsFile().get()));
-            BaseDecompiler decompiler = new BaseDecompiler(
-                    new ByteCodeProvider(),
-                    new ArtifactSaver(settings.getOutputDir().getAsFile().get()),
-                    mapOptions,
-                    logger);
-
-            decompiler.addSpace(settings.getInputJar().getAsFile().get(), true);
-            for (File library : settings.getClasspath()) {
-                decompiler.addSpace(library, false);
-            }
+            try (ByteCodeProvider provider = new ByteCodeProvider();
+                    ArtifactSaver saver = new ArtifactSaver(
+                            settings.getOutputDir().getAsFile().get(),
+                            settings.getCompressionMethod().getOrElse(ZipEntry.DEFLATED),
+                            settings.getCompressionLevel().getOrElse(Deflater.DEFAULT_COMPRESSION))) {
+                BaseDecompiler decompiler = new BaseDecompiler(provider, saver, mapOptions, logger);
+
+                decompiler.addSpace(settings.getInputJar().getAsFile().get(), true);
+                for (File library : settings.getClasspath()) {
+                    decompiler.addSpace(library, false);
+                }
 
-            decompiler.decompileContext();
+                decompiler.decompileContext();
+            }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -10,19 +10,25 @@
  */
 package com.gtnewhorizons.retrofuturagradle.java8.fg23;
 
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
@@ -32,14 +38,37 @@ import com.gtnewhorizons.retrofuturagradle.fg23shadow.org.jetbrains.java.decompi
 import com.gtnewhorizons.retrofuturagradle.fg23shadow.org.jetbrains.java.decompiler.main.extern.IResultSaver;
 import com.gtnewhorizons.retrofuturagradle.fg23shadow.org.jetbrains.java.decompiler.util.InterpreterUtil;
 
-public class ArtifactSaver implements IResultSaver {
+/**
+ * Writes the decompiled archives through buffered streams, and keeps the archives entries are copied from open until
+ * the saver is closed instead of reopening them for every entry.
+ */
+public class ArtifactSaver implements IResultSaver, Closeable {
+
+    /** Same timestamp as in the jars written by the plugin itself, so the same sources always give the same jar */
+    private static final long CONSTANT_TIME_FOR_ZIP_ENTRIES = new GregorianCalendar(1980, Calendar.FEBRUARY, 1, 0, 0, 0)
+            .getTimeInMillis();
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+    private static final byte[] NO_CONTENTS = new byte[0];
 
     private final Map<String, ZipOutputStream> mapArchiveStreams = new HashMap<>();
     private final Map<String, Set<String>> mapArchiveEntries = new HashMap<>();
+    private final Map<String, ZipFile> sourceArchives = new HashMap<>();
     private final File root;
+    private final int compressionMethod;
+    private final int compressionLevel;
 
     public ArtifactSaver(File tempDir) {
+        this(tempDir, ZipEntry.DEFLATED, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param compressionMethod {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}, for all entries of the archives
+     * @param compressionLevel  The {@link Deflater} level of deflated entries
+     */
+    public ArtifactSaver(File tempDir, int compressionMethod, int compressionLevel) {
         this.root = tempDir;
+        this.compressionMethod = compressionMethod;
+        this.compressionLevel = compressionLevel;
     }
 
     private String getAbsolutePath(String path) {
@@ -67,7 +96,9 @@ public class ArtifactSaver implements IResultSaver {
     public void saveClassFile(String path, String qualifiedName, String entryName, String content, int[] mapping) {
         File file = new File(getAbsolutePath(path), entryName);
         try {
-            try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            try (Writer out = new OutputStreamWriter(
+                    new BufferedOutputStream(new FileOutputStream(file), OUTPUT_BUFFER_SIZE),
+                    StandardCharsets.UTF_8)) {
                 out.write(content);
             }
         } catch (IOException ex) {
@@ -83,9 +114,13 @@ public class ArtifactSaver implements IResultSaver {
                 throw new IOException("Cannot create file " + file);
             }
 
-            FileOutputStream fileStream = new FileOutputStream(file);
+            OutputStream fileStream = new BufferedOutputStream(new FileOutputStream(file), OUTPUT_BUFFER_SIZE);
             ZipOutputStream zipStream = manifest != null ? new JarOutputStream(fileStream, manifest)
                     : new ZipOutputStream(fileStream);
+            zipStream.setMethod(compressionMethod);
+            if (compressionMethod == ZipEntry.DEFLATED) {
+                zipStream.setLevel(compressionLevel);
+            }
             mapArchiveStreams.put(file.getPath(), zipStream);
         } catch (IOException ex) {
             DecompilerContext.getLogger().writeMessage("Cannot create archive " + file, ex);
@@ -105,18 +140,11 @@ public class ArtifactSaver implements IResultSaver {
             return;
         }
 
-        try (ZipFile srcArchive = new ZipFile(new File(source))) {
+        try {
+            ZipFile srcArchive = getSourceArchive(source);
             ZipEntry entry = srcArchive.getEntry(entryName);
             if (entry != null) {
-                try (InputStream in = srcArchive.getInputStream(entry)) {
-                    ZipOutputStream out = mapArchiveStreams.get(file);
-                    try {
-                        out.putNextEntry(new ZipEntry(entryName));
-                        InterpreterUtil.copyStream(in, out);
-                    } finally {
-                        out.closeEntry();
-                    }
-                }
+                putEntry(mapArchiveStreams.get(file), entryName, InterpreterUtil.getBytes(srcArchive, entry));
             }
         } catch (IOException ex) {
             String message = "Cannot copy entry " + entryName + " from " + source + " to " + file;
@@ -134,17 +162,41 @@ public class ArtifactSaver implements IResultSaver {
         }
 
         try {
-            ZipOutputStream out = mapArchiveStreams.get(file);
-            out.putNextEntry(new ZipEntry(entryName));
-            if (content != null) {
-                out.write(content.getBytes(StandardCharsets.UTF_8));
-            }
+            putEntry(
+                    mapArchiveStreams.get(file),
+                    entryName,
+                    content != null ? content.getBytes(StandardCharsets.UTF_8) : NO_CONTENTS);
         } catch (IOException ex) {
             String message = "Cannot write entry " + entryName + " to " + file;
             DecompilerContext.getLogger().writeMessage(message, ex);
         }
     }
 
+    private ZipFile getSourceArchive(String source) throws IOException {
+        ZipFile archive = sourceArchives.get(source);
+        if (archive == null) {
+            archive = new ZipFile(new File(source));
+            sourceArchives.put(source, archive);
+        }
+        return archive;
+    }
+
+    private void putEntry(ZipOutputStream out, String entryName, byte[] contents) throws IOException {
+        ZipEntry entry = new ZipEntry(entryName);
+        entry.setTime(CONSTANT_TIME_FOR_ZIP_ENTRIES);
+        if (compressionMethod == ZipEntry.STORED) {
+            // Stored entries need their size and checksum before the contents
+            CRC32 crc = new CRC32();
+            crc.update(contents);
+            entry.setSize(contents.length);
+            entry.setCompressedSize(contents.length);
+            entry.setCrc(crc.getValue());
+        }
+        out.putNextEntry(entry);
+        out.write(contents);
+        out.closeEntry();
+    }
+
     private boolean checkEntry(String entryName, String file) {
         Set<String> set = mapArchiveEntries.computeIfAbsent(file, k -> new HashSet<>());
 
@@ -170,4 +222,20 @@ public class ArtifactSaver implements IResultSaver {
     boolean areAnyArchiveStreamsOpen() {
         return !mapArchiveStreams.isEmpty();
     }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (ZipFile archive : sourceArchives.values()) {
+            try {
+                archive.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        sourceArchives.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
 }
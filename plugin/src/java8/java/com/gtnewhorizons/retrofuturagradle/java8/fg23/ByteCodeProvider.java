@@ -10,15 +10,24 @@
  */
 package com.gtnewhorizons.retrofuturagradle.java8.fg23;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 import com.gtnewhorizons.retrofuturagradle.fg23shadow.org.jetbrains.java.decompiler.main.extern.IBytecodeProvider;
 import com.gtnewhorizons.retrofuturagradle.fg23shadow.org.jetbrains.java.decompiler.util.InterpreterUtil;
 
-public class ByteCodeProvider implements IBytecodeProvider {
+/**
+ * Reads classes for the decompiler, keeping every archive open until the provider is closed as the same jars are read
+ * from over and over.
+ */
+public class ByteCodeProvider implements IBytecodeProvider, Closeable {
+
+    private final Map<String, ZipFile> archives = new HashMap<>();
 
     @Override
     public byte[] getBytecode(String externalPath, String internalPath) throws IOException {
@@ -26,7 +35,12 @@ public class ByteCodeProvider implements IBytecodeProvider {
         if (internalPath == null) {
             return InterpreterUtil.getBytes(file);
         } else {
-            try (ZipFile archive = new ZipFile(file)) {
+            synchronized (archives) {
+                ZipFile archive = archives.get(externalPath);
+                if (archive == null) {
+                    archive = new ZipFile(file);
+                    archives.put(externalPath, archive);
+                }
                 ZipEntry entry = archive.getEntry(internalPath);
                 if (entry == null) {
                     throw new IOException("Entry not found: " + internalPath);
@@ -35,4 +49,22 @@ public class ByteCodeProvider implements IBytecodeProvider {
             }
         }
     }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (archives) {
+            IOException failure = null;
+            for (ZipFile archive : archives.values()) {
+                try {
+                    archive.close();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            archives.clear();
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
 }
@@ -0,0 +1,126 @@
+package com.gtnewhorizons.retrofuturagradle.jmh;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.io.FileUtils;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Compares JMH results written with -rf json to a baseline in the same format, and fails if a benchmark got slower than
+ * the baseline by more than the given fraction. Benchmarks only in one of the files are listed, but never fail the
+ * comparison, so the baseline doesn't have to be updated for every new benchmark. Run through the jmhCompare task.
+ */
+public final class BaselineComparison {
+
+    private BaselineComparison() {}
+
+    /** A single benchmark score, lower is better for every mode except throughput */
+    record Score(String mode, double score, String unit) {
+
+        /** How much slower this is than the baseline, 0.1 for 10% slower, negative if faster */
+        double slowdown(Score baseline) {
+            return "thrpt".equals(mode) ? baseline.score / score - 1.0 : score / baseline.score - 1.0;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Usage: BaselineComparison <results.json> <baseline.json> <tolerance>");
+            System.exit(2);
+        }
+        final Map<String, Score> results = readScores(new File(args[0]));
+        final Map<String, Score> baseline = readScores(new File(args[1]));
+        final double tolerance = Double.parseDouble(args[2]);
+
+        final List<String> regressions = compare(results, baseline, tolerance);
+        if (!regressions.isEmpty()) {
+            System.err.println(
+                    regressions.size() + " benchmark(s) slower than the baseline by more than "
+                            + Math.round(tolerance * 100)
+                            + "%:");
+            for (String regression : regressions) {
+                System.err.println("  " + regression);
+            }
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Prints how each result compares to the baseline
+     *
+     * @return The benchmarks slower than the baseline by more than the tolerance
+     */
+    static List<String> compare(Map<String, Score> results, Map<String, Score> baseline, double tolerance) {
+        final List<String> regressions = new ArrayList<>();
+        for (Map.Entry<String, Score> entry : new TreeMap<>(results).entrySet()) {
+            final String name = entry.getKey();
+            final Score result = entry.getValue();
+            final Score base = baseline.get(name);
+            if (base == null) {
+                System.out.printf("%-80s %12.3f %s, not in the baseline%n", name, result.score, result.unit);
+                continue;
+            }
+            if (!base.mode.equals(result.mode) || !base.unit.equals(result.unit)) {
+                System.out.printf(
+                        "%-80s %12.3f %s, can't compare with the baseline's %.3f %s%n",
+                        name,
+                        result.score,
+                        result.unit,
+                        base.score,
+                        base.unit);
+                continue;
+            }
+            final double slowdown = result.slowdown(base);
+            final String line = String.format(
+                    "%-80s %12.3f %s, baseline %.3f, %+.1f%%",
+                    name,
+                    result.score,
+                    result.unit,
+                    base.score,
+                    slowdown * 100);
+            System.out.println(line);
+            if (slowdown > tolerance) {
+                regressions.add(line);
+            }
+        }
+        for (String name : new TreeMap<>(baseline).keySet()) {
+            if (!results.containsKey(name)) {
+                System.out.printf("%-80s %12s%n", name, "not run");
+            }
+        }
+        return regressions;
+    }
+
+    /** Reads the primary scores of a JMH json result file, by benchmark name and parameters */
+    static Map<String, Score> readScores(File file) throws IOException {
+        final Map<String, Score> scores = new LinkedHashMap<>();
+        final String json = FileUtils.readFileToString(file, StandardCharsets.UTF_8);
+        for (JsonElement element : JsonParser.parseString(json).getAsJsonArray()) {
+            final JsonObject run = element.getAsJsonObject();
+            final StringBuilder name = new StringBuilder(run.get("benchmark").getAsString());
+            if (run.has("params")) {
+                for (Map.Entry<String, JsonElement> param : run.getAsJsonObject("params").entrySet()) {
+                    name.append(':').append(param.getKey()).append('=').append(param.getValue().getAsString());
+                }
+            }
+            final JsonObject metric = run.getAsJsonObject("primaryMetric");
+            scores.put(
+                    name.toString(),
+                    new Score(
+                            run.get("mode").getAsString(),
+                            metric.get("score").getAsDouble(),
+                            metric.get("scoreUnit").getAsString()));
+        }
+        return scores;
+    }
+}
@@ -0,0 +1,107 @@
+package com.gtnewhorizons.retrofuturagradle.jmh;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.cloudbees.diff.PatchException;
+import com.gtnewhorizons.retrofuturagradle.util.patching.ContextualPatch;
+
+/**
+ * Measures {@link ContextualPatch} parsing and applying one patch per file, with the hunks a few lines away from where
+ * the patch says they are so that they have to be searched for. Set the rfg.jmh.sourcesJar system property to a
+ * decompiled Minecraft sources jar to benchmark on real code, otherwise the synthetic {@link DecompiledCorpus} is used.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContextualPatchBenchmark {
+
+    private static final int CONTEXT = 3;
+
+    private List<String> patches;
+    private ContextualPatch.IContextProvider context;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(1234);
+        final List<String> sources = DecompiledCorpus.load(200);
+        final Map<String, List<String>> files = new HashMap<>();
+        patches = new ArrayList<>(sources.size());
+        for (int i = 0; i < sources.size(); i++) {
+            final String path = "net/minecraft/src/Source" + i + ".java";
+            final List<String> lines = List.of(sources.get(i).split("(\r\n)|\n|\r"));
+            files.put(path, lines);
+            patches.add(createPatch(path, lines, random));
+        }
+        // The files are never updated, so every invocation does the same work
+        context = new ContextualPatch.IContextProvider() {
+
+            @Override
+            public List<String> getData(String target) {
+                final List<String> lines = files.get(target);
+                return lines == null ? null : new ArrayList<>(lines);
+            }
+
+            @Override
+            public void setData(String target, List<String> data) {}
+        };
+    }
+
+    /** Changes one line in each third of the file */
+    private static String createPatch(String path, List<String> lines, Random random) {
+        final StringBuilder patch = new StringBuilder();
+        patch.append("--- a/").append(path).append('\n').append("+++ b/").append(path).append('\n');
+        final int hunkLength = 2 * CONTEXT + 1;
+        final int segment = lines.size() / 3;
+        for (int hunk = 0; hunk < 3 && segment >= hunkLength; hunk++) {
+            final int start = hunk * segment + random.nextInt(segment - hunkLength + 1);
+            // Pretend the patch was made against a file with a few more lines in front
+            final int statedStart = start + 1 + random.nextInt(20);
+            patch.append("@@ -")
+                    .append(statedStart)
+                    .append(',')
+                    .append(hunkLength)
+                    .append(" +")
+                    .append(statedStart)
+                    .append(',')
+                    .append(hunkLength)
+                    .append(" @@\n");
+            for (int line = start; line < start + hunkLength; line++) {
+                if (line == start + CONTEXT) {
+                    patch.append('-').append(lines.get(line)).append('\n');
+                    patch.append('+').append(lines.get(line)).append(" // patched\n");
+                } else {
+                    patch.append(' ').append(lines.get(line)).append('\n');
+                }
+            }
+        }
+        return patch.toString();
+    }
+
+    @Benchmark
+    public void patch(Blackhole bh) throws PatchException, IOException {
+        for (String patch : patches) {
+            bh.consume(ContextualPatch.create(patch, context).setAccessC14N(true).patch(false));
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package com.gtnewhorizons.retrofuturagradle.jmh;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * The source files the benchmarks run on. Set the rfg.jmh.sourcesJar system property to a decompiled Minecraft sources
+ * jar to benchmark on real code, otherwise a synthetic corpus in the style of Fernflower output is generated. The
+ * synthetic corpus only depends on the number of files, so results on it can be compared between runs and machines
+ * without any Minecraft downloads.
+ */
+final class DecompiledCorpus {
+
+    private static final String[] CONSTANTS = { "3.1415927F", "3.141592653589793D", "6.2831855F", "1.5707964F",
+            "0.7853981633974483D", "57.295776F", "0.017453292F", "1.7976931348623157E+308D", "0.5F", "1.0D", "256" };
+    private static final String[] GL_CALLS = { "GL11.glEnable(3042);", "GL11.glDisable(2896);",
+            "GL11.glBlendFunc(770, 771);", "GL11.glBindTexture(3553, this.field_%d_a);",
+            "GL11.glTexParameteri(3553, 10241, 9728);", "GL11.glMatrixMode(5888);", "GL11.glShadeModel(7425);" };
+    private static final String[] TYPES = { "int", "float", "double", "String", "Entity", "ItemStack", "int[]",
+            "boolean" };
+
+    private DecompiledCorpus() {}
+
+    /** The sources of the jar in rfg.jmh.sourcesJar, or the given number of generated files */
+    static List<String> load(int count) {
+        final String sourcesJar = System.getProperty("rfg.jmh.sourcesJar");
+        if (sourcesJar == null) {
+            return generate(count);
+        }
+        try {
+            return readSources(new File(sourcesJar));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static List<String> readSources(File jar) throws IOException {
+        final List<String> sources = new ArrayList<>();
+        try (final ZipFile zf = new ZipFile(jar)) {
+            final Enumeration<? extends ZipEntry> entries = zf.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                if (entry.getName().endsWith(".java")) {
+                    sources.add(IOUtils.toString(zf.getInputStream(entry), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * Generates classes with the things the cleanup steps look at: var## locals, SRG names, OpenGL calls with literal
+     * constants, float constants, character literals, trailing whitespace and blank lines, anonymous and nested
+     * classes, and enums with the synthetic $VALUES field.
+     */
+    static List<String> generate(int count) {
+        final Random random = new Random(1234);
+        final List<String> sources = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            sources.add(generateClass(i, random));
+        }
+        return sources;
+    }
+
+    private static String generateClass(int index, Random random) {
+        final boolean usesGl = random.nextInt(3) == 0;
+        final String name = "Generated" + index;
+        final StringBuilder source = new StringBuilder(8192);
+        source.append("package net.minecraft.src;\n\nimport java.util.ArrayList;\nimport java.util.List;\n");
+        if (usesGl) {
+            source.append("import org.lwjgl.opengl.GL11;\n");
+        }
+        source.append("\npublic class ").append(name).append(" extends Base").append(random.nextInt(20)).append(" {\n");
+        appendMembers(source, "   ", name, usesGl, random);
+        for (int nested = random.nextInt(3); nested > 0; nested--) {
+            source.append("\n   static class Inner").append(nested).append(" {\n");
+            appendMembers(source, "      ", "Inner" + nested, usesGl, random);
+            if (random.nextBoolean()) {
+                appendEnum(source, "      ", name + ".Inner" + nested, "Mode", random);
+            }
+            source.append("   }\n");
+        }
+        if (random.nextBoolean()) {
+            appendEnum(source, "   ", name, "Type", random);
+        }
+        source.append("}\n");
+        return source.toString();
+    }
+
+    private static void appendMembers(StringBuilder source, String indent, String name, boolean usesGl,
+            Random random) {
+        final int fieldId = random.nextInt(200000);
+        source.append(indent).append("private int field_").append(fieldId).append("_a;\n");
+        source.append(indent).append("private final List field_").append(fieldId + 1).append("_b = new ArrayList();\n");
+        source.append(indent).append("private float field_").append(fieldId + 2).append("_c = 0.5F;   \n\n");
+        source.append(indent)
+                .append("public ")
+                .append(name)
+                .append("(int p_i")
+                .append(fieldId)
+                .append("_1_) {\n")
+                .append(indent)
+                .append("   this.field_")
+                .append(fieldId)
+                .append("_a = p_i")
+                .append(fieldId)
+                .append("_1_;\n")
+                .append(indent)
+                .append("}\n");
+        for (int method = 2 + random.nextInt(6); method > 0; method--) {
+            appendMethod(source, indent, fieldId, usesGl, random);
+        }
+    }
+
+    private static void appendMethod(StringBuilder source, String indent, int fieldId, boolean usesGl,
+            Random random) {
+        final int methodId = random.nextInt(200000);
+        final String param = "p_" + methodId + "_1_";
+        final String bodyIndent = indent + "   ";
+        source.append('\n')
+                .append(indent)
+                .append("public void func_")
+                .append(methodId)
+                .append("_a(int ")
+                .append(param)
+                .append(", float p_")
+                .append(methodId)
+                .append("_2_) {\n");
+        // Fernflower numbers the locals after the parameters, this is an instance method with two
+        final List<String> ints = new ArrayList<>();
+        ints.add(param);
+        int nextVar = 3;
+        for (int statement = 3 + random.nextInt(15); statement > 0; statement--) {
+            final String var = "var" + nextVar++;
+            final String anInt = ints.get(random.nextInt(ints.size()));
+            switch (random.nextInt(usesGl ? 10 : 8)) {
+                case 0 -> {
+                    source.append(bodyIndent)
+                            .append("int ")
+                            .append(var)
+                            .append(" = ")
+                            .append(anInt)
+                            .append(" * ")
+                            .append(random.nextInt(100))
+                            .append(" + this.field_")
+                            .append(fieldId)
+                            .append("_a;\n");
+                    ints.add(var);
+                }
+                case 1 -> source.append(bodyIndent)
+                        .append("float ")
+                        .append(var)
+                        .append(" = p_")
+                        .append(methodId)
+                        .append("_2_ * ")
+                        .append(CONSTANTS[random.nextInt(CONSTANTS.length)])
+                        .append(";\n");
+                case 2 -> source.append(bodyIndent)
+                        .append(TYPES[random.nextInt(TYPES.length)])
+                        .append(' ')
+                        .append(var)
+                        .append(" = this.func_")
+                        .append(random.nextInt(200000))
+                        .append("_b(")
+                        .append(anInt)
+                        .append(");\n");
+                case 3 -> source.append(bodyIndent)
+                        .append("for(int ")
+                        .append(var)
+                        .append(" = 0; ")
+                        .append(var)
+                        .append(" < ")
+                        .append(anInt)
+                        .append("; ++")
+                        .append(var)
+                        .append(") {\n")
+                        .append(bodyIndent)
+                        .append("   this.field_")
+                        .append(fieldId + 1)
+                        .append("_b.add(Integer.valueOf(")
+                        .append(var)
+                        .append("));\n")
+                        .append(bodyIndent)
+                        .append("}\n\n");
+                case 4 -> source.append(bodyIndent)
+                        .append("if(")
+                        .append(anInt)
+                        .append(" > ")
+                        .append(random.nextInt(100))
+                        .append(") {\n")
+                        .append(bodyIndent)
+                        .append("   return;\n")
+                        .append(bodyIndent)
+                        .append("}\n\n");
+                case 5 -> source.append(bodyIndent)
+                        .append("try {\n")
+                        .append(bodyIndent)
+                        .append("   this.func_")
+                        .append(random.nextInt(200000))
+                        .append("_c(")
+                        .append(anInt)
+                        .append(");\n")
+                        .append(bodyIndent)
+                        .append("} catch (Exception ")
+                        .append(var)
+                        .append(") {\n")
+                        .append(bodyIndent)
+                        .append("   ")
+                        .append(var)
+                        .append(".printStackTrace();\n")
+                        .append(bodyIndent)
+                        .append("}\n");
+                case 6 -> source.append(bodyIndent)
+                        .append("char ")
+                        .append(var)
+                        .append(random.nextBoolean() ? " = '\\u00a7';   " : " = Character.valueOf('a').charValue();")
+                        .append('\n');
+                case 7 -> source.append(bodyIndent)
+                        .append("Runnable ")
+                        .append(var)
+                        .append(" = new Runnable() {\n")
+                        .append(bodyIndent)
+                        .append("   public void run() {\n")
+                        .append(bodyIndent)
+                        .append("      int var1 = ")
+                        .append(random.nextInt(100))
+                        .append(";\n")
+                        .append(bodyIndent)
+                        .append("      System.out.println(var1);\n")
+                        .append(bodyIndent)
+                        .append("   }\n")
+                        .append(bodyIndent)
+                        .append("};\n");
+                default -> source.append(bodyIndent)
+                        .append(String.format(GL_CALLS[random.nextInt(GL_CALLS.length)], fieldId))
+                        .append('\n');
+            }
+        }
+        source.append(indent).append("}\n");
+    }
+
+    private static void appendEnum(StringBuilder source, String indent, String outerName, String name,
+            Random random) {
+        final String memberIndent = indent + "   ";
+        source.append('\n').append(indent).append("static enum ").append(name).append(" {\n");
+        final int entries = 1 + random.nextInt(6);
+        final StringBuilder values = new StringBuilder();
+        for (int entry = 0; entry < entries; entry++) {
+            source.append(memberIndent)
+                    .append("E")
+                    .append(entry)
+                    .append("(\"E")
+                    .append(entry)
+                    .append("\", ")
+                    .append(entry)
+                    .append(", ")
+                    .append(random.nextInt(100))
+                    .append(entry == entries - 1 ? ");\n" : "),\n");
+            values.append(entry == 0 ? "E" : ", E").append(entry);
+        }
+        source.append('\n')
+                .append(memberIndent)
+                .append("// $FF: synthetic field\n")
+                .append(memberIndent)
+                .append("private static final ")
+                .append(outerName)
+                .append('.')
+                .append(name)
+                .append("[] $VALUES = new ")
+                .append(outerName)
+                .append('.')
+                .append(name)
+                .append("[]{")
+                .append(values)
+                .append("};\n\n")
+                .append(memberIndent)
+                .append("private ")
+                .append(name)
+                .append("(String p_i1_1_, int p_i1_2_, int p_i1_3_) {\n")
+                .append(memberIndent)
+                .append("   this(p_i1_1_, p_i1_2_, p_i1_3_, 0);\n")
+                .append(memberIndent)
+                .append("}\n")
+                .append(indent)
+                .append("}\n");
+    }
+}
@@ -0,0 +1,47 @@
+package com.gtnewhorizons.retrofuturagradle.jmh;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.gtnewhorizons.retrofuturagradle.fgpatchers.FFPatcher;
+
+/**
+ * Measures {@link FFPatcher} on files with many nested classes and enums. Set the rfg.jmh.sourcesJar system property to
+ * a jar straight out of Fernflower (the output jar of the decompileSrgJar task) to benchmark on real code, otherwise
+ * the synthetic {@link DecompiledCorpus} is used.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FFPatcherBenchmark {
+
+    private List<String> sources;
+
+    @Setup
+    public void setup() {
+        sources = DecompiledCorpus.load(100);
+    }
+
+    @Benchmark
+    public void processFile(Blackhole bh) throws IOException {
+        for (String source : sources) {
+            bh.consume(FFPatcher.processFile("Generated.java", source, true));
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.gtnewhorizons.retrofuturagradle.jmh;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.gtnewhorizons.retrofuturagradle.fgpatchers.FmlCleanup;
+
+/**
+ * Measures the {@link FmlCleanup} renaming of var## locals. Set the rfg.jmh.sourcesJar system property to a decompiled
+ * Minecraft sources jar to benchmark on real code, otherwise the synthetic {@link DecompiledCorpus} is used.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FmlCleanupBenchmark {
+
+    private List<String> sources;
+
+    @Setup
+    public void setup() {
+        sources = DecompiledCorpus.load(100);
+    }
+
+    @Benchmark
+    public void renameClass(Blackhole bh) {
+        for (String source : sources) {
+            bh.consume(FmlCleanup.renameClass(source));
+        }
+    }
+}
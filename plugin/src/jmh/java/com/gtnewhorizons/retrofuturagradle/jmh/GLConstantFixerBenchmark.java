@@ -0,0 +1,49 @@
+package com.gtnewhorizons.retrofuturagradle.jmh;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.gtnewhorizons.retrofuturagradle.fgpatchers.GLConstantFixer;
+
+/**
+ * Measures {@link GLConstantFixer} replacing the literal OpenGL constants. Set the rfg.jmh.sourcesJar system property
+ * to a decompiled Minecraft sources jar to benchmark on real code, otherwise the synthetic {@link DecompiledCorpus} is
+ * used, where a third of the files call OpenGL.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GLConstantFixerBenchmark {
+
+    private List<String> sources;
+    private GLConstantFixer fixer;
+
+    @Setup
+    public void setup() throws IOException {
+        sources = DecompiledCorpus.load(500);
+        fixer = new GLConstantFixer();
+    }
+
+    @Benchmark
+    public void fixOGL(Blackhole bh) {
+        for (String source : sources) {
+            bh.consume(fixer.fixOGL(source));
+        }
+    }
+}
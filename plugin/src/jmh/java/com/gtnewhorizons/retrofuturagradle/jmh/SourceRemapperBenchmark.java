@@ -0,0 +1,100 @@
+package com.gtnewhorizons.retrofuturagradle.jmh;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.gtnewhorizons.retrofuturagradle.mcp.SourceRemapper;
+import com.gtnewhorizons.retrofuturagradle.util.SourceFile;
+import com.gtnewhorizons.retrofuturagradle.util.Utilities;
+
+/**
+ * Measures the per-file remapping of RemapSourceJarTask on a single thread, with javadocs enabled like in the
+ * remapDecompiledJar task. Set the rfg.jmh.sourcesJar system property to a decompiled Minecraft sources jar (the input
+ * jar of the remapDecompiledJar task) to benchmark on real code, otherwise the synthetic {@link DecompiledCorpus} is
+ * used. The mappings are generated from the SRG names in the sources.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SourceRemapperBenchmark {
+
+    private static final Pattern FERNFLOWER_INDENT = Pattern.compile("(?m)^(?:   )+");
+    private static final Pattern SRG_NAME = Pattern
+            .compile("func_\\d+_[a-zA-Z_]+|field_\\d+_[a-zA-Z_]+|p_\\w+_\\d+_");
+
+    private Map<String, String> sources;
+    private SourceRemapper remapper;
+
+    @Setup
+    public void setup() {
+        sources = new LinkedHashMap<>();
+        final Utilities.MappingsSet mappings = new Utilities.MappingsSet();
+        // The real input jar was formatted already
+        final boolean synthetic = System.getProperty("rfg.jmh.sourcesJar") == null;
+        int counter = 0;
+        for (String decompiled : DecompiledCorpus.load(500)) {
+            final String source = synthetic ? reindent(decompiled) : decompiled;
+            sources.put("net/minecraft/src/Source" + sources.size() + ".java", source);
+            // Map every other SRG name like the partial MCP mappings do, and give every fourth one a javadoc
+            final Matcher matcher = SRG_NAME.matcher(source);
+            while (matcher.find()) {
+                counter++;
+                if ((counter & 1) != 0) {
+                    continue;
+                }
+                final String name = matcher.group();
+                final Utilities.Mapping mapping = new Utilities.Mapping(
+                        "mapped" + counter,
+                        (counter & 3) == 0 ? "Does thing " + counter + "." : "");
+                if (name.startsWith("func_")) {
+                    mappings.methodMappings.putIfAbsent(name, mapping);
+                } else if (name.startsWith("field_")) {
+                    mappings.fieldMappings.putIfAbsent(name, mapping);
+                } else {
+                    mappings.paramMappings.putIfAbsent(name, mapping.name());
+                }
+            }
+        }
+        remapper = new SourceRemapper(mappings, true, false);
+    }
+
+    /**
+     * Turns the three space indentation of the synthetic Fernflower output into the four spaces astyle gives the sources
+     * before they're remapped, the method and field declaration patterns of the remapper only match the latter.
+     */
+    private static String reindent(String source) {
+        return FERNFLOWER_INDENT.matcher(source)
+                .replaceAll(match -> " ".repeat(match.group().length() / 3 * 4));
+    }
+
+    @Benchmark
+    public void remap(Blackhole bh) {
+        final LongAdder genericsApplied = new LongAdder();
+        for (Map.Entry<String, String> source : sources.entrySet()) {
+            // A fresh SourceFile each time, like the task reading the jar, as it caches its split lines
+            final List<String> lines = remapper
+                    .remap(source.getKey(), SourceFile.ofText(source.getValue()), genericsApplied);
+            bh.consume(lines);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.gtnewhorizons.retrofuturagradle.jmh;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.gtnewhorizons.retrofuturagradle.util.SrgTokenScanner;
+
+/**
+ * Compares the regex based SRG name replacement RemapSourceJarTask used to do with {@link SrgTokenScanner}. Set the
+ * rfg.jmh.sourcesJar system property to a decompiled Minecraft sources jar (the input jar of the remapDecompiledJar
+ * task) to benchmark on real code, otherwise the synthetic {@link DecompiledCorpus} is used.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SrgTokenScannerBenchmark {
+
+    private static final Pattern SRG_FINDER = Pattern
+            .compile("(func_\\d+_[a-zA-Z_]+|field_\\d+_[a-zA-Z_]+|p_\\w+_\\d+_)([^\\w$]|$)");
+
+    private List<String> lines;
+    private Map<String, String> mappings;
+
+    @Setup
+    public void setup() {
+        lines = new ArrayList<>();
+        for (String source : DecompiledCorpus.load(200)) {
+            lines.addAll(List.of(source.split("(\r\n)|\n|\r")));
+        }
+        // Map every other SRG name, like the partial MCP mappings do
+        mappings = new HashMap<>();
+        int counter = 0;
+        for (String line : lines) {
+            final Matcher matcher = SRG_FINDER.matcher(line);
+            while (matcher.find()) {
+                if ((counter++ & 1) == 0) {
+                    mappings.put(matcher.group(1), "mapped" + counter);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void regex(Blackhole bh) {
+        final Matcher mSrg = SRG_FINDER.matcher("");
+        for (String line : lines) {
+            final StringBuilder mappedLine = new StringBuilder();
+            mSrg.reset(line);
+            while (mSrg.find()) {
+                final String found = mSrg.group(1);
+                mSrg.appendReplacement(mappedLine, mappings.getOrDefault(found, found));
+                mappedLine.append(mSrg.group(2));
+            }
+            mSrg.appendTail(mappedLine);
+            bh.consume(mappedLine.toString());
+        }
+    }
+
+    @Benchmark
+    public void scanner(Blackhole bh) {
+        final StringBuilder buffer = new StringBuilder(256);
+        for (String line : lines) {
+            bh.consume(SrgTokenScanner.remapTokens(line, found -> mappings.getOrDefault(found, found), buffer));
+        }
+    }
+}
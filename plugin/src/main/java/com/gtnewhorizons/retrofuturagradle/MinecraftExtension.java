@@ -16,6 +16,10 @@ public abstract class MinecraftExtension implements IMinecraftyExtension {
 
     public MinecraftExtension(Project project) {
         getSkipSlowTasks().convention(false);
+        getJarTransformParallelism().convention(Runtime.getRuntime().availableProcessors());
+        getVerifyParallelSourceRemap().convention(false);
+        getDecompilerWorkers().convention(1);
+        getUseIncrementalDecompilation().convention(false);
         applyMinecraftyConventions(project);
 
         getGroupsToExcludeFromAutoReobfMapping().set(Lists.newArrayList());
@@ -35,6 +39,34 @@ public abstract class MinecraftExtension implements IMinecraftyExtension {
      */
     public abstract Property<Boolean> getSkipSlowTasks();
 
+    /**
+     * The maximum number of threads used to transform classes when merging and deobfuscating the Minecraft jars and
+     * deobfuscating dependencies, and to patch and remap the decompiled sources, the number of available processors by
+     * default. The outputs are the same regardless of this setting.
+     */
+    public abstract Property<Integer> getJarTransformParallelism();
+
+    /**
+     * Re-runs the source remapping sequentially after the parallel run and fails the build if the results differ,
+     * false by default. Only useful for debugging the plugin.
+     */
+    public abstract Property<Boolean> getVerifyParallelSourceRemap();
+
+    /**
+     * The number of Fernflower processes the Minecraft classes are split between when decompiling, 1 by default. Each
+     * process decompiles a share of the classes with the whole jar available for context, and their heaps are sized to
+     * fit in the physical memory, so fewer processes may be started than asked for. Gradle's max-workers setting also
+     * limits how many run at the same time on 1.12.
+     */
+    public abstract Property<Integer> getDecompilerWorkers();
+
+    /**
+     * Keeps the decompiled source of every Minecraft class in the RFG cache, so that after a change to the access
+     * transformers or mappings only the classes whose bytecode changed, and the classes referencing them, get
+     * decompiled again. False by default.
+     */
+    public abstract Property<Boolean> getUseIncrementalDecompilation();
+
     // Forge configs
 
     /**
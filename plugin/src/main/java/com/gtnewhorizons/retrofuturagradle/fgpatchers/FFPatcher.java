@@ -5,6 +5,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -49,6 +51,27 @@ public class FFPatcher {
 
     private static final Pattern NEWLINE_PATTERN = Pattern.compile("\r?\n|\r");
 
+    /**
+     * The patterns that only depend on the indent of a class, compiled once per indent and shared by all files, as
+     * there are only a handful of nesting levels but tens of thousands of classes.
+     */
+    private record IndentPatterns(Pattern classDeclaration, Pattern enumEntry, Pattern constructorCall) {
+
+        static IndentPatterns compile(String indent) {
+            final String memberIndent = indent + "   ";
+            return new IndentPatterns(
+                    Pattern.compile(indent + CLASS_REGEX),
+                    Pattern.compile("^" + memberIndent + ENUM_ENTRY_REGEX),
+                    Pattern.compile("^" + memberIndent + "   " + CONSTRUCTOR_CALL_REGEX));
+        }
+    }
+
+    private static final ConcurrentMap<String, IndentPatterns> INDENT_PATTERNS = new ConcurrentHashMap<>();
+
+    private static IndentPatterns getIndentPatterns(String indent) {
+        return INDENT_PATTERNS.computeIfAbsent(indent, IndentPatterns::compile);
+    }
+
     public static String processFile(String fileName, String text, boolean fixInterfaces) throws IOException {
         StringBuilder out = new StringBuilder();
         Matcher m = SYNTHETICS.matcher(text);
@@ -84,9 +107,15 @@ public class FFPatcher {
         return text;
     }
 
+    /** Cheap check for the words CLASS_REGEX can't match without, most lines don't have them */
+    private static boolean mayDeclareClass(String line) {
+        return line.contains(" {")
+                && (line.contains("class ") || line.contains("enum ") || line.contains("interface "));
+    }
+
     private static int processClass(List<String> lines, String indent, int startIndex, String qualifiedName,
             String simpleName) {
-        Pattern classPattern = Pattern.compile(indent + CLASS_REGEX);
+        Matcher matcher = getIndentPatterns(indent).classDeclaration().matcher("");
 
         for (int i = startIndex; i < lines.size(); i++) {
             String line = lines.get(i);
@@ -96,10 +125,8 @@ public class FFPatcher {
             // ignore packages and imports
             else if (line.startsWith("package") || line.startsWith("import")) continue;
 
-            Matcher matcher = classPattern.matcher(line);
-
             // found a class!
-            if (matcher.find()) {
+            if (mayDeclareClass(line) && matcher.reset(line).find()) {
                 String newIndent;
                 String classPath;
                 if (Strings.isNullOrEmpty(qualifiedName)) {
@@ -128,9 +155,11 @@ public class FFPatcher {
     private static void processEnum(List<String> lines, String indent, int startIndex, String qualifiedName,
             String simpleName) {
         String newIndent = indent + "   ";
-        Pattern enumEntry = Pattern.compile("^" + newIndent + ENUM_ENTRY_REGEX);
+        IndentPatterns indentPatterns = getIndentPatterns(indent);
+        Pattern enumEntry = indentPatterns.enumEntry();
+        // These depend on the name of the enum, so they can't be shared
         Pattern constructor = Pattern.compile("^" + newIndent + String.format(CONSTRUCTOR_REGEX, simpleName));
-        Pattern constructorCall = Pattern.compile("^" + newIndent + "   " + CONSTRUCTOR_CALL_REGEX);
+        Pattern constructorCall = indentPatterns.constructorCall();
         String formatted = newIndent + String.format(VALUE_FIELD_REGEX, qualifiedName, qualifiedName);
         Pattern valueField = Pattern.compile("^" + formatted);
         String newLine;
@@ -161,24 +161,103 @@ public class FmlCleanup {
                 else body.appendln((String) line);
             }
 
-            if (!renames.isEmpty()) {
-                List<String> sortedKeys = new ArrayList<>(renames.keySet());
-                sortedKeys.sort(COMPARATOR);
-
-                // closure changes the sort, to sort by the return value of the closure.
-                final Matcher VAR_MATCHER = VAR.matcher("");
-                for (String key : sortedKeys) {
-                    VAR_MATCHER.reset(key);
-                    if (VAR_MATCHER.matches()) {
-                        body = body.replaceAll(key, renames.get(key));
-                    }
+            body.delete(body.length() - System.lineSeparator().length(), body.length());
+
+            if (renames.isEmpty()) {
+                return body.toString();
+            }
+            final String renamed = renameVars(body.toString(), renames);
+            return renamed != null ? renamed : renameVarsSequentially(body, renames);
+        }
+    }
+
+    /**
+     * Replaces every var## name in one walk over the text. Like the sequential replacement this works on substrings,
+     * so at each "var" the longest var## name to rename starting there wins. That only differs from replacing the
+     * names one after another if a new name forms a var## name together with the text around it, which is checked
+     * for.
+     *
+     * @return The renamed text, or null if the names have to be replaced one after another
+     */
+    private static String renameVars(String text, Map<String, String> renames) {
+        final StringBuilder out = new StringBuilder(text.length());
+        final int length = text.length();
+        int copied = 0;
+        int start = text.indexOf("var");
+        while (start >= 0) {
+            int end = start + 3;
+            while (end < length && isDigit(text.charAt(end))) {
+                end++;
+            }
+            final int digitsEnd = end;
+            while (end < length && text.charAt(end) == 'x') {
+                end++;
+            }
+
+            // the longest var## name starting here, with all, some or none of the x's, or fewer digits
+            String replacement = null;
+            int matchEnd = digitsEnd > start + 3 ? end : start;
+            for (; matchEnd > start + 3; matchEnd--) {
+                replacement = renames.get(text.substring(start, matchEnd));
+                if (replacement != null) {
+                    break;
                 }
             }
 
-            body.delete(body.length() - System.lineSeparator().length(), body.length());
+            if (replacement == null) {
+                start = text.indexOf("var", start + 1);
+                continue;
+            }
+            if (mayFormVarName(text, start, replacement)) {
+                return null;
+            }
+            out.append(text, copied, start).append(replacement);
+            copied = matchEnd;
+            start = text.indexOf("var", matchEnd);
+        }
+        return out.append(text, copied, length).toString();
+    }
+
+    /** Same as \d in a regex */
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /** Whether the new name could form a var## name with itself or the text before it */
+    private static boolean mayFormVarName(String text, int start, String replacement) {
+        if (replacement.contains("var") || replacement.endsWith("v") || replacement.endsWith("va")
+                || replacement.equals("a")) {
+            return true;
+        }
+        if ((replacement.startsWith("ar") && text.startsWith("v", start - 1))
+                || (replacement.startsWith("r") && start >= 2 && text.startsWith("va", start - 2))) {
+            return true;
+        }
+        if (replacement.startsWith("x") || (!replacement.isEmpty() && isDigit(replacement.charAt(0)))) {
+            // after var12, an x or a digit would make the number longer
+            int i = start;
+            while (i > 0 && (isDigit(text.charAt(i - 1)) || text.charAt(i - 1) == 'x')) {
+                i--;
+            }
+            return i < start && i >= 3 && text.startsWith("var", i - 3);
+        }
+        return false;
+    }
 
-            return body.toString();
+    /** Replaces the var## names one by one, longest first */
+    private static String renameVarsSequentially(TextStringBuilder body, Map<String, String> renames) {
+        List<String> sortedKeys = new ArrayList<>(renames.keySet());
+        sortedKeys.sort(COMPARATOR);
+
+        // closure changes the sort, to sort by the return value of the closure.
+        final Matcher VAR_MATCHER = VAR.matcher("");
+        for (String key : sortedKeys) {
+            VAR_MATCHER.reset(key);
+            if (VAR_MATCHER.matches()) {
+                body = body.replaceAll(key, renames.get(key));
+            }
         }
+        return body.toString();
     }
 
     HashMap<String, Holder> last;
@@ -1,7 +1,11 @@
 package com.gtnewhorizons.retrofuturagradle.fgpatchers;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
@@ -18,7 +22,8 @@ public class GLConstantFixer {
     private static final String[] PACKAGES = { "GL11", "GL12", "GL13", "GL14", "GL15", "GL20", "GL21",
             "ARBMultitexture", "ARBOcclusionQuery", "ARBVertexBufferObject", "ARBShaderObjects" };
 
-    private final List<GLConstantGroup> json;
+    /** GL class -> method -> literal value -> qualified constant */
+    private final Map<String, Map<String, Map<String, String>>> constants;
     public static final Pattern CALL_REGEX = Pattern
             .compile("(" + Joiner.on("|").join(PACKAGES) + ")\\.([\\w]+)\\(.+\\)");
     public static final Pattern CONSTANT_REGEX = Pattern.compile("(?<![-.\\w])\\d+(?![.\\w])");
@@ -27,10 +32,77 @@ public class GLConstantFixer {
     private static final String IMPORT_CHECK = "import " + CHECK;
     private static final String IMPORT_REPLACE = "import " + ADD_AFTER + ";";
 
+    /** The index of gl_constants.json, built on first use and shared by all instances */
+    private static final class BundledConstants {
+
+        static final Map<String, Map<String, Map<String, String>>> INDEX;
+
+        static {
+            try {
+                INDEX = buildConstantIndex(loadConstantGroups());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
     public GLConstantFixer() throws IOException {
+        constants = BundledConstants.INDEX;
+    }
+
+    /** Uses the given constant groups instead of the bundled ones */
+    GLConstantFixer(List<GLConstantGroup> groups) {
+        constants = buildConstantIndex(groups);
+    }
+
+    static List<GLConstantGroup> loadConstantGroups() throws IOException {
         String text = Resources
                 .toString(Resources.getResource(GLConstantFixer.class, "gl_constants.json"), Charset.defaultCharset());
-        json = Utilities.GSON.fromJson(text, new TypeToken<List<GLConstantGroup>>() {}.getType());
+        return Utilities.GSON.fromJson(text, new TypeToken<List<GLConstantGroup>>() {}.getType());
+    }
+
+    /**
+     * Compiles the constant groups into a GL class -> method -> literal value -> qualified constant index. Methods with
+     * the same constant groups share one map.
+     */
+    private static Map<String, Map<String, Map<String, String>>> buildConstantIndex(List<GLConstantGroup> json) {
+        // Which groups define each method, in file order
+        Map<String, Map<String, List<GLConstantGroup>>> groupsByMethod = new LinkedHashMap<>();
+        for (GLConstantGroup group : json) {
+            for (Map.Entry<String, List<String>> functions : group.functions.entrySet()) {
+                for (String method : functions.getValue()) {
+                    List<GLConstantGroup> groups = groupsByMethod
+                            .computeIfAbsent(functions.getKey(), k -> new LinkedHashMap<>())
+                            .computeIfAbsent(method, k -> new ArrayList<>());
+                    // a method listed twice in a group still only applies that group once
+                    if (groups.isEmpty() || groups.get(groups.size() - 1) != group) {
+                        groups.add(group);
+                    }
+                }
+            }
+        }
+
+        // When several groups or classes have the same literal, the last one wins, as it did when scanning the list
+        Map<List<GLConstantGroup>, Map<String, String>> mergedConstants = new HashMap<>();
+        Map<String, Map<String, Map<String, String>>> index = new HashMap<>();
+        for (Map.Entry<String, Map<String, List<GLConstantGroup>>> pack : groupsByMethod.entrySet()) {
+            Map<String, Map<String, String>> methods = new HashMap<>();
+            for (Map.Entry<String, List<GLConstantGroup>> method : pack.getValue().entrySet()) {
+                methods.put(method.getKey(), mergedConstants.computeIfAbsent(method.getValue(), groups -> {
+                    Map<String, String> merged = new HashMap<>();
+                    for (GLConstantGroup group : groups) {
+                        for (Map.Entry<String, Map<String, String>> entry : group.constants.entrySet()) {
+                            for (Map.Entry<String, String> constant : entry.getValue().entrySet()) {
+                                merged.put(constant.getKey(), entry.getKey() + "." + constant.getValue());
+                            }
+                        }
+                    }
+                    return Map.copyOf(merged);
+                }));
+            }
+            index.put(pack.getKey(), Map.copyOf(methods));
+        }
+        return Map.copyOf(index);
     }
 
     public String fixOGL(String text) {
@@ -56,37 +128,29 @@ public class GLConstantFixer {
         StringBuilder out = new StringBuilder(text.length());
         StringBuilder innerOut = new StringBuilder(64);
 
+        Matcher constantMatcher = CONSTANT_REGEX.matcher("");
+
         // search with regex.
         while (rootMatch.find()) {
             // helper variables
-            fullCall = rootMatch.group();
             pack = rootMatch.group(1);
             method = rootMatch.group(2);
 
-            Matcher constantMatcher = CONSTANT_REGEX.matcher(fullCall);
+            // the constants for this method, calls without any are left as they are
+            Map<String, Map<String, String>> methods = constants.get(pack);
+            Map<String, String> methodConstants = methods == null ? null : methods.get(method);
+            if (methodConstants == null) {
+                continue;
+            }
+
+            fullCall = rootMatch.group();
+            constantMatcher.reset(fullCall);
             innerOut.delete(0, innerOut.length());
 
             // search for hardcoded numbers
             while (constantMatcher.find()) {
-                // helper variables and return variable.
-                String constant = constantMatcher.group();
-                String answer = null;
-
-                // iterrate over the JSON
-                for (GLConstantGroup group : json) {
-
-                    // ensure that the package and method are defined
-                    if (group.functions.containsKey(pack) && group.functions.get(pack).contains(method)) {
-                        // itterrate through the map.
-                        for (Map.Entry<String, Map<String, String>> entry : group.constants.entrySet()) {
-                            // find the actual constant for the number from the regex
-                            if (entry.getValue().containsKey(constant)) {
-                                // construct the final line
-                                answer = entry.getKey() + "." + entry.getValue().get(constant);
-                            }
-                        }
-                    }
-                }
+                // find the actual constant for the number from the regex
+                String answer = methodConstants.get(constantMatcher.group());
 
                 // replace the final line.
                 if (answer != null) {
@@ -96,9 +160,7 @@ public class GLConstantFixer {
             constantMatcher.appendTail(innerOut);
 
             // replace the final line.
-            if (fullCall != null) {
-                rootMatch.appendReplacement(out, Matcher.quoteReplacement(innerOut.toString()));
-            }
+            rootMatch.appendReplacement(out, Matcher.quoteReplacement(innerOut.toString()));
         }
         rootMatch.appendTail(out);
 
@@ -11,6 +11,7 @@
 package com.gtnewhorizons.retrofuturagradle.fgpatchers;
 
 import java.io.StringWriter;
+import java.util.Arrays;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -220,7 +221,68 @@ public class McpCleanupFg23 {
     // 5.8119...F to ((float)Math.PI * 185F / 100F)
     public static final Pattern CLEANUP_185pi100F = Pattern.compile("0\\.8119[0-9]*[Ff]");
 
+    /** A number literal replaced with the expression it was compiled from, like the CLEANUP_pi patterns */
+    private record ConstantRule(String prefix, char suffix, String replacement) {}
+
+    /** The same rules as the CLEANUP_pi patterns, indexed by the first digit of the prefix */
+    private static final ConstantRule[][] CONSTANT_RULES = indexConstantRules(
+            new ConstantRule("3.1415", 'D', "Math.PI"),
+            new ConstantRule("3.1415", 'F', "(float)Math.PI"),
+            new ConstantRule("6.2831", 'D', "(Math.PI * 2D)"),
+            new ConstantRule("6.2831", 'F', "((float)Math.PI * 2F)"),
+            new ConstantRule("1.5707", 'D', "(Math.PI / 2D)"),
+            new ConstantRule("1.5707", 'F', "((float)Math.PI / 2F)"),
+            new ConstantRule("4.7123", 'D', "(Math.PI * 3D / 2D)"),
+            new ConstantRule("4.7123", 'F', "((float)Math.PI * 3F / 2F)"),
+            new ConstantRule("0.7853", 'D', "(Math.PI / 4D)"),
+            new ConstantRule("0.7853", 'F', "((float)Math.PI / 4F)"),
+            new ConstantRule("0.6283", 'D', "(Math.PI / 5D)"),
+            new ConstantRule("0.6283", 'F', "((float)Math.PI / 5F)"),
+            new ConstantRule("57.295", 'D', "(180D / Math.PI)"),
+            new ConstantRule("57.295", 'F', "(180F / (float)Math.PI)"),
+            new ConstantRule("0.6981", 'D', "(Math.PI * 2D / 9D)"),
+            new ConstantRule("0.6981", 'F', "((float)Math.PI * 2F / 9F)"),
+            new ConstantRule("0.3141", 'D', "(Math.PI / 10D)"),
+            new ConstantRule("0.3141", 'F', "((float)Math.PI / 10F)"),
+            new ConstantRule("1.2566", 'D', "(Math.PI * 2D / 5D)"),
+            new ConstantRule("1.2566", 'F', "((float)Math.PI * 2F / 5F)"),
+            new ConstantRule("0.21991", 'D', "(Math.PI * 7D / 100D)"),
+            new ConstantRule("0.21991", 'F', "((float)Math.PI * 7F / 100F)"),
+            new ConstantRule("5.8119", 'D', "(Math.PI * 185D / 100D)"),
+            // Not 5.8119, same as CLEANUP_185pi100F
+            new ConstantRule("0.8119", 'F', "((float)Math.PI * 185F / 100F)"));
+
+    private static final String CHARVAL_PREFIX = "Character.valueOf(";
+
+    private static ConstantRule[][] indexConstantRules(ConstantRule... rules) {
+        final ConstantRule[][] index = new ConstantRule[10][0];
+        for (ConstantRule rule : rules) {
+            final int digit = rule.prefix().charAt(0) - '0';
+            index[digit] = Arrays.copyOf(index[digit], index[digit].length + 1);
+            index[digit][index[digit].length - 1] = rule;
+        }
+        return index;
+    }
+
     public static String cleanup(String text) {
+        text = stripFileWhitespace(text);
+        text = stripTrailingWhitespace(text);
+        // These look around at what the previous ones left, so they stay separate passes
+        text = CLEANUP_newlines.matcher(text).replaceAll(System.lineSeparator());
+        text = CLEANUP_ifstarts.matcher(text).replaceAll("$1" + System.lineSeparator() + "$2");
+        text = CLEANUP_blockstarts.matcher(text).replaceAll("");
+        text = CLEANUP_blockends.matcher(text).replaceAll("");
+        if (text.contains("GL_")) {
+            text = CLEANUP_gl.matcher(text).replaceAll("");
+        }
+        return cleanupLiterals(text);
+    }
+
+    /**
+     * The original implementation of {@link #cleanup(String)}, running every pattern over the whole file one after
+     * another. Kept as the reference the faster version has to match.
+     */
+    public static String cleanupSequential(String text) {
         // simple replacements
         text = CLEANUP_header.matcher(text).replaceAll("");
         text = CLEANUP_footer.matcher(text).replaceAll("");
@@ -230,8 +292,228 @@ public class McpCleanupFg23 {
         text = CLEANUP_blockstarts.matcher(text).replaceAll("");
         text = CLEANUP_blockends.matcher(text).replaceAll("");
         text = CLEANUP_gl.matcher(text).replaceAll("");
-        text = CLEANUP_maxD.matcher(text).replaceAll("Double.MAX_VALUE");
+        return cleanupLiteralsSequential(text);
+    }
+
+    /** Whether the character is matched by \s in a regex */
+    private static boolean isRegexSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
 
+    /** Whether a regex $ matches before the character, besides the \n and \r that \s also matches */
+    private static boolean isOtherLineTerminator(char c) {
+        return c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || isOtherLineTerminator(c);
+    }
+
+    /** Same as CLEANUP_header and CLEANUP_footer */
+    private static String stripFileWhitespace(String text) {
+        int start = 0;
+        while (start < text.length() && isRegexSpace(text.charAt(start))) {
+            start++;
+        }
+        // $ also matches before a line terminator ending the file, which \s doesn't cover
+        int end = text.length();
+        if (end > start && isOtherLineTerminator(text.charAt(end - 1))) {
+            end--;
+        }
+        int footer = end;
+        while (footer > start && isRegexSpace(text.charAt(footer - 1))) {
+            footer--;
+        }
+        if (start == 0 && footer == end) {
+            return text;
+        }
+        return text.substring(start, footer) + text.substring(end);
+    }
+
+    /** Same as CLEANUP_trailing */
+    private static String stripTrailingWhitespace(String text) {
+        final int length = text.length();
+        StringBuilder out = null;
+        int copied = 0;
+        int i = 0;
+        while (i < length) {
+            final char c = text.charAt(i);
+            if (c != ' ' && c != '\t') {
+                i++;
+                continue;
+            }
+            final int start = i;
+            while (i < length && (text.charAt(i) == ' ' || text.charAt(i) == '\t')) {
+                i++;
+            }
+            // Only runs at the end of a line are removed
+            if (i < length && !isLineTerminator(text.charAt(i))) {
+                continue;
+            }
+            if (out == null) {
+                out = new StringBuilder(length);
+            }
+            out.append(text, copied, start);
+            copied = i;
+        }
+        if (out == null) {
+            return text;
+        }
+        return out.append(text, copied, length).toString();
+    }
+
+    /**
+     * Applies CLEANUP_maxD, CLEANUP_unicode, CLEANUP_charval and all the CLEANUP_pi patterns in one walk over the text.
+     * None of their matches can overlap, so trying all rules at each position gives the same result as running them
+     * one after another. The only exception is a replacement that forms a new match together with the digits around
+     * it, which valid Java can't contain, so those files go through the sequential passes instead.
+     */
+    private static String cleanupLiterals(String text) {
+        final int length = text.length();
+        StringBuilder out = null;
+        int copied = 0;
+        int i = 0;
+        while (i < length) {
+            final char c = text.charAt(i);
+            int end = -1;
+            String replacement = null;
+            if (c >= '0' && c <= '9') {
+                end = matchMaxDouble(text, i);
+                if (end >= 0) {
+                    if (touchesNumber(text, i, end)) {
+                        return cleanupLiteralsSequential(text);
+                    }
+                    replacement = "Double.MAX_VALUE";
+                } else {
+                    for (ConstantRule rule : CONSTANT_RULES[c - '0']) {
+                        end = matchConstant(text, i, rule);
+                        if (end >= 0) {
+                            replacement = rule.replacement();
+                            break;
+                        }
+                    }
+                }
+            } else if (c == '\'') {
+                end = matchUnicode(text, i);
+                if (end >= 0) {
+                    final int val = Integer.parseInt(text, i + 3, i + 7, 16);
+                    // work around the replace('\u00a7', '$') call in MinecraftServer and a couple of '\u0000'
+                    if (val <= 255) {
+                        i = end;
+                        continue;
+                    }
+                    if (touchesNumber(text, i, end)) {
+                        return cleanupLiteralsSequential(text);
+                    }
+                    replacement = Integer.toString(val);
+                }
+            } else if (c == 'C') {
+                end = matchCharacterValueOf(text, i);
+                if (end >= 0) {
+                    replacement = text.substring(i + CHARVAL_PREFIX.length(), end - 1);
+                }
+            }
+            if (replacement == null) {
+                i++;
+                continue;
+            }
+            if (out == null) {
+                out = new StringBuilder(length);
+            }
+            out.append(text, copied, i).append(replacement);
+            copied = i = end;
+        }
+        if (out == null) {
+            return text;
+        }
+        return out.append(text, copied, length).toString();
+    }
+
+    /** Whether a replaced literal is directly next to digits or a dot it could form a new number with */
+    private static boolean touchesNumber(String text, int start, int end) {
+        return (start > 0 && isDigitOrDot(text.charAt(start - 1)))
+                || (end < text.length() && isDigitOrDot(text.charAt(end)));
+    }
+
+    private static boolean isDigitOrDot(char c) {
+        return (c >= '0' && c <= '9') || c == '.';
+    }
+
+    /** @return The end of the digits starting at the given index */
+    private static int skipDigits(String text, int i) {
+        while (i < text.length() && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+            i++;
+        }
+        return i;
+    }
+
+    /** Same as CLEANUP_maxD, @return The end of the match at the given index, or -1 */
+    private static int matchMaxDouble(String text, int i) {
+        if (!text.startsWith("1.7976", i)) {
+            return -1;
+        }
+        final int e = skipDigits(text, i + 6);
+        if (e >= text.length() || (text.charAt(e) != 'E' && text.charAt(e) != 'e')
+                || !text.startsWith("+308", e + 1)
+                || e + 5 >= text.length()
+                || (text.charAt(e + 5) != 'D' && text.charAt(e + 5) != 'd')) {
+            return -1;
+        }
+        return e + 6;
+    }
+
+    /** Same as the CLEANUP_pi patterns, @return The end of the match at the given index, or -1 */
+    private static int matchConstant(String text, int i, ConstantRule rule) {
+        if (!text.startsWith(rule.prefix(), i)) {
+            return -1;
+        }
+        final int suffix = skipDigits(text, i + rule.prefix().length());
+        if (suffix >= text.length() || Character.toUpperCase(text.charAt(suffix)) != rule.suffix()) {
+            return -1;
+        }
+        return suffix + 1;
+    }
+
+    /** Same as CLEANUP_unicode, @return The end of the match at the given index, or -1 */
+    private static int matchUnicode(String text, int i) {
+        if (i + 8 > text.length() || text.charAt(i + 1) != '\\'
+                || text.charAt(i + 2) != 'u'
+                || text.charAt(i + 7) != '\'') {
+            return -1;
+        }
+        for (int j = i + 3; j < i + 7; j++) {
+            final char c = text.charAt(j);
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F'))) {
+                return -1;
+            }
+        }
+        return i + 8;
+    }
+
+    /** Same as CLEANUP_charval, @return The end of the match at the given index, or -1 */
+    private static int matchCharacterValueOf(String text, int i) {
+        if (!text.startsWith(CHARVAL_PREFIX, i)) {
+            return -1;
+        }
+        int j = i + CHARVAL_PREFIX.length();
+        if (j + 1 >= text.length() || text.charAt(j) != '\'') {
+            return -1;
+        }
+        // The regex dot matches a whole code point, but no line terminators
+        final int codePoint = text.codePointAt(j + 1);
+        if (codePoint == '\n' || codePoint == '\r' || codePoint == '\u0085' || codePoint == '\u2028'
+                || codePoint == '\u2029') {
+            return -1;
+        }
+        j += 1 + Character.charCount(codePoint);
+        if (j + 1 >= text.length() || text.charAt(j) != '\'' || text.charAt(j + 1) != ')') {
+            return -1;
+        }
+        return j + 2;
+    }
+
+    private static String cleanupLiteralsSequential(String text) {
+        text = CLEANUP_maxD.matcher(text).replaceAll("Double.MAX_VALUE");
         // unicode chars
         {
             Matcher matcher = CLEANUP_unicode.matcher(text);
@@ -49,6 +49,8 @@ public class ReobfExceptor {
     public File methodCSV;
     public File fieldCSV;
     public File excConfig;
+    /** Pre-parsed srg to mcp names from the csvs, if null the csvs get read by {@link #doFirstThings()} */
+    public Map<String, String> csvData;
 
     // state stuff
     Map<String, String> clsMap = Maps.newHashMap();
@@ -84,6 +86,9 @@ public class ReobfExceptor {
     // Preliminary things here
 
     private Map<String, String> readCSVs() throws IOException {
+        if (this.csvData != null) {
+            return this.csvData;
+        }
         final Map<String, String> csvData = Maps.newHashMap();
         File[] csvs = new File[] { fieldCSV == null ? null : fieldCSV, methodCSV == null ? null : methodCSV };
 
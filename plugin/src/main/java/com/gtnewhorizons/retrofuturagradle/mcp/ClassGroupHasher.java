@@ -0,0 +1,301 @@
+package com.gtnewhorizons.retrofuturagradle.mcp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.signature.SignatureReader;
+import org.objectweb.asm.signature.SignatureVisitor;
+
+import com.gtnewhorizons.retrofuturagradle.util.Utilities;
+
+/**
+ * Computes a key for every group of classes that Fernflower decompiles into one source file, an outer class and all of
+ * its inner classes. The key covers the bytecode of the group itself and the declarations (but not the code) of every
+ * other class in the jar it references, and of all their supertypes, as the decompiler looks at those to pick casts,
+ * generic types and how members are accessed. A class counts as referenced if its name appears in a class constant or
+ * in any descriptor or generic signature of the group. The key also covers the simple names of the outer classes in
+ * the group's own package and in the default package, as Fernflower's import collector only imports a class if its
+ * simple name doesn't clash with those. A group with an unchanged key decompiles to the same source.
+ */
+public final class ClassGroupHasher {
+
+    private static final int CONSTANT_CLASS_TAG = 7;
+    private static final int CONSTANT_NAME_AND_TYPE_TAG = 12;
+    private static final int CONSTANT_METHOD_TYPE_TAG = 16;
+
+    private ClassGroupHasher() {}
+
+    /**
+     * @return Outer class internal name to the hex key of its group, for all classes in the jar
+     */
+    public static Map<String, String> hashGroups(File jar) throws IOException {
+        final Map<String, byte[]> classes = new TreeMap<>();
+        try (final ZipFile zip = new ZipFile(jar)) {
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                if (DecompilePartitioner.getOuterClass(entry.getName()) != null) {
+                    classes.put(entry.getName(), Utilities.readZipEntry(zip, entry));
+                }
+            }
+        }
+
+        final Map<String, byte[]> declarationHashes = new TreeMap<>();
+        final Map<String, List<String>> supertypes = new HashMap<>();
+        final Map<String, Set<String>> groupReferences = new TreeMap<>();
+        final Map<String, List<String>> groupMembers = new TreeMap<>();
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            final String outer = DecompilePartitioner.getOuterClass(entry.getKey());
+            final ClassReader reader = new ClassReader(entry.getValue());
+            final Set<String> references = groupReferences.computeIfAbsent(outer, k -> new TreeSet<>());
+            declarationHashes.put(reader.getClassName(), hashDeclarations(reader, references));
+            supertypes.put(reader.getClassName(), getSupertypes(reader));
+            groupMembers.computeIfAbsent(outer, k -> new ArrayList<>()).add(entry.getKey());
+            collectConstantPoolReferences(reader, references);
+        }
+        for (Set<String> references : groupReferences.values()) {
+            addSupertypes(references, supertypes);
+        }
+        final Map<String, Set<String>> packageClassNames = new HashMap<>();
+        for (String outer : groupMembers.keySet()) {
+            final int slash = outer.lastIndexOf('/');
+            packageClassNames.computeIfAbsent(slash < 0 ? "" : outer.substring(0, slash), k -> new TreeSet<>())
+                    .add(outer.substring(slash + 1));
+        }
+
+        final Map<String, String> keys = new TreeMap<>();
+        for (Map.Entry<String, List<String>> group : groupMembers.entrySet()) {
+            final String outer = group.getKey();
+            final MessageDigest digest = DigestUtils.getSha256Digest();
+            for (String member : group.getValue()) {
+                updateString(digest, member);
+                digest.update(classes.get(member));
+            }
+            for (String reference : groupReferences.get(outer)) {
+                final byte[] declarations = declarationHashes.get(reference);
+                if (declarations != null && !outer.equals(DecompilePartitioner.getOuterClass(reference + ".class"))) {
+                    updateString(digest, reference);
+                    digest.update(declarations);
+                }
+            }
+            final int slash = outer.lastIndexOf('/');
+            updateClassNames(digest, packageClassNames.get(slash < 0 ? "" : outer.substring(0, slash)));
+            updateClassNames(digest, packageClassNames.getOrDefault("", Collections.emptySet()));
+            keys.put(outer, Hex.encodeHexString(digest.digest()));
+        }
+        return keys;
+    }
+
+    /**
+     * Adds the internal names of all classes in class constants and in the descriptors of member references and method
+     * types in the constant pool, without parsing the rest of the class.
+     */
+    private static void collectConstantPoolReferences(ClassReader reader, Set<String> references) {
+        final char[] buffer = new char[reader.getMaxStringLength()];
+        for (int i = 1; i < reader.getItemCount(); i++) {
+            final int offset = reader.getItem(i);
+            // The second slot of long and double constants has no offset
+            if (offset == 0) {
+                continue;
+            }
+            switch (reader.readByte(offset - 1)) {
+                case CONSTANT_CLASS_TAG -> {
+                    final String name = reader.readUTF8(offset, buffer);
+                    if (name.startsWith("[")) {
+                        addSignatureReferences(name, references);
+                    } else {
+                        references.add(name);
+                    }
+                }
+                case CONSTANT_NAME_AND_TYPE_TAG -> addSignatureReferences(
+                        reader.readUTF8(offset + 2, buffer),
+                        references);
+                case CONSTANT_METHOD_TYPE_TAG -> addSignatureReferences(reader.readUTF8(offset, buffer), references);
+                default -> {}
+            }
+        }
+    }
+
+    /**
+     * Adds the internal names of all classes in a descriptor or generic signature, including inner classes of
+     * parameterized types, {@code Lpkg/Outer<TT;>.Inner;} references pkg/Outer and pkg/Outer$Inner.
+     */
+    private static void addSignatureReferences(String signature, Set<String> references) {
+        if (signature != null) {
+            new SignatureReader(signature).accept(new ReferenceCollector(references));
+        }
+    }
+
+    private static final class ReferenceCollector extends SignatureVisitor {
+
+        private final Set<String> references;
+        private String currentClass;
+
+        ReferenceCollector(Set<String> references) {
+            super(Opcodes.ASM9);
+            this.references = references;
+        }
+
+        @Override
+        public void visitClassType(String name) {
+            currentClass = name;
+            references.add(name);
+        }
+
+        @Override
+        public void visitInnerClassType(String name) {
+            currentClass = currentClass + '$' + name;
+            references.add(currentClass);
+        }
+
+        @Override
+        public SignatureVisitor visitTypeArgument(char wildcard) {
+            // Type arguments are nested in the current class type, they need their own state
+            return new ReferenceCollector(references);
+        }
+    }
+
+    private static List<String> getSupertypes(ClassReader reader) {
+        final List<String> supertypes = new ArrayList<>();
+        if (reader.getSuperName() != null) {
+            supertypes.add(reader.getSuperName());
+        }
+        Collections.addAll(supertypes, reader.getInterfaces());
+        return supertypes;
+    }
+
+    /**
+     * Adds the superclasses and interfaces of the referenced classes in the jar, and theirs in turn.
+     */
+    private static void addSupertypes(Set<String> references, Map<String, List<String>> supertypes) {
+        final Deque<String> pending = new ArrayDeque<>(references);
+        while (!pending.isEmpty()) {
+            final List<String> direct = supertypes.get(pending.pop());
+            if (direct == null) {
+                continue;
+            }
+            for (String supertype : direct) {
+                if (references.add(supertype)) {
+                    pending.push(supertype);
+                }
+            }
+        }
+    }
+
+    /**
+     * Hashes everything about a class that other classes can see, skipping method bodies.
+     *
+     * @param references Gets the classes in the descriptors and signatures of the class and its members
+     */
+    private static byte[] hashDeclarations(ClassReader reader, Set<String> references) {
+        final MessageDigest digest = DigestUtils.getSha256Digest();
+        reader.accept(new ClassVisitor(Opcodes.ASM9) {
+
+            @Override
+            public void visit(int version, int access, String name, String signature, String superName,
+                    String[] interfaces) {
+                addSignatureReferences(signature, references);
+                updateInt(digest, access);
+                updateString(digest, name);
+                updateString(digest, signature);
+                updateString(digest, superName);
+                updateInt(digest, interfaces.length);
+                for (String itf : interfaces) {
+                    updateString(digest, itf);
+                }
+            }
+
+            @Override
+            public void visitInnerClass(String name, String outerName, String innerName, int access) {
+                updateString(digest, name);
+                updateString(digest, outerName);
+                updateString(digest, innerName);
+                updateInt(digest, access);
+            }
+
+            @Override
+            public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+                addSignatureReferences(descriptor, references);
+                return null;
+            }
+
+            @Override
+            public FieldVisitor visitField(int access, String name, String descriptor, String signature,
+                    Object value) {
+                addSignatureReferences(descriptor, references);
+                addSignatureReferences(signature, references);
+                updateInt(digest, access);
+                updateString(digest, name);
+                updateString(digest, descriptor);
+                updateString(digest, signature);
+                updateString(digest, value == null ? null : value.getClass().getName() + ":" + value);
+                return null;
+            }
+
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+                    String[] exceptions) {
+                addSignatureReferences(descriptor, references);
+                addSignatureReferences(signature, references);
+                updateInt(digest, access);
+                updateString(digest, name);
+                updateString(digest, descriptor);
+                updateString(digest, signature);
+                updateInt(digest, exceptions == null ? -1 : exceptions.length);
+                if (exceptions != null) {
+                    for (String exception : exceptions) {
+                        updateString(digest, exception);
+                    }
+                }
+                return null;
+            }
+        }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return digest.digest();
+    }
+
+    /** The names come sorted, so the hash doesn't depend on the jar's entry order */
+    private static void updateClassNames(MessageDigest digest, Set<String> simpleNames) {
+        updateInt(digest, simpleNames.size());
+        for (String simpleName : simpleNames) {
+            updateString(digest, simpleName);
+        }
+    }
+
+    private static void updateInt(MessageDigest digest, int value) {
+        digest.update((byte) (value >>> 24));
+        digest.update((byte) (value >>> 16));
+        digest.update((byte) (value >>> 8));
+        digest.update((byte) value);
+    }
+
+    /** Length-prefixed so that neighbouring strings can't run into each other, null is distinct from empty */
+    private static void updateString(MessageDigest digest, String value) {
+        if (value == null) {
+            updateInt(digest, -1);
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        updateInt(digest, bytes.length);
+        digest.update(bytes);
+    }
+}
@@ -6,19 +6,16 @@ import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
-import java.util.Collection;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 import javax.inject.Inject;
 
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.lang3.tuple.MutablePair;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.file.DirectoryProperty;
 import org.gradle.api.file.RegularFileProperty;
@@ -28,6 +25,7 @@ import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.InputDirectory;
 import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.Optional;
 import org.gradle.api.tasks.PathSensitive;
 import org.gradle.api.tasks.PathSensitivity;
@@ -36,6 +34,7 @@ import org.gradle.api.tasks.TaskAction;
 import com.cloudbees.diff.PatchException;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Multimap;
+import com.gtnewhorizons.retrofuturagradle.Constants;
 import com.gtnewhorizons.retrofuturagradle.fg12shadow.com.github.abrarsyed.jastyle.ASFormatter;
 import com.gtnewhorizons.retrofuturagradle.fg12shadow.com.github.abrarsyed.jastyle.OptParser;
 import com.gtnewhorizons.retrofuturagradle.fgpatchers.FFPatcher;
@@ -44,15 +43,21 @@ import com.gtnewhorizons.retrofuturagradle.fgpatchers.GLConstantFixer;
 import com.gtnewhorizons.retrofuturagradle.fgpatchers.McpCleanupFg12;
 import com.gtnewhorizons.retrofuturagradle.fgpatchers.McpCleanupFg23;
 import com.gtnewhorizons.retrofuturagradle.util.HashUtils;
+import com.gtnewhorizons.retrofuturagradle.util.HeapUsageSampler;
 import com.gtnewhorizons.retrofuturagradle.util.IJarTransformTask;
+import com.gtnewhorizons.retrofuturagradle.util.JarCompression;
 import com.gtnewhorizons.retrofuturagradle.util.MessageDigestConsumer;
+import com.gtnewhorizons.retrofuturagradle.util.SourceFile;
+import com.gtnewhorizons.retrofuturagradle.util.SourceJar;
+import com.gtnewhorizons.retrofuturagradle.util.SourceStageCache;
 import com.gtnewhorizons.retrofuturagradle.util.Utilities;
 import com.gtnewhorizons.retrofuturagradle.util.patching.ContextualPatch;
+import com.gtnewhorizons.retrofuturagradle.util.patching.ParallelPatcher;
 
 public abstract class CleanupDecompiledJarTask extends DefaultTask implements IJarTransformTask {
 
-    private Map<String, byte[]> loadedResources = new HashMap<>();
-    private Map<String, String> loadedSources = new HashMap<>();
+    private SourceJar loadedJar;
+    private Map<String, SourceFile> loadedSources;
 
     @InputDirectory
     @PathSensitive(PathSensitivity.RELATIVE)
@@ -70,6 +75,15 @@ public abstract class CleanupDecompiledJarTask extends DefaultTask implements IJ
     @PathSensitive(PathSensitivity.RELATIVE)
     public abstract DirectoryProperty getPatchesInjectDir();
 
+    /** The maximum number of threads used to apply patches to different files, the output is the same for any value */
+    @Internal
+    public abstract Property<Integer> getParallelism();
+
+    /** If set, the results of the per-file stages are cached in the RFG artifact store */
+    @Internal
+    @Optional
+    public abstract Property<RfgCacheService> getCacheService();
+
     @Override
     public MessageDigestConsumer hashInputs() {
         return HashUtils.addPropertyToHash(getPatches()).andThen(HashUtils.addPropertyToHash(getAstyleConfig()))
@@ -85,64 +99,117 @@ public abstract class CleanupDecompiledJarTask extends DefaultTask implements IJ
     @Inject
     public CleanupDecompiledJarTask() {
         getMinorMcVersion().convention(7);
+        getParallelism().convention(Runtime.getRuntime().availableProcessors());
     }
 
     @TaskAction
     public void doCleanup() throws IOException {
         taskTempDir = getTemporaryDir();
-        loadedResources.clear();
-        loadedSources.clear();
+        try (final SourceJar jar = SourceJar.read(getInputJar().get().getAsFile());
+                final HeapUsageSampler heap = HeapUsageSampler.start(getLogger())) {
+            loadedJar = jar;
+            loadedSources = jar.getSources();
+            runStages(heap);
+            getLogger().lifecycle("Saving the fixed-up jar");
+            jar.write(getOutputJar().get().getAsFile(), getOutputCompression().getOrElse(JarCompression.DEFAULT));
+        } finally {
+            loadedJar = null;
+            loadedSources = null;
+        }
+    }
 
+    private void runStages(HeapUsageSampler heap) throws IOException {
         getLogger().lifecycle("Fixup stage 1 - applying FF patches");
         final long pre1Ms = System.currentTimeMillis();
-        final File ffPatched = loadAndApplyFfPatches(getInputJar().get().getAsFile());
+        heap.startPeriod();
+        final SourceStageCache ffCache = loadStageCache("ffpatcher");
+        final File ffPatched = applyFfPatches(ffCache);
+        ffCache.save();
         final long post1Ms = System.currentTimeMillis();
-        getLogger().lifecycle("  Stage 1 took " + (post1Ms - pre1Ms) + " ms");
+        getLogger().lifecycle(
+                "  Stage 1 took {} ms ({} files cached, {} processed)",
+                post1Ms - pre1Ms,
+                ffCache.getHits(),
+                ffCache.getMisses());
+        heap.logPeriod("Stage 1");
 
         getLogger().lifecycle("Fixup stage 2 - applying MCP patches");
         final long pre2Ms = System.currentTimeMillis();
+        heap.startPeriod();
         final File mcpPatched = applyMcpPatches();
         final long post2Ms = System.currentTimeMillis();
-        getLogger().lifecycle("  Stage 2 took " + (post2Ms - pre2Ms) + " ms");
+        getLogger().lifecycle("  Stage 2 took {} ms", post2Ms - pre2Ms);
+        heap.logPeriod("Stage 2");
 
         getLogger().lifecycle("Fixup stage 3 - applying MCP cleanup");
         final long pre3Ms = System.currentTimeMillis();
-        final File mcpCleaned = applyMcpCleanup();
+        heap.startPeriod();
+        final SourceStageCache cleanupCache = loadStageCache("mcpcleanup");
+        final File mcpCleaned = applyMcpCleanup(cleanupCache);
+        cleanupCache.save();
         final long post3Ms = System.currentTimeMillis();
-        getLogger().lifecycle("  Stage 3 took " + (post3Ms - pre3Ms) + " ms");
+        getLogger().lifecycle(
+                "  Stage 3 took {} ms ({} files cached, {} processed)",
+                post3Ms - pre3Ms,
+                cleanupCache.getHits(),
+                cleanupCache.getMisses());
+        heap.logPeriod("Stage 3");
 
         final int mcMinor = getMinorMcVersion().get();
         if (mcMinor > 8) {
             getLogger().lifecycle("Fixup stage 4 - injecting package-info");
             final long pre4Ms = System.currentTimeMillis();
+            heap.startPeriod();
             final File injectedPIs = injectPackageInfos();
             final long post4Ms = System.currentTimeMillis();
-            getLogger().lifecycle("  Stage 4 took " + (post4Ms - pre4Ms) + " ms");
+            getLogger().lifecycle("  Stage 4 took {} ms", post4Ms - pre4Ms);
+            heap.logPeriod("Stage 4");
+        }
+    }
+
+    /**
+     * Saves the current state of the jar for debugging, only if temporary files are kept.
+     */
+    private File saveTemporaryJar(String name) throws IOException {
+        if (!Constants.DEBUG_NO_TMP_CLEANUP) {
+            return null;
         }
+        return loadedJar.write(new File(taskTempDir, name), JarCompression.STORED);
+    }
 
-        getLogger().lifecycle("Saving the fixed-up jar");
-        Utilities.saveMemoryJar(loadedResources, loadedSources, getOutputJar().get().getAsFile(), false);
+    /**
+     * Per-file results are cached by the file path and contents, everything else the stage's output depends on goes
+     * into the stage key.
+     */
+    private SourceStageCache loadStageCache(String stage) throws IOException {
+        MessageDigestConsumer configHash = HashUtils.addToHash(stage)
+                .andThen(HashUtils.addPropertyToHash(getMinorMcVersion()));
+        if (stage.equals("mcpcleanup")) {
+            configHash = configHash.andThen(HashUtils.addPropertyToHash(getAstyleConfig()));
+        }
+        return SourceStageCache.load(getCacheService().getOrNull(), configHash, taskTempDir);
     }
 
-    private File loadAndApplyFfPatches(File decompiled) throws IOException {
-        Utilities.loadMemoryJar(decompiled, loadedResources, loadedSources);
+    private File applyFfPatches(SourceStageCache cache) throws IOException {
         final int mcMinor = getMinorMcVersion().get();
 
-        loadedSources = loadedSources.entrySet().parallelStream().map(entry -> {
+        // Replaced in place, so only one version of every source is kept in memory
+        loadedSources.entrySet().parallelStream().forEach(entry -> {
             try {
-                final String patched;
-                if (mcMinor <= 8) {
-                    patched = FFPatcher.processFile(entry.getKey(), entry.getValue(), true);
-                } else {
-                    patched = com.gtnewhorizons.retrofuturagradle.java8.fg23.FFPatcher.processFile(entry.getValue());
-                }
-                return MutablePair.of(entry.getKey(), patched);
+                final String patched = cache.apply(entry.getKey(), entry.getValue().getText(), text -> {
+                    if (mcMinor <= 8) {
+                        return FFPatcher.processFile(entry.getKey(), text, true);
+                    } else {
+                        return com.gtnewhorizons.retrofuturagradle.java8.fg23.FFPatcher.processFile(text);
+                    }
+                });
+                entry.setValue(SourceFile.ofText(patched));
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
-        }).collect(Collectors.toConcurrentMap(MutablePair::getLeft, MutablePair::getRight));
+        });
 
-        return Utilities.saveMemoryJar(loadedResources, loadedSources, new File(taskTempDir, "ffpatcher.jar"), true);
+        return saveTemporaryJar("ffpatcher.jar");
     }
 
     private File applyMcpPatches() throws IOException {
@@ -155,36 +222,62 @@ public abstract class CleanupDecompiledJarTask extends DefaultTask implements IJ
             patches.put(base, patchFile);
         }
 
+        final Utilities.InMemoryJarContextProvider contextProvider = new Utilities.InMemoryJarContextProvider(
+                loadedSources,
+                1);
+        final List<McpPatchJob> jobs = new ArrayList<>();
         for (String key : patches.keySet()) {
-            // Apply first non-failing patch
-            final Collection<File> patchFiles = patches.get(key);
-            ContextualPatch patch = null;
-            for (File patchFile : patchFiles) {
-                patch = ContextualPatch.create(
-                        FileUtils.readFileToString(patchFile, StandardCharsets.UTF_8),
-                        new Utilities.InMemoryJarContextProvider(loadedSources, 1));
+            final List<ContextualPatch> candidates = new ArrayList<>();
+            for (File patchFile : patches.get(key)) {
+                final ContextualPatch patch = ContextualPatch
+                        .create(FileUtils.readFileToString(patchFile, StandardCharsets.UTF_8), contextProvider);
                 patch.setAccessC14N(true);
-                final List<ContextualPatch.PatchReport> errors;
-                try {
-                    errors = patch.patch(true);
-                } catch (PatchException pe) {
-                    throw new RuntimeException(pe);
+                candidates.add(patch);
+            }
+            jobs.add(new McpPatchJob(candidates, contextProvider));
+        }
+
+        final List<ParallelPatcher.Result<List<ContextualPatch.PatchReport>>> results;
+        try {
+            results = ParallelPatcher.applyAll(jobs, Math.max(1, getParallelism().get()));
+            ParallelPatcher.rethrowFirstFailure(results);
+        } catch (PatchException pe) {
+            throw new RuntimeException(pe);
+        }
+        for (ParallelPatcher.Result<List<ContextualPatch.PatchReport>> result : results) {
+            printPatchErrors(result.value());
+        }
+
+        return saveTemporaryJar("mcppatched.jar");
+    }
+
+    /** Applies the first of the alternative patch files with the same name that applies cleanly */
+    private record McpPatchJob(List<ContextualPatch> candidates,
+            Utilities.InMemoryJarContextProvider contextProvider)
+            implements ParallelPatcher.Job<List<ContextualPatch.PatchReport>> {
+
+        @Override
+        public List<String> getTargets() throws PatchException, IOException {
+            final List<String> targets = new ArrayList<>();
+            for (ContextualPatch candidate : candidates) {
+                for (String target : candidate.getTargetPaths()) {
+                    targets.add(target == null ? "" : contextProvider.strip(target));
                 }
+            }
+            return targets;
+        }
 
-                if (errors.stream().allMatch(e -> e.getStatus().isSuccess())) {
+        @Override
+        public List<ContextualPatch.PatchReport> apply() throws PatchException, IOException {
+            ContextualPatch patch = null;
+            for (ContextualPatch candidate : candidates) {
+                patch = candidate;
+                if (patch.patch(true).stream().allMatch(e -> e.getStatus().isSuccess())) {
                     break;
                 }
             }
-            final List<ContextualPatch.PatchReport> errors;
-            try {
-                errors = patch.patch(false);
-            } catch (PatchException pe) {
-                throw new RuntimeException(pe);
-            }
-            printPatchErrors(errors);
+            return patch.patch(false);
         }
-
-        return Utilities.saveMemoryJar(loadedResources, loadedSources, new File(taskTempDir, "mcppatched.jar"), true);
     }
 
     private static final Pattern BEFORE_RULE = Pattern
@@ -195,75 +288,82 @@ public abstract class CleanupDecompiledJarTask extends DefaultTask implements IJ
     private static final ThreadLocal<ASFormatter> formattersFG12 = new ThreadLocal<>();
     private static final ThreadLocal<com.gtnewhorizons.retrofuturagradle.fg23shadow.com.github.abrarsyed.jastyle.ASFormatter> formattersFG23 = new ThreadLocal<>();
 
-    private File applyMcpCleanup() throws IOException {
+    private File applyMcpCleanup(SourceStageCache cache) throws IOException {
         final File astyleOptions = getAstyleConfig().get().getAsFile();
         final int mcMinor = getMinorMcVersion().get();
 
         final GLConstantFixer glFixer = new GLConstantFixer();
 
-        loadedSources = loadedSources.entrySet().parallelStream().map(entry -> {
+        loadedSources.entrySet().parallelStream().forEach(entry -> {
             try {
-                final String filePath = entry.getKey();
-                String text = entry.getValue();
-                ASFormatter formatterFG12 = formattersFG12.get();
-                com.gtnewhorizons.retrofuturagradle.fg23shadow.com.github.abrarsyed.jastyle.ASFormatter formatterFG23 = formattersFG23
-                        .get();
-                if (mcMinor <= 8) {
-                    if (formatterFG12 == null) {
-                        formatterFG12 = new ASFormatter();
-                        OptParser parser = new OptParser(formatterFG12);
-                        parser.parseOptionFile(astyleOptions);
-                        formattersFG12.set(formatterFG12);
-                    }
-                } else {
-                    if (formatterFG23 == null) {
-                        formatterFG23 = new com.gtnewhorizons.retrofuturagradle.fg23shadow.com.github.abrarsyed.jastyle.ASFormatter();
-                        formatterFG23.setUseProperInnerClassIndenting(false);
-                        com.gtnewhorizons.retrofuturagradle.fg23shadow.com.github.abrarsyed.jastyle.OptParser parser = new com.gtnewhorizons.retrofuturagradle.fg23shadow.com.github.abrarsyed.jastyle.OptParser(
-                                formatterFG23);
-                        parser.parseOptionFile(astyleOptions);
-                        formattersFG23.set(formatterFG23);
-                    }
-                }
-
-                if (mcMinor <= 8) {
-                    text = McpCleanupFg12.stripComments(text);
-                    text = McpCleanupFg12.fixImports(text);
-                    text = McpCleanupFg12.cleanup(text);
-                } else {
-                    text = McpCleanupFg23.stripComments(text);
-                    text = McpCleanupFg23.fixImports(text);
-                    text = McpCleanupFg23.cleanup(text);
-                }
+                final String text = cache.apply(
+                        entry.getKey(),
+                        entry.getValue().getText(),
+                        original -> cleanupSource(original, astyleOptions, mcMinor, glFixer));
+                entry.setValue(SourceFile.ofText(text));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
 
-                text = glFixer.fixOGL(text);
+        return saveTemporaryJar("mcpcleanup.jar");
+    }
 
-                try (Reader reader = new StringReader(text); StringWriter writer = new StringWriter()) {
-                    if (mcMinor <= 8) {
-                        formatterFG12.format(reader, writer);
-                    } else {
-                        formatterFG23.format(reader, writer);
-                    }
-                    text = writer.toString();
-                }
+    private String cleanupSource(String text, File astyleOptions, int mcMinor, GLConstantFixer glFixer)
+            throws IOException {
+        ASFormatter formatterFG12 = formattersFG12.get();
+        com.gtnewhorizons.retrofuturagradle.fg23shadow.com.github.abrarsyed.jastyle.ASFormatter formatterFG23 = formattersFG23
+                .get();
+        if (mcMinor <= 8) {
+            if (formatterFG12 == null) {
+                formatterFG12 = new ASFormatter();
+                OptParser parser = new OptParser(formatterFG12);
+                parser.parseOptionFile(astyleOptions);
+                formattersFG12.set(formatterFG12);
+            }
+        } else {
+            if (formatterFG23 == null) {
+                formatterFG23 = new com.gtnewhorizons.retrofuturagradle.fg23shadow.com.github.abrarsyed.jastyle.ASFormatter();
+                formatterFG23.setUseProperInnerClassIndenting(false);
+                com.gtnewhorizons.retrofuturagradle.fg23shadow.com.github.abrarsyed.jastyle.OptParser parser = new com.gtnewhorizons.retrofuturagradle.fg23shadow.com.github.abrarsyed.jastyle.OptParser(
+                        formatterFG23);
+                parser.parseOptionFile(astyleOptions);
+                formattersFG23.set(formatterFG23);
+            }
+        }
 
-                if (mcMinor <= 8) {
-                    text = BEFORE_RULE.matcher(text).replaceAll("$1");
-                    text = AFTER_RULE.matcher(text).replaceAll("$1");
-                    text = FmlCleanup.renameClass(text);
-                }
+        if (mcMinor <= 8) {
+            text = McpCleanupFg12.stripComments(text);
+            text = McpCleanupFg12.fixImports(text);
+            text = McpCleanupFg12.cleanup(text);
+        } else {
+            text = McpCleanupFg23.stripComments(text);
+            text = McpCleanupFg23.fixImports(text);
+            text = McpCleanupFg23.cleanup(text);
+        }
 
-                if (mcMinor > 8 && !text.endsWith(System.lineSeparator())) {
-                    text += System.lineSeparator();
-                }
+        text = glFixer.fixOGL(text);
 
-                return MutablePair.of(filePath, text);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+        try (Reader reader = new StringReader(text); StringWriter writer = new StringWriter()) {
+            if (mcMinor <= 8) {
+                formatterFG12.format(reader, writer);
+            } else {
+                formatterFG23.format(reader, writer);
             }
-        }).collect(Collectors.toConcurrentMap(MutablePair::getLeft, MutablePair::getRight));
+            text = writer.toString();
+        }
+
+        if (mcMinor <= 8) {
+            text = BEFORE_RULE.matcher(text).replaceAll("$1");
+            text = AFTER_RULE.matcher(text).replaceAll("$1");
+            text = FmlCleanup.renameClass(text);
+        }
+
+        if (mcMinor > 8 && !text.endsWith(System.lineSeparator())) {
+            text += System.lineSeparator();
+        }
 
-        return Utilities.saveMemoryJar(loadedResources, loadedSources, new File(taskTempDir, "mcpcleanup.jar"), true);
+        return text;
     }
 
     private File injectPackageInfos() throws IOException {
@@ -281,7 +381,7 @@ public abstract class CleanupDecompiledJarTask extends DefaultTask implements IJ
                 final String template = FileUtils.readFileToString(pkgInfo, StandardCharsets.UTF_8);
                 for (String pkg : seenPackages) {
                     final String info = template.replace("{PACKAGE}", pkg.replace('/', '.'));
-                    loadedSources.put(pkg + "/package-info.java", info);
+                    loadedSources.put(pkg + "/package-info.java", SourceFile.ofText(info));
                 }
                 getLogger().lifecycle("  Injected {} package-infos", seenPackages.size());
             }
@@ -294,12 +394,12 @@ public abstract class CleanupDecompiledJarTask extends DefaultTask implements IJ
                     String absPath = commonFile.getAbsolutePath().replace('\\', '/');
                     String relPath = absPath.substring(root.length());
                     final String contents = FileUtils.readFileToString(commonFile, StandardCharsets.UTF_8);
-                    loadedSources.put(relPath, contents);
+                    loadedSources.put(relPath, SourceFile.ofText(contents));
                 }
             }
         }
 
-        return Utilities.saveMemoryJar(loadedResources, loadedSources, new File(taskTempDir, "pkginject.jar"), true);
+        return saveTemporaryJar("pkginject.jar");
     }
 
     private void printPatchErrors(List<ContextualPatch.PatchReport> errors) throws IOException {
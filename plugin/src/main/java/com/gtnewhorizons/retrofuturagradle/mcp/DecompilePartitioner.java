@@ -0,0 +1,264 @@
+package com.gtnewhorizons.retrofuturagradle.mcp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+import javax.annotation.Nullable;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+
+import com.gtnewhorizons.retrofuturagradle.util.JarCompression;
+
+/**
+ * Splits a jar into groups of classes that can be decompiled by separate Fernflower processes, and merges their
+ * outputs back into one jar. Inner classes always end up in the same group as their outer class, as Fernflower
+ * decompiles them together. Each group comes with a context jar holding all the other classes, so that every process
+ * still sees the whole class hierarchy.
+ */
+public final class DecompilePartitioner {
+
+    /** Memory left for the OS and other processes when sizing the worker heaps */
+    private static final long RESERVED_MEMORY_MB = 1024;
+
+    private DecompilePartitioner() {}
+
+    /**
+     * @param classes The jar with the classes to decompile, the first partition also gets all non-class entries
+     * @param context The jar with all the other classes, to be added as a library
+     */
+    public record Partition(File classes, File context) {}
+
+    /**
+     * @param count  The number of decompiler processes to run at the same time
+     * @param heapMb The maximum heap size of each process
+     */
+    public record WorkerPlan(int count, long heapMb) {}
+
+    /**
+     * Picks how many decompiler processes to run and how large their heaps are, so that all of them fit in the physical
+     * memory not used by the Gradle daemon itself.
+     *
+     * @param requested The number of processes asked for by the user
+     * @param minHeapMb The smallest heap a process can decompile its share of the jar with
+     * @param maxHeapMb The heap size used for a single process
+     */
+    public static WorkerPlan planWorkers(int requested, long minHeapMb, long maxHeapMb) {
+        if (requested <= 1) {
+            return new WorkerPlan(1, maxHeapMb);
+        }
+        final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (!(os instanceof com.sun.management.OperatingSystemMXBean sunOs)) {
+            return new WorkerPlan(1, maxHeapMb);
+        }
+        final long totalMb = sunOs.getTotalMemorySize() / 1024 / 1024;
+        final long daemonMb = Runtime.getRuntime().maxMemory() / 1024 / 1024;
+        final long budgetMb = totalMb - daemonMb - RESERVED_MEMORY_MB;
+        final int count = (int) Math.max(1, Math.min(requested, budgetMb / minHeapMb));
+        if (count == 1) {
+            return new WorkerPlan(1, maxHeapMb);
+        }
+        return new WorkerPlan(count, Math.max(minHeapMb, Math.min(maxHeapMb, budgetMb / count)));
+    }
+
+    /**
+     * @param entryName A jar entry name, like {@code net/minecraft/a/Foo$Bar.class}
+     * @return The internal name of the outer class the entry gets decompiled with, like {@code net/minecraft/a/Foo}, or
+     *         null if it's not a class
+     */
+    public static @Nullable String getOuterClass(String entryName) {
+        if (!entryName.endsWith(".class")) {
+            return null;
+        }
+        final int lastSlash = entryName.lastIndexOf('/');
+        final int dollar = entryName.indexOf('$', lastSlash + 1);
+        return dollar < 0 ? entryName.substring(0, entryName.length() - ".class".length())
+                : entryName.substring(0, dollar);
+    }
+
+    /**
+     * Splits the classes of a jar into partitions of a similar total size, the same jar always gives the same
+     * partitions.
+     *
+     * @param jar     The jar to split
+     * @param count   The number of partitions
+     * @param workDir Where to write the partition jars
+     */
+    public static List<Partition> partition(File jar, int count, File workDir) throws IOException {
+        return partition(jar, count, workDir, outerClass -> true, true);
+    }
+
+    /**
+     * Splits some of the classes of a jar into partitions of a similar total size, all the other classes only end up
+     * in the context jars.
+     *
+     * @param selected         Whether the classes of the given outer class should be decompiled
+     * @param includeResources Whether the first partition gets the non-class entries
+     */
+    public static List<Partition> partition(File jar, int count, File workDir, Predicate<String> selected,
+            boolean includeResources) throws IOException {
+        final List<Partition> partitions = new ArrayList<>(count);
+        try (final ZipFile input = ZipFile.builder().setFile(jar).get()) {
+            // Outer class name -> all the class entries it's decompiled from
+            final Map<String, List<ZipArchiveEntry>> outerClasses = new TreeMap<>();
+            final List<ZipArchiveEntry> otherEntries = new ArrayList<>();
+            final List<ZipArchiveEntry> contextOnlyEntries = new ArrayList<>();
+            final Enumeration<ZipArchiveEntry> entries = input.getEntries();
+            while (entries.hasMoreElements()) {
+                final ZipArchiveEntry entry = entries.nextElement();
+                final String outerName = entry.isDirectory() ? null : getOuterClass(entry.getName());
+                if (outerName == null) {
+                    otherEntries.add(entry);
+                } else if (selected.test(outerName)) {
+                    outerClasses.computeIfAbsent(outerName, k -> new ArrayList<>()).add(entry);
+                } else {
+                    contextOnlyEntries.add(entry);
+                }
+            }
+
+            // Largest groups first into the currently smallest partition, ties go to the lowest index
+            final List<List<ZipArchiveEntry>> groups = new ArrayList<>(outerClasses.values());
+            groups.sort(Comparator.comparingLong(DecompilePartitioner::groupSize).reversed());
+            final List<List<ZipArchiveEntry>> assigned = new ArrayList<>(count);
+            final long[] sizes = new long[count];
+            for (int i = 0; i < count; i++) {
+                assigned.add(new ArrayList<>());
+            }
+            for (List<ZipArchiveEntry> group : groups) {
+                int smallest = 0;
+                for (int i = 1; i < count; i++) {
+                    if (sizes[i] < sizes[smallest]) {
+                        smallest = i;
+                    }
+                }
+                assigned.get(smallest).addAll(group);
+                sizes[smallest] += groupSize(group);
+            }
+
+            for (int i = 0; i < count; i++) {
+                final Partition partition = new Partition(
+                        new File(workDir, "mc-" + i + ".jar"),
+                        new File(workDir, "context-" + i + ".jar"));
+                final List<ZipArchiveEntry> ownEntries = new ArrayList<>(assigned.get(i));
+                if (i == 0 && includeResources) {
+                    ownEntries.addAll(otherEntries);
+                }
+                final List<ZipArchiveEntry> contextEntries = new ArrayList<>(contextOnlyEntries);
+                for (int j = 0; j < count; j++) {
+                    if (j != i) {
+                        contextEntries.addAll(assigned.get(j));
+                    }
+                }
+                copyEntries(input, ownEntries, partition.classes());
+                copyEntries(input, contextEntries, partition.context());
+                partitions.add(partition);
+            }
+        }
+        return partitions;
+    }
+
+    /**
+     * Writes the non-class entries of a jar into a new jar.
+     */
+    public static void copyResources(File jar, File target) throws IOException {
+        try (final ZipFile input = ZipFile.builder().setFile(jar).get()) {
+            final List<ZipArchiveEntry> resources = new ArrayList<>();
+            for (ZipArchiveEntry entry : Collections.list(input.getEntries())) {
+                if (entry.isDirectory() || getOuterClass(entry.getName()) == null) {
+                    resources.add(entry);
+                }
+            }
+            copyEntries(input, resources, target);
+        }
+    }
+
+    /**
+     * Combines the decompiled jars into one with entries sorted by name. If the same entry is in multiple jars, the one
+     * from the earliest jar is kept.
+     */
+    public static void merge(List<File> decompiledJars, File target) throws IOException {
+        merge(decompiledJars, Collections.emptyMap(), target, JarCompression.DEFAULT);
+    }
+
+    /**
+     * Combines the decompiled jars and some extra entries into one jar with entries sorted by name. Entries from the
+     * jars are copied as they are, and take precedence over the extra entries.
+     *
+     * @param compression How the extra entries are compressed
+     */
+    public static void merge(List<File> decompiledJars, Map<String, byte[]> extraEntries, File target,
+            JarCompression compression) throws IOException {
+        final List<ZipFile> inputs = new ArrayList<>(decompiledJars.size());
+        try {
+            final Map<String, Map.Entry<ZipFile, ZipArchiveEntry>> merged = new TreeMap<>();
+            for (File jar : decompiledJars) {
+                final ZipFile input = ZipFile.builder().setFile(jar).get();
+                inputs.add(input);
+                for (ZipArchiveEntry entry : Collections.list(input.getEntries())) {
+                    merged.putIfAbsent(entry.getName(), Map.entry(input, entry));
+                }
+            }
+            final TreeSet<String> names = new TreeSet<>(merged.keySet());
+            names.addAll(extraEntries.keySet());
+            try (final ZipArchiveOutputStream out = new ZipArchiveOutputStream(target)) {
+                compression.configure(out);
+                for (String name : names) {
+                    final Map.Entry<ZipFile, ZipArchiveEntry> entry = merged.get(name);
+                    if (entry != null) {
+                        copyRawEntry(entry.getKey(), entry.getValue(), out);
+                    } else {
+                        final ZipArchiveEntry extra = new ZipArchiveEntry(name);
+                        extra.setTime(DeobfuscateTask.CONSTANT_TIME_FOR_ZIP_ENTRIES);
+                        out.putArchiveEntry(extra);
+                        out.write(extraEntries.get(name));
+                        out.closeArchiveEntry();
+                    }
+                }
+            }
+        } finally {
+            for (ZipFile input : inputs) {
+                input.close();
+            }
+        }
+    }
+
+    private static long groupSize(List<ZipArchiveEntry> group) {
+        long size = 0;
+        for (ZipArchiveEntry entry : group) {
+            size += Math.max(0, entry.getSize());
+        }
+        return size;
+    }
+
+    private static void copyEntries(ZipFile input, List<ZipArchiveEntry> entries, File target) throws IOException {
+        final List<ZipArchiveEntry> sorted = new ArrayList<>(entries);
+        sorted.sort(Comparator.comparing(ZipArchiveEntry::getName));
+        try (final ZipArchiveOutputStream out = new ZipArchiveOutputStream(target)) {
+            for (ZipArchiveEntry entry : sorted) {
+                copyRawEntry(input, entry, out);
+            }
+        }
+    }
+
+    private static void copyRawEntry(ZipFile input, ZipArchiveEntry original, ZipArchiveOutputStream out)
+            throws IOException {
+        final ZipArchiveEntry copy = new ZipArchiveEntry(original);
+        copy.setTime(DeobfuscateTask.CONSTANT_TIME_FOR_ZIP_ENTRIES);
+        try (final InputStream raw = input.getRawInputStream(original)) {
+            out.addRawArchiveEntry(copy, raw);
+        }
+    }
+}
@@ -2,27 +2,39 @@ package com.gtnewhorizons.retrofuturagradle.mcp;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 
-import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.file.ConfigurableFileCollection;
 import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFile;
 import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.CompileClasspath;
 import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.InputFile;
 import org.gradle.api.tasks.InputFiles;
 import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.Optional;
-import org.gradle.api.tasks.OutputDirectory;
 import org.gradle.api.tasks.PathSensitive;
 import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.TaskAction;
@@ -36,14 +48,34 @@ import org.gradle.workers.WorkerExecutor;
 import com.gtnewhorizons.retrofuturagradle.Constants;
 import com.gtnewhorizons.retrofuturagradle.MinecraftExtension;
 import com.gtnewhorizons.retrofuturagradle.java8.Fg23DecompTask;
+import com.gtnewhorizons.retrofuturagradle.mcp.DecompilePartitioner.Partition;
+import com.gtnewhorizons.retrofuturagradle.mcp.DecompilePartitioner.WorkerPlan;
+import com.gtnewhorizons.retrofuturagradle.util.FileMaterializer;
 import com.gtnewhorizons.retrofuturagradle.util.HashUtils;
 import com.gtnewhorizons.retrofuturagradle.util.IJarTransformTask;
+import com.gtnewhorizons.retrofuturagradle.util.JarCompression;
 import com.gtnewhorizons.retrofuturagradle.util.MessageDigestConsumer;
+import com.gtnewhorizons.retrofuturagradle.util.SourceStageCache;
+import com.gtnewhorizons.retrofuturagradle.util.Utilities;
 
 @DisableCachingByDefault(because = "Uses an internal caching mechanism")
 public abstract class DecompileTask extends DefaultTask implements IJarTransformTask {
 
-    @OutputDirectory
+    /** Subdirectory of the shared artifact store holding decompiled jars */
+    public static final String ARTIFACT_KIND = "decompiled";
+    private static final String FG23_FERNFLOWER_VERSION = "1.0.342";
+    private static final long FG12_HEAP_MB = 768;
+    private static final long FG23_HEAP_MB = 3072;
+    /** Each FG2.3 worker still loads the structure of every class, so its heap can't shrink much */
+    private static final long FG23_MIN_PARTITION_HEAP_MB = 1536;
+    private static final String CLASS_CACHE_NAME = "decompiled-classes";
+
+    /**
+     * @deprecated Decompiled jars are kept in the shared artifact store of {@link RfgCacheService} now, this directory
+     *             is ignored
+     */
+    @Deprecated
+    @Internal
     public abstract DirectoryProperty getCacheDir();
 
     @InputFile
@@ -70,9 +102,25 @@ public abstract class DecompileTask extends DefaultTask implements IJarTransform
     @Internal
     public abstract Property<MinecraftExtension> getMinecraftExtension();
 
+    /**
+     * The number of Fernflower processes to split the classes between, 1 by default. Fewer processes are started if
+     * there isn't enough physical memory for all of them.
+     */
+    @Internal
+    public abstract Property<Integer> getDecompilerWorkers();
+
+    /**
+     * Reuses the sources of classes that didn't change since a previous decompilation with the same settings, and only
+     * decompiles the rest, false by default.
+     */
+    @Internal
+    public abstract Property<Boolean> getIncrementalDecompilation();
+
     @Inject
     public DecompileTask() {
         getMinorMcVersion().convention(7);
+        getDecompilerWorkers().convention(1);
+        getIncrementalDecompilation().convention(false);
         getBuildDir().convention(getProject().getLayout().getBuildDirectory());
         getMinecraftExtension().convention(getProject().getExtensions().findByType(MinecraftExtension.class));
     }
@@ -96,22 +144,13 @@ public abstract class DecompileTask extends DefaultTask implements IJarTransform
         final File taskTempDir = getTemporaryDir();
         final int minorMcVer = getMinorMcVersion().get();
 
-        final DigestUtils digests = new DigestUtils(DigestUtils.getSha256Digest());
-        final String fernflowerChecksum = (minorMcVer <= 8) ? digests.digestAsHex(getFernflower().get().getAsFile())
-                : "1.0.342";
-        final String inputFileChecksum = digests.digestAsHex(getInputJar().get().getAsFile());
-        final File cachedOutputFile = new File(
-                getCacheDir().get().getAsFile(),
-                fernflowerChecksum + "-" + inputFileChecksum + ".jar");
-        try (final FileLock ignored = getCacheService().get().lockCache(true)) {
-            if (cachedOutputFile.exists()) {
-                getLogger().lifecycle("Using cached decompiled jar from " + cachedOutputFile.getPath());
-                FileUtils.copyFile(cachedOutputFile, getOutputJar().get().getAsFile());
-                return;
-            } else {
-                getLogger().lifecycle(
-                        "Didn't find cached decompiled jar, decompiling and saving to " + cachedOutputFile.getPath());
-            }
+        final RfgCacheService cacheService = getCacheService().get();
+        final String cacheKey = HashUtils.digestToHex(hashCacheKey(minorMcVer));
+        if (cacheService.restoreArtifact(ARTIFACT_KIND, cacheKey, getOutputJar().get().getAsFile())) {
+            getLogger().lifecycle("Using cached decompiled jar " + cacheKey);
+            return;
+        } else {
+            getLogger().lifecycle("Didn't find cached decompiled jar " + cacheKey + ", decompiling");
         }
 
         getLogger().lifecycle("Decompiling the srg jar with fernflower");
@@ -121,19 +160,24 @@ public abstract class DecompileTask extends DefaultTask implements IJarTransform
         ffoutdir.mkdirs();
         final File ffinpcopy = new File(taskTempDir, "mc.jar");
         final File ffoutfile = new File(ffoutdir, "mc.jar");
-        FileUtils.copyFile(getInputJar().get().getAsFile(), ffinpcopy);
-        if (minorMcVer <= 8) {
-            decompileFg12(ffoutdir, ffinpcopy);
+        FileMaterializer.materialize(getInputJar().get().getAsFile(), ffinpcopy, true);
+        final WorkerPlan plan = planWorkers(minorMcVer, getDecompilerWorkers().get());
+        if (getIncrementalDecompilation().get()) {
+            decompileIncrementally(ffinpcopy, ffoutfile, minorMcVer, cacheService);
+        } else if (plan.count() <= 1) {
+            if (minorMcVer <= 8) {
+                decompileFg12(ffoutdir, ffinpcopy);
+            } else {
+                decompileFg23(ffoutdir, ffinpcopy);
+            }
         } else {
-            decompileFg23(ffoutdir, ffinpcopy);
+            decompilePartitioned(ffinpcopy, ffoutfile, plan, minorMcVer);
         }
         FileUtils.delete(ffinpcopy);
 
-        try (final FileLock ignored = getCacheService().get().lockCache(false)) {
-            FileUtils.forceMkdirParent(cachedOutputFile);
-            FileUtils.copyFile(ffoutfile, cachedOutputFile);
-        }
-        FileUtils.copyFile(ffoutfile, getOutputJar().get().getAsFile());
+        cacheService.storeArtifact(ARTIFACT_KIND, cacheKey, ffoutfile);
+        // ffoutfile gets deleted below, so a hardlink acts as a move
+        FileMaterializer.materialize(ffoutfile, getOutputJar().get().getAsFile(), !Constants.DEBUG_NO_TMP_CLEANUP);
 
         final long postDecompileMs = System.currentTimeMillis();
         getLogger().lifecycle("  Decompiling took " + (postDecompileMs - preDecompileMs) + " ms");
@@ -143,49 +187,267 @@ public abstract class DecompileTask extends DefaultTask implements IJarTransform
         }
     }
 
+    /**
+     * The key of the decompiled jar in the shared artifact store, the input jar's hash comes from the persistent
+     * {@link HashUtils} file hash index so an unchanged jar doesn't get rehashed for every build.
+     */
+    private MessageDigestConsumer hashCacheKey(int minorMcVer) {
+        return HashUtils.addToHash(ARTIFACT_KIND).andThen(hashDecompilerSettings(minorMcVer))
+                .andThen(HashUtils.addFileContentsToHash(getInputJar().get().getAsFile()));
+    }
+
+    private MessageDigestConsumer hashDecompilerSettings(int minorMcVer) {
+        MessageDigestConsumer hasher = HashUtils.addToHash(minorMcVer);
+        if (minorMcVer <= 8) {
+            final MinecraftExtension mcExt = Objects.requireNonNull(getMinecraftExtension().get());
+            hasher = hasher.andThen(hashInputs()).andThen(HashUtils.addPropertyToHash(mcExt.getFernflowerArguments()));
+        } else {
+            hasher = hasher.andThen(HashUtils.addToHash(FG23_FERNFLOWER_VERSION));
+        }
+        return hasher;
+    }
+
+    private static WorkerPlan planWorkers(int minorMcVer, int requested) {
+        return (minorMcVer <= 8) ? DecompilePartitioner.planWorkers(requested, FG12_HEAP_MB, FG12_HEAP_MB)
+                : DecompilePartitioner.planWorkers(requested, FG23_MIN_PARTITION_HEAP_MB, FG23_HEAP_MB);
+    }
+
     private void decompileFg12(File ffoutdir, File ffinpcopy) {
+        runFernflower1(ffoutdir, ffinpcopy, null, getBuildDir().file(MCPTasks.RFG_DIR + "/fernflower_log.log"));
+    }
+
+    private void runFernflower1(File ffoutdir, File ffinpcopy, @Nullable File context, Provider<RegularFile> logFile) {
         getExecOperations().javaexec(exec -> {
             exec.classpath(getFernflower().get());
             MinecraftExtension mcExt = getMinecraftExtension().get();
             List<String> args = new ArrayList<>(Objects.requireNonNull(mcExt).getFernflowerArguments().get());
+            if (context != null) {
+                // Library classes are only analysed, not decompiled
+                args.add("-e=" + context.getAbsolutePath());
+            }
             args.add(ffinpcopy.getAbsolutePath());
             args.add(ffoutdir.getAbsolutePath());
             exec.args(args);
             exec.setWorkingDir(getFernflower().get().getAsFile().getParentFile());
             try {
-                exec.setStandardOutput(
-                        FileUtils.openOutputStream(
-                                getBuildDir().file(MCPTasks.RFG_DIR + "/fernflower_log.log").get().getAsFile()));
+                exec.setStandardOutput(FileUtils.openOutputStream(logFile.get().getAsFile()));
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
-            exec.setMinHeapSize("768M");
-            exec.setMaxHeapSize("768M");
+            exec.setMinHeapSize(FG12_HEAP_MB + "M");
+            exec.setMaxHeapSize(FG12_HEAP_MB + "M");
             final String javaExe = getJava17Launcher().get().getExecutablePath().getAsFile().getAbsolutePath();
             exec.executable(javaExe);
         }).assertNormalExitValue();
     }
 
     private void decompileFg23(File ffoutdir, File ffinpcopy) {
-        final File tempDir = getTemporaryDir();
-        final WorkQueue queue = getWorkerExecutor().processIsolation(pws -> {
+        final WorkQueue queue = createFg23Queue(FG23_HEAP_MB);
+        submitFg23(
+                queue,
+                getTemporaryDir(),
+                ffoutdir,
+                ffinpcopy,
+                null,
+                getBuildDir().file(MCPTasks.RFG_DIR + "/fernflower_log.log"));
+        queue.await();
+    }
+
+    private WorkQueue createFg23Queue(long heapMb) {
+        return getWorkerExecutor().processIsolation(pws -> {
             final JavaForkOptions fork = pws.getForkOptions();
-            fork.setMinHeapSize("3072M");
-            fork.setMaxHeapSize("3072M");
+            fork.setMinHeapSize(heapMb + "M");
+            fork.setMaxHeapSize(heapMb + "M");
             final String javaExe = getJava8Launcher().get().getExecutablePath().getAsFile().getAbsolutePath();
             // We can't use Java 17 so at least use some tuning options that are the defaults in newer versions
             fork.jvmArgs("-XX:+UnlockExperimentalVMOptions", "-XX:+UseG1GC", "-XX:+AggressiveOpts");
             fork.executable(javaExe);
         });
+    }
+
+    private void submitFg23(WorkQueue queue, File tempDir, File ffoutdir, File ffinpcopy, @Nullable File context,
+            Provider<RegularFile> logFile) {
+        // Partitioned outputs are merged without recompressing, so their compression carries over too
+        final JarCompression compression = getOutputCompression().getOrElse(JarCompression.DEFAULT);
         queue.submit(Fg23DecompTask.class, args -> {
             // setup args
             args.getTempDir().set(tempDir);
-            args.getLogFile().set(getBuildDir().file(MCPTasks.RFG_DIR + "/fernflower_log.log"));
+            args.getLogFile().set(logFile);
             args.getInputJar().set(ffinpcopy);
             args.getOutputDir().set(ffoutdir);
             args.getClasspath().setFrom(this.getClasspath());
+            if (context != null) {
+                args.getClasspath().from(context);
+            }
+            args.getCompressionMethod().set(compression.method);
+            args.getCompressionLevel().set(compression.level);
         });
-        queue.await();
+    }
+
+    /**
+     * Decompiles groups of classes in separate processes at the same time, each with all the other classes of the jar
+     * on its library path, and merges the results into the output file.
+     */
+    private void decompilePartitioned(File ffinpcopy, File ffoutfile, WorkerPlan plan, int minorMcVer)
+            throws IOException {
+        final File partitionDir = createPartitionDir();
+        final List<Partition> partitions = DecompilePartitioner.partition(ffinpcopy, plan.count(), partitionDir);
+        final List<File> outputs = runPartitions(partitions, partitionDir, plan, minorMcVer);
+        DecompilePartitioner.merge(
+                outputs,
+                Collections.emptyMap(),
+                ffoutfile,
+                getOutputCompression().getOrElse(JarCompression.DEFAULT));
+        if (!Constants.DEBUG_NO_TMP_CLEANUP) {
+            FileUtils.deleteQuietly(partitionDir);
+        }
+    }
+
+    /**
+     * Decompiles only the classes whose {@link ClassGroupHasher} key has no source in the class cache, with all the
+     * other classes as context, and reassembles the output from the cached and the new sources.
+     */
+    private void decompileIncrementally(File ffinpcopy, File ffoutfile, int minorMcVer, RfgCacheService cacheService)
+            throws IOException {
+        final File taskTempDir = getTemporaryDir();
+        final SourceStageCache classCache = SourceStageCache.load(
+                cacheService,
+                HashUtils.addToHash(CLASS_CACHE_NAME).andThen(hashDecompilerSettings(minorMcVer)),
+                taskTempDir);
+        final Map<String, String> groupKeys = ClassGroupHasher.hashGroups(ffinpcopy);
+        final Map<String, byte[]> cachedSources = new HashMap<>();
+        final Set<String> changed = new HashSet<>();
+        for (Map.Entry<String, String> group : groupKeys.entrySet()) {
+            final String source = classCache.get(group.getValue());
+            if (source != null) {
+                cachedSources.put(group.getKey() + ".java", source.getBytes(StandardCharsets.UTF_8));
+            } else {
+                changed.add(group.getKey());
+            }
+        }
+        getLogger().lifecycle(
+                "  Reusing the cached sources of {} classes, decompiling {} classes",
+                cachedSources.size(),
+                changed.size());
+
+        final File partitionDir = createPartitionDir();
+        final List<File> jars = new ArrayList<>();
+        final File resources = new File(partitionDir, "resources.jar");
+        DecompilePartitioner.copyResources(ffinpcopy, resources);
+        jars.add(resources);
+        if (!changed.isEmpty()) {
+            final WorkerPlan plan = planWorkers(minorMcVer, Math.min(getDecompilerWorkers().get(), changed.size()));
+            final List<Partition> partitions = DecompilePartitioner
+                    .partition(ffinpcopy, plan.count(), partitionDir, changed::contains, false);
+            final List<File> outputs = runPartitions(partitions, partitionDir, plan, minorMcVer);
+            for (File output : outputs) {
+                cacheDecompiledSources(output, groupKeys, classCache);
+            }
+            jars.addAll(outputs);
+        }
+        DecompilePartitioner
+                .merge(jars, cachedSources, ffoutfile, getOutputCompression().getOrElse(JarCompression.DEFAULT));
+        classCache.save();
+        if (!Constants.DEBUG_NO_TMP_CLEANUP) {
+            FileUtils.deleteQuietly(partitionDir);
+        }
+    }
+
+    /**
+     * Stores the source of every outer class that decompiled into a single file of the same name. Classes with
+     * sources split across multiple files are always decompiled again.
+     */
+    private static void cacheDecompiledSources(File decompiledJar, Map<String, String> groupKeys,
+            SourceStageCache classCache) throws IOException {
+        final Map<String, List<ZipEntry>> groupFiles = new HashMap<>();
+        try (final ZipFile zip = new ZipFile(decompiledJar)) {
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                final String name = entry.getName();
+                if (name.endsWith(".java")) {
+                    final String outer = DecompilePartitioner
+                            .getOuterClass(name.substring(0, name.length() - ".java".length()) + ".class");
+                    groupFiles.computeIfAbsent(outer, k -> new ArrayList<>()).add(entry);
+                }
+            }
+            for (Map.Entry<String, List<ZipEntry>> group : groupFiles.entrySet()) {
+                final String key = groupKeys.get(group.getKey());
+                final List<ZipEntry> files = group.getValue();
+                if (key != null && files.size() == 1 && files.get(0).getName().equals(group.getKey() + ".java")) {
+                    classCache.put(
+                            key,
+                            new String(Utilities.readZipEntry(zip, files.get(0)), StandardCharsets.UTF_8));
+                }
+            }
+        }
+    }
+
+    private File createPartitionDir() throws IOException {
+        final File partitionDir = new File(getTemporaryDir(), "ff-partitions");
+        FileUtils.deleteDirectory(partitionDir);
+        partitionDir.mkdirs();
+        return partitionDir;
+    }
+
+    /**
+     * Runs the decompiler on every partition at the same time.
+     *
+     * @return The decompiled jar of each partition
+     */
+    private List<File> runPartitions(List<Partition> partitions, File partitionDir, WorkerPlan plan, int minorMcVer) {
+        if (partitions.size() > 1) {
+            getLogger().lifecycle(
+                    "  Splitting the decompilation between {} processes with {} MB of heap each",
+                    partitions.size(),
+                    plan.heapMb());
+        }
+        final List<File> outputs = new ArrayList<>(partitions.size());
+        final List<File> outputDirs = new ArrayList<>(partitions.size());
+        for (int i = 0; i < partitions.size(); i++) {
+            final File outputDir = new File(partitionDir, "out-" + i);
+            outputDir.mkdirs();
+            outputDirs.add(outputDir);
+            outputs.add(new File(outputDir, partitions.get(i).classes().getName()));
+        }
+
+        if (minorMcVer <= 8) {
+            final ExecutorService pool = Executors.newFixedThreadPool(partitions.size());
+            try {
+                final List<Future<?>> futures = new ArrayList<>(partitions.size());
+                for (int i = 0; i < partitions.size(); i++) {
+                    final File classes = partitions.get(i).classes();
+                    final File context = partitions.get(i).context();
+                    final File outputDir = outputDirs.get(i);
+                    final Provider<RegularFile> logFile = getBuildDir()
+                            .file(MCPTasks.RFG_DIR + "/fernflower_log_" + i + ".log");
+                    futures.add(pool.submit(() -> runFernflower1(outputDir, classes, context, logFile)));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            } finally {
+                pool.shutdownNow();
+            }
+        } else {
+            final WorkQueue queue = createFg23Queue(plan.heapMb());
+            for (int i = 0; i < partitions.size(); i++) {
+                final File workerTempDir = new File(partitionDir, "tmp-" + i);
+                workerTempDir.mkdirs();
+                submitFg23(
+                        queue,
+                        workerTempDir,
+                        outputDirs.get(i),
+                        partitions.get(i).classes(),
+                        partitions.get(i).context(),
+                        getBuildDir().file(MCPTasks.RFG_DIR + "/fernflower_log_" + i + ".log"));
+            }
+            queue.await();
+        }
+        return outputs;
     }
 
 }
@@ -13,11 +13,8 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Comparator;
 import java.util.GregorianCalendar;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -43,6 +40,7 @@ import org.gradle.api.tasks.CacheableTask;
 import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.InputFile;
 import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.Optional;
 import org.gradle.api.tasks.PathSensitive;
 import org.gradle.api.tasks.PathSensitivity;
@@ -63,9 +61,12 @@ import com.gtnewhorizons.retrofuturagradle.fg12shadow.net.md_5.specialsource.pro
 import com.gtnewhorizons.retrofuturagradle.fg12shadow.net.md_5.specialsource.provider.JointProvider;
 import com.gtnewhorizons.retrofuturagradle.fg23shadow.de.oceanlabs.mcp.mcinjector.LVTNaming;
 import com.gtnewhorizons.retrofuturagradle.json.MCInjectorStruct;
+import com.gtnewhorizons.retrofuturagradle.util.FileMaterializer;
 import com.gtnewhorizons.retrofuturagradle.util.HashUtils;
 import com.gtnewhorizons.retrofuturagradle.util.IJarTransformTask;
+import com.gtnewhorizons.retrofuturagradle.util.JarCompression;
 import com.gtnewhorizons.retrofuturagradle.util.MessageDigestConsumer;
+import com.gtnewhorizons.retrofuturagradle.util.ParallelJarTransformer;
 import com.gtnewhorizons.retrofuturagradle.util.RenamedAccessMapFG12;
 import com.gtnewhorizons.retrofuturagradle.util.RenamedAccessMapFG23;
 import com.gtnewhorizons.retrofuturagradle.util.Utilities;
@@ -109,6 +110,20 @@ public abstract class DeobfuscateTask extends DefaultTask implements IJarTransfo
     @Input
     public abstract Property<Integer> getMinorMcVersion();
 
+    /** The maximum number of threads used to process classes, doesn't affect the output */
+    @Internal
+    public abstract Property<Integer> getTransformParallelism();
+
+    /**
+     * Optional, if set the output jar is also saved to and restored from the shared artifact store, and the mapping csvs
+     * are only parsed once per build
+     */
+    @Internal
+    public abstract Property<RfgCacheService> getCacheService();
+
+    /** Subdirectory of the shared artifact store holding deobfuscated jars */
+    public static final String ARTIFACT_KIND = "deobfuscated";
+
     @Override
     public MessageDigestConsumer hashInputs() {
         return HashUtils.addPropertyToHash(getAccessTransformerFiles())
@@ -127,6 +142,7 @@ public abstract class DeobfuscateTask extends DefaultTask implements IJarTransfo
     public DeobfuscateTask(Project proj) {
         getIsStrippingSynthetics().convention(false);
         getIsApplyingMarkers().convention(false);
+        getTransformParallelism().convention(Runtime.getRuntime().availableProcessors());
         getMinorMcVersion().convention(7);
     }
 
@@ -138,6 +154,17 @@ public abstract class DeobfuscateTask extends DefaultTask implements IJarTransfo
         final File exceptedJar = new File(taskTempDir, "excepted.jar");
         final int mcMinor = getMinorMcVersion().get();
 
+        final RfgCacheService cacheService = getCacheService().getOrNull();
+        final String cacheKey = (cacheService == null) ? null
+                : HashUtils.digestToHex(
+                        HashUtils.addToHash(ARTIFACT_KIND).andThen(hashInputs())
+                                .andThen(HashUtils.addFileContentsToHash(getInputJar().get().getAsFile())));
+        if (cacheService != null
+                && cacheService.restoreArtifact(ARTIFACT_KIND, cacheKey, getOutputJar().get().getAsFile())) {
+            getLogger().lifecycle("Using cached deobfuscated jar " + cacheKey);
+            return;
+        }
+
         getLogger().lifecycle("Applying SpecialSource");
         final Set<File> atFiles = new ImmutableSet.Builder<File>().addAll(getAccessTransformerFiles()).build();
         if (mcMinor <= 8) {
@@ -153,6 +180,9 @@ public abstract class DeobfuscateTask extends DefaultTask implements IJarTransfo
         getLogger()
                 .lifecycle("Cleaning up generated debuginfo{}", isStrippingSynths ? " and stripping synthetics" : "");
         cleanupJar(exceptedJar, getOutputJar().get().getAsFile(), isStrippingSynths);
+        if (cacheService != null) {
+            cacheService.storeArtifact(ARTIFACT_KIND, cacheKey, getOutputJar().get().getAsFile());
+        }
 
         // Clean up temporary files
         if (!Constants.DEBUG_NO_TMP_CLEANUP) {
@@ -161,27 +191,25 @@ public abstract class DeobfuscateTask extends DefaultTask implements IJarTransfo
         }
     }
 
+    /** Srg to mcp names of methods and fields, shared through the cache service when it's set */
+    private Map<String, String> loadRenames() {
+        final File methodCsv = getMethodCsv().getAsFile().getOrNull();
+        final File fieldCsv = getFieldCsv().getAsFile().getOrNull();
+        final RfgCacheService cacheService = getCacheService().getOrNull();
+        if (cacheService != null) {
+            return cacheService.getCombinedMappings(methodCsv, fieldCsv, null, null);
+        }
+        return Utilities.loadMappingCsvs(methodCsv, fieldCsv, null, null, null).getCombinedMappings();
+    }
+
     private void applySpecialSourceFG12(File tempDeobfJar, Set<File> atFiles) throws IOException {
         final File originalInputFile = getInputJar().get().getAsFile();
-        // Work on a copy to make sure the original jar doesn't get modified
+        // Work on a copy to make sure the original jar doesn't get modified, it's only read so it can be a hardlink
         final File inputFile = new File(taskTempDir, "input.jar");
-        FileUtils.copyFile(originalInputFile, inputFile);
+        FileMaterializer.materialize(originalInputFile, inputFile, true);
         final JarMapping mapping = new JarMapping();
         mapping.loadMappings(getSrgFile().get().getAsFile());
-        final Map<String, String> renames = new HashMap<>();
-        for (File f : new File[] { getFieldCsv().getAsFile().getOrNull(), getMethodCsv().getAsFile().getOrNull() }) {
-            if (f == null) {
-                continue;
-            }
-            try (var lines = FileUtils.lineIterator(f)) {
-                lines.forEachRemaining(line -> {
-                    String[] parts = line.split(",");
-                    if (!"searge".equals(parts[0])) {
-                        renames.put(parts[0], parts[1]);
-                    }
-                });
-            }
-        }
+        final Map<String, String> renames = loadRenames();
 
         // Load access transformers
         getLogger().lifecycle("Loading {} AccessTransformers", atFiles.size());
@@ -228,25 +256,12 @@ public abstract class DeobfuscateTask extends DefaultTask implements IJarTransfo
 
     private void applySpecialSourceFG23(File tempDeobfJar, Set<File> atFiles) throws IOException {
         final File originalInputFile = getInputJar().get().getAsFile();
-        // Work on a copy to make sure the original jar doesn't get modified
+        // Work on a copy to make sure the original jar doesn't get modified, it's only read so it can be a hardlink
         final File inputFile = new File(taskTempDir, "input.jar");
-        FileUtils.copyFile(originalInputFile, inputFile);
+        FileMaterializer.materialize(originalInputFile, inputFile, true);
         final com.gtnewhorizons.retrofuturagradle.fg23shadow.net.md_5.specialsource.JarMapping mapping = new com.gtnewhorizons.retrofuturagradle.fg23shadow.net.md_5.specialsource.JarMapping();
         mapping.loadMappings(getSrgFile().get().getAsFile());
-        final Map<String, String> renames = new HashMap<>();
-        for (File f : new File[] { getFieldCsv().getAsFile().getOrNull(), getMethodCsv().getAsFile().getOrNull() }) {
-            if (f == null) {
-                continue;
-            }
-            try (var lines = FileUtils.lineIterator(f)) {
-                lines.forEachRemaining(line -> {
-                    String[] parts = line.split(",");
-                    if (!"searge".equals(parts[0])) {
-                        renames.put(parts[0], parts[1]);
-                    }
-                });
-            }
-        }
+        final Map<String, String> renames = loadRenames();
 
         // Load access transformers
         getLogger().lifecycle("Loading {} AccessTransformers", atFiles.size());
@@ -403,42 +418,36 @@ public abstract class DeobfuscateTask extends DefaultTask implements IJarTransfo
             .getTimeInMillis();
 
     private void cleanupJar(File inputJar, File outputJar, boolean stripSynthetics) throws IOException {
+        final ParallelJarTransformer transformer = new ParallelJarTransformer(getTransformParallelism().get());
         try (final ZipFile inZip = new ZipFile(inputJar);
                 final FileOutputStream fos = new FileOutputStream(outputJar);
                 final BufferedOutputStream bos = new BufferedOutputStream(fos);
                 final ZipOutputStream out = new ZipOutputStream(bos)) {
-            final ArrayList<ZipEntry> inputEntries = new ArrayList<>(inZip.size());
             for (ZipEntry entry : new IteratorIterable<>(new EnumerationIterator<>(inZip.entries()))) {
                 if (entry.getName().contains("META-INF")) continue;
-                inputEntries.add(entry);
-            }
-            // Ensure reproducible jar output
-            inputEntries.sort(Comparator.comparing(ZipEntry::getName));
-
-            for (ZipEntry entry : inputEntries) {
-                ZipEntry n = new ZipEntry(entry.getName());
-                n.setTime(CONSTANT_TIME_FOR_ZIP_ENTRIES);
-                out.putNextEntry(n);
-                if (!entry.isDirectory()) {
-                    byte[] entryContents = Utilities.readZipEntry(inZip, entry);
-
-                    // correct source name
-                    if (entry.getName().endsWith(".class") && stripSynthetics) {
-                        final ClassNode node = Utilities.parseClassBytes(entryContents, entry.getName());
+                if (entry.isDirectory()) {
+                    transformer.addEntry(entry.getName(), () -> new byte[0]);
+                } else if (entry.getName().endsWith(".class") && stripSynthetics) {
+                    transformer.addEntry(entry.getName(), () -> Utilities.readZipEntry(inZip, entry), contents -> {
+                        final ClassNode node = Utilities.parseClassBytes(contents, entry.getName());
                         // Other asm-based class cleanup can be done here
-                        if (stripSynthetics) {
-                            stripClassSynthetics(node);
-                        }
-                        entryContents = Utilities.emitClassBytes(node, 0);
-                    }
-
-                    out.write(entryContents);
+                        stripClassSynthetics(node);
+                        return Utilities.emitClassBytes(node, 0);
+                    });
+                } else {
+                    transformer.addEntry(entry.getName(), () -> Utilities.readZipEntry(inZip, entry));
                 }
             }
+            // Ensure reproducible jar output, entries are written sorted by name
+            transformer.writeTo(out, name -> {
+                final ZipEntry n = new ZipEntry(name);
+                n.setTime(CONSTANT_TIME_FOR_ZIP_ENTRIES);
+                return n;
+            }, getOutputCompression().getOrElse(JarCompression.DEFAULT));
         }
     }
 
-    private void stripClassSynthetics(ClassNode node) {
+    private static void stripClassSynthetics(ClassNode node) {
         if ((node.access & Opcodes.ACC_ENUM) == 0 && !node.superName.equals("java/lang/Enum")
                 && (node.access & Opcodes.ACC_SYNTHETIC) == 0) {
             // ^^ is for ignoring enums.
@@ -3,9 +3,7 @@ package com.gtnewhorizons.retrofuturagradle.mcp;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
-import java.nio.channels.FileLock;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -28,8 +26,8 @@ import com.google.common.collect.Maps;
 import com.google.common.io.Files;
 import com.gtnewhorizons.retrofuturagradle.fg12shadow.net.minecraftforge.srg2source.rangeapplier.MethodData;
 import com.gtnewhorizons.retrofuturagradle.fg12shadow.net.minecraftforge.srg2source.rangeapplier.SrgContainer;
+import com.gtnewhorizons.retrofuturagradle.util.CompiledMappings;
 import com.gtnewhorizons.retrofuturagradle.util.Utilities;
-import com.opencsv.CSVReader;
 
 /**
  * Generates Deobf(Mcp)-Searge(Srg)-Obf(Notch) name mappings
@@ -82,33 +80,40 @@ public abstract class GenSrgMappingsTask extends DefaultTask {
     @OutputFile
     public abstract RegularFileProperty getMcpExc();
 
+    /** Binary SRG to MCP name table, see {@link CompiledMappings} */
+    @OutputFile
+    public abstract RegularFileProperty getCompiledMappings();
+
     @Internal
     public abstract Property<RfgCacheService> getCacheService();
 
     @TaskAction
     public void generateMappings() throws IOException {
-        // SRG->MCP from the MCP csv files
-        HashMap<String, String> methods = new HashMap<>(5000);
-        HashMap<String, String> fields = new HashMap<>(5000);
-
-        try (final FileLock ignored = getCacheService().get().lockCache(false)) {
-
-            try (CSVReader csvReader = Utilities.createCsvReader(getMethodsCsv().get().getAsFile())) {
-                for (String[] line : csvReader) {
-                    methods.put(line[0], line[1]);
-                }
-            }
-            try (CSVReader csvReader = Utilities.createCsvReader(getFieldsCsv().get().getAsFile())) {
-                for (String[] line : csvReader) {
-                    fields.put(line[0], line[1]);
-                }
-            }
+        try (final RfgCacheService.CacheLock ignored = getCacheService().get().lockCache(false)) {
+
+            // SRG->MCP from the MCP csv files
+            final Utilities.MappingsSet mappings = getCacheService().get().getMappings(
+                    getMethodsCsv().get().getAsFile(),
+                    getFieldsCsv().get().getAsFile(),
+                    null,
+                    null,
+                    null);
+            final Map<String, String> methods = Maps
+                    .transformValues(mappings.methodMappings, Utilities.Mapping::name);
+            final Map<String, String> fields = Maps.transformValues(mappings.fieldMappings, Utilities.Mapping::name);
 
             SrgContainer inSrg = new SrgContainer().readSrg(getInputSrg().get().getAsFile());
             Map<String, String> excRemap = Maps.newHashMap(); // Was a bunch of commented out code in ForgeGradle
             // Write outputs
             writeOutSrgs(inSrg, methods, fields);
             writeOutExcs(excRemap, methods);
+            final File compiledMappings = getCompiledMappings().get().getAsFile();
+            getCacheService().get().closeCompiledMappings(compiledMappings);
+            CompiledMappings.write(
+                    compiledMappings,
+                    CompiledMappings.hashSources(getMethodsCsv().get().getAsFile(), getFieldsCsv().get().getAsFile()),
+                    methods,
+                    fields);
         }
     }
 
@@ -74,6 +74,7 @@ import com.gtnewhorizons.retrofuturagradle.util.Distribution;
 import com.gtnewhorizons.retrofuturagradle.util.IJarOutputTask;
 import com.gtnewhorizons.retrofuturagradle.util.IJarTransformTask;
 import com.gtnewhorizons.retrofuturagradle.util.JarChain;
+import com.gtnewhorizons.retrofuturagradle.util.JarCompression;
 import com.gtnewhorizons.retrofuturagradle.util.Utilities;
 
 /**
@@ -190,6 +191,9 @@ public class MCPTasks extends SharedMCPTasks<MinecraftExtension> {
                     task.getMergeConfig()
                             .set(mcExt.getMinorMcVersion().map(ver -> (ver <= 8) ? null : Constants.FG23_MERGE_CONFIG));
                     task.getMcVersion().set(mcExt.getMcVersion());
+                    task.getTransformParallelism().set(mcExt.getJarTransformParallelism());
+                    task.getCacheService().set(rfgCacheService);
+                    task.usesService(rfgCacheService);
                 });
         decompiledMcChain.addTask(taskMergeVanillaSidedJars);
 
@@ -226,6 +230,9 @@ public class MCPTasks extends SharedMCPTasks<MinecraftExtension> {
                     // Configured in afterEvaluate()
                     task.getAccessTransformerFiles().setFrom(preDecompATs);
                     task.getMinorMcVersion().set(mcExt.getMinorMcVersion());
+                    task.getTransformParallelism().set(mcExt.getJarTransformParallelism());
+                    task.getCacheService().set(rfgCacheService);
+                    task.usesService(rfgCacheService);
                 });
         decompiledMcChain.addTask(taskDeobfuscateMergedJarToSrg, JarChain.ChainAction.NO_CLEANUP);
 
@@ -237,13 +244,14 @@ public class MCPTasks extends SharedMCPTasks<MinecraftExtension> {
             task.dependsOn(taskDeobfuscateMergedJarToSrg, taskDownloadFernflower);
             task.getInputJar().set(taskDeobfuscateMergedJarToSrg.flatMap(IJarOutputTask::getOutputJar));
             task.getOutputJar().set(rawDecompiledSrgLocation);
-            task.getCacheDir().set(Utilities.getCacheDir(project, "fernflower-cache"));
             task.getFernflower()
                     .set(layout.file(mcExt.getMinorMcVersion().map(mcVer -> (mcVer <= 8) ? fernflowerLocation : null)));
             task.getMinorMcVersion().set(mcExt.getMinorMcVersion());
             task.getClasspath().from(patchedConfiguration.plus(mcTasks.getLwjgl2Configuration()));
             task.getJava8Launcher().set(mcExt.getToolchainLauncher(project, 8));
             task.getJava17Launcher().set(mcExt.getToolchainLauncher(project, 17));
+            task.getDecompilerWorkers().set(mcExt.getDecompilerWorkers());
+            task.getIncrementalDecompilation().set(mcExt.getUseIncrementalDecompilation());
             task.getCacheService().set(rfgCacheService);
             task.usesService(rfgCacheService);
         });
@@ -262,6 +270,9 @@ public class MCPTasks extends SharedMCPTasks<MinecraftExtension> {
                             mcExt.getMinorMcVersion().flatMap(
                                     mcVer -> (mcVer <= 8) ? userdevFile("conf/astyle.cfg") : mcpFile("astyle.cfg")));
                     task.getMinorMcVersion().set(mcExt.getMinorMcVersion());
+                    task.getParallelism().set(mcExt.getJarTransformParallelism());
+                    task.getCacheService().set(rfgCacheService);
+                    task.usesService(rfgCacheService);
                     task.getPatchesInjectDir().set(
                             mcExt.getMinorMcVersion()
                                     .flatMap(mcVer -> (mcVer <= 8) ? null : mcpDir("patches/inject/")));
@@ -276,6 +287,9 @@ public class MCPTasks extends SharedMCPTasks<MinecraftExtension> {
             task.getOutputJar().set(patchedSourcesLocation);
             task.getMaxFuzziness().set(1);
             task.getPathComponentsToStrip().set(mcExt.getMinorMcVersion().map(mcVer -> (mcVer <= 8) ? 3 : 1));
+            task.getParallelism().set(mcExt.getJarTransformParallelism());
+            // Only read by applyJST, the remapped jar after it is the one that gets attached to the IDE
+            task.getOutputCompression().set(JarCompression.STORED);
         });
         decompiledMcChain.addTask(taskPatchDecompiledJar);
         decompiledMcChain.finish();
@@ -309,6 +323,10 @@ public class MCPTasks extends SharedMCPTasks<MinecraftExtension> {
             task.getBinaryJar().set(taskDecompileSrgJar.flatMap(IJarTransformTask::getInputJar));
             task.getInputJar().set(taskApplyJST.flatMap(IJarOutputTask::getOutputJar));
             task.getOutputJar().set(remappedSourcesLocation);
+            task.getCacheService().set(rfgCacheService);
+            task.usesService(rfgCacheService);
+            task.getParallelism().set(mcExt.getJarTransformParallelism());
+            task.getVerifyParallelRemap().set(mcExt.getVerifyParallelSourceRemap());
             task.getFieldCsv().set(taskGenerateForgeSrgMappings.flatMap(GenSrgMappingsTask::getFieldsCsv));
             task.getMethodCsv().set(taskGenerateForgeSrgMappings.flatMap(GenSrgMappingsTask::getMethodsCsv));
             task.getParamCsv().set(mcpFile("params.csv"));
@@ -654,6 +672,8 @@ public class MCPTasks extends SharedMCPTasks<MinecraftExtension> {
                 task.getMethodCsv().set(taskGenerateForgeSrgMappings.flatMap(GenSrgMappingsTask::getMethodsCsv));
                 task.getExceptorCfg().set(taskGenerateForgeSrgMappings.flatMap(GenSrgMappingsTask::getSrgExc));
                 task.getRecompMcJar().set(taskPackagePatchedMc.flatMap(Jar::getArchiveFile));
+                task.getCacheService().set(rfgCacheService);
+                task.usesService(rfgCacheService);
                 task.getReferenceClasspath().from(runtimeClasspathCfg);
                 final ConfigurableFileCollection refCp = task.getReferenceClasspath();
                 refCp.from(taskPackageMcLauncher);
@@ -797,6 +817,9 @@ public class MCPTasks extends SharedMCPTasks<MinecraftExtension> {
                     // Configured in afterEvaluate()
                     task.getAccessTransformerFiles().setFrom(preDecompATs, deobfuscationATs, extractedDependencyATs);
                     task.getMinorMcVersion().set(mcExt.getMinorMcVersion());
+                    task.getTransformParallelism().set(mcExt.getJarTransformParallelism());
+                    task.getCacheService().set(rfgCacheService);
+                    task.usesService(rfgCacheService);
                 });
 
         obfRuntimeClasspathConfiguration = project.getConfigurations().create("obfuscatedRuntimeClasspath");
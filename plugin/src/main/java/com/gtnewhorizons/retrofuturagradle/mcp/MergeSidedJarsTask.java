@@ -36,6 +36,7 @@ import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.CacheableTask;
 import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.Optional;
 import org.gradle.api.tasks.PathSensitive;
 import org.gradle.api.tasks.PathSensitivity;
@@ -51,7 +52,9 @@ import com.google.common.collect.ImmutableList;
 import com.gtnewhorizons.retrofuturagradle.util.Distribution;
 import com.gtnewhorizons.retrofuturagradle.util.HashUtils;
 import com.gtnewhorizons.retrofuturagradle.util.IJarOutputTask;
+import com.gtnewhorizons.retrofuturagradle.util.JarCompression;
 import com.gtnewhorizons.retrofuturagradle.util.MessageDigestConsumer;
+import com.gtnewhorizons.retrofuturagradle.util.ParallelJarTransformer;
 import com.gtnewhorizons.retrofuturagradle.util.Utilities;
 
 @CacheableTask
@@ -81,6 +84,14 @@ public abstract class MergeSidedJarsTask extends DefaultTask implements IJarOutp
     private Class<? extends Annotation> sideOnlyClass;
     private Enum<?> sideClient, sideServer;
 
+    /** The maximum number of threads used to merge classes, doesn't affect the output */
+    @Internal
+    public abstract Property<Integer> getTransformParallelism();
+
+    public MergeSidedJarsTask() {
+        getTransformParallelism().convention(Runtime.getRuntime().availableProcessors());
+    }
+
     @Override
     public MessageDigestConsumer hashInputs() {
         return HashUtils.addPropertyToHash(getMergeConfigFile()).andThen(HashUtils.addPropertyToHash(getMergeConfig()))
@@ -89,8 +100,24 @@ public abstract class MergeSidedJarsTask extends DefaultTask implements IJarOutp
                 .andThen(HashUtils.addPropertyToHash(getMcVersion()));
     }
 
+    /** Optional, if set the output jar is also saved to and restored from the shared artifact store */
+    @Internal
+    public abstract Property<RfgCacheService> getCacheService();
+
+    /** Subdirectory of the shared artifact store holding merged jars */
+    public static final String ARTIFACT_KIND = "merged";
+
     @TaskAction
     void mergeJars() throws IOException {
+        final RfgCacheService cacheService = getCacheService().getOrNull();
+        final String cacheKey = (cacheService == null) ? null
+                : HashUtils.digestToHex(HashUtils.addToHash(ARTIFACT_KIND).andThen(hashInputs()));
+        if (cacheService != null
+                && cacheService.restoreArtifact(ARTIFACT_KIND, cacheKey, getOutputJar().get().getAsFile())) {
+            getLogger().lifecycle("Using cached merged jar " + cacheKey);
+            return;
+        }
+
         if (getMcVersion().get().startsWith("1.7.")) {
             sideClass = cpw.mods.fml.relauncher.Side.class;
             sideOnlyClass = cpw.mods.fml.relauncher.SideOnly.class;
@@ -104,15 +131,14 @@ public abstract class MergeSidedJarsTask extends DefaultTask implements IJarOutp
         final MergeConfig config = new MergeConfig(
                 getMergeConfigFile().getAsFile().getOrNull(),
                 getMergeConfig().getOrElse(Collections.emptyList()));
+        final ParallelJarTransformer transformer = new ParallelJarTransformer(getTransformParallelism().get());
         try (final ZipFile clientJar = new ZipFile(getClientJar().get().getAsFile());
                 final ZipFile serverJar = new ZipFile(getServerJar().get().getAsFile());
                 final FileOutputStream outFOS = new FileOutputStream(getOutputJar().get().getAsFile());
                 final BufferedOutputStream outBOS = new BufferedOutputStream(outFOS);
                 final ZipOutputStream outJar = new ZipOutputStream(outBOS)) {
-            final Set<String> resources = new HashSet<>();
             final Map<String, ZipEntry> clientClasses = new HashMap<>();
             final Map<String, ZipEntry> serverClasses = new HashMap<>();
-            final Set<String> processedClasses = new HashSet<>();
 
             // Find classes and merge resources
             for (Pair<Map<String, ZipEntry>, ZipFile> pair : ImmutableList
@@ -127,11 +153,8 @@ public abstract class MergeSidedJarsTask extends DefaultTask implements IJarOutp
                     }
                     final boolean isResource = !entryName.endsWith(".class") || entryName.startsWith(".");
                     if (isResource) {
-                        if (!resources.contains(entryName)) {
-                            final ZipEntry newEntry = new ZipEntry(entryName);
-                            outJar.putNextEntry(newEntry);
-                            outJar.write(Utilities.readZipEntry(jar, entry));
-                            resources.add(entryName);
+                        if (!transformer.hasEntry(entryName)) {
+                            transformer.addEntry(entryName, () -> Utilities.readZipEntry(jar, entry));
                         }
                     } else {
                         classes.put(entryName.replaceFirst("\\.class$", ""), entry);
@@ -143,35 +166,45 @@ public abstract class MergeSidedJarsTask extends DefaultTask implements IJarOutp
             for (Map.Entry<String, ZipEntry> entry : clientClasses.entrySet()) {
                 final String className = entry.getKey(); // e.g. java/lang/Math
                 final ZipEntry clientEntry = entry.getValue();
-                final ZipEntry serverEntry = serverClasses.get(className);
+                final ZipEntry serverEntry = serverClasses.remove(className);
                 if (serverEntry == null) {
-                    copySidedClass(config, clientJar, clientEntry, outJar, true);
-                    processedClasses.add(className);
+                    transformer.addEntry(
+                            clientEntry.getName(),
+                            () -> Utilities.readZipEntry(clientJar, clientEntry),
+                            clientData -> annotateSidedClass(config, clientData, clientEntry.getName(), true));
                 } else {
-                    serverClasses.remove(className);
-                    byte[] clientData = Utilities.readZipEntry(clientJar, clientEntry);
-                    byte[] serverData = Utilities.readZipEntry(serverJar, serverEntry);
-                    byte[] mergedData = mergeClasses(clientData, serverData, className);
-                    ZipEntry mergedEntry = new ZipEntry(clientEntry.getName());
-                    outJar.putNextEntry(mergedEntry);
-                    outJar.write(mergedData);
-                    processedClasses.add(className);
+                    transformer.addEntry(
+                            clientEntry.getName(),
+                            () -> Pair.of(
+                                    Utilities.readZipEntry(clientJar, clientEntry),
+                                    Utilities.readZipEntry(serverJar, serverEntry)),
+                            data -> mergeClasses(data.getLeft(), data.getRight(), className));
                 }
             }
             // Process remaining server classes
-            for (Map.Entry<String, ZipEntry> entry : serverClasses.entrySet()) {
-                copySidedClass(config, serverJar, entry.getValue(), outJar, false);
+            for (ZipEntry serverEntry : serverClasses.values()) {
+                transformer.addEntry(
+                        serverEntry.getName(),
+                        () -> Utilities.readZipEntry(serverJar, serverEntry),
+                        serverData -> annotateSidedClass(config, serverData, serverEntry.getName(), false));
             }
             // Add the Side&SideOnly classes to the jar
             for (Class<?> klass : ImmutableList.of(sideClass, sideOnlyClass)) {
-                final String entityName = klass.getName().replace('.', '/');
-                final String zipPath = entityName + ".class";
-                if (!processedClasses.contains(entityName)) {
-                    ZipEntry newEntry = new ZipEntry(zipPath);
-                    outJar.putNextEntry(newEntry);
-                    outJar.write(Utilities.getClassBytes(klass));
+                final String zipPath = klass.getName().replace('.', '/') + ".class";
+                if (!transformer.hasEntry(zipPath)) {
+                    transformer.addEntry(zipPath, () -> Utilities.getClassBytes(klass));
                 }
             }
+
+            // Entries are written sorted by name with a constant timestamp to make the output reproducible
+            transformer.writeTo(outJar, name -> {
+                final ZipEntry n = new ZipEntry(name);
+                n.setTime(DeobfuscateTask.CONSTANT_TIME_FOR_ZIP_ENTRIES);
+                return n;
+            }, getOutputCompression().getOrElse(JarCompression.DEFAULT));
+        }
+        if (cacheService != null) {
+            cacheService.storeArtifact(ARTIFACT_KIND, cacheKey, getOutputJar().get().getAsFile());
         }
     }
 
@@ -230,9 +263,9 @@ public abstract class MergeSidedJarsTask extends DefaultTask implements IJarOutp
         final Set<String> dontProcess;
     }
 
-    private void copySidedClass(MergeConfig config, ZipFile inputJar, ZipEntry entry, ZipOutputStream outputJar,
-            boolean isClientOnly) throws IOException {
-        ClassNode classNode = Utilities.parseClassBytes(Utilities.readZipEntry(inputJar, entry), entry.getName());
+    private byte[] annotateSidedClass(MergeConfig config, byte[] classData, String debugName,
+            boolean isClientOnly) {
+        ClassNode classNode = Utilities.parseClassBytes(classData, debugName);
 
         // Annotate with @SideOnly(Side.SIDE)
         if (!config.dontAnnotate.contains(classNode.name)) {
@@ -242,12 +275,7 @@ public abstract class MergeSidedJarsTask extends DefaultTask implements IJarOutp
             classNode.visibleAnnotations.add(makeSideAnnotation(isClientOnly));
         }
 
-        byte[] annotatedClass = Utilities.emitClassBytes(classNode, ClassWriter.COMPUTE_MAXS);
-        if (outputJar != null) {
-            ZipEntry newEntry = new ZipEntry(entry.getName());
-            outputJar.putNextEntry(newEntry);
-            outputJar.write(annotatedClass);
-        }
+        return Utilities.emitClassBytes(classNode, ClassWriter.COMPUTE_MAXS);
     }
 
     private byte[] mergeClasses(byte[] clientData, byte[] serverData, String debugName) {
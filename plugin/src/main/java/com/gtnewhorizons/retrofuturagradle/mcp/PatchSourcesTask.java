@@ -8,7 +8,7 @@ import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -26,16 +26,22 @@ import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.CacheableTask;
 import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.PathSensitive;
 import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.TaskAction;
 
 import com.cloudbees.diff.PatchException;
 import com.gtnewhorizons.retrofuturagradle.util.HashUtils;
+import com.gtnewhorizons.retrofuturagradle.util.HeapUsageSampler;
 import com.gtnewhorizons.retrofuturagradle.util.IJarTransformTask;
+import com.gtnewhorizons.retrofuturagradle.util.JarCompression;
 import com.gtnewhorizons.retrofuturagradle.util.MessageDigestConsumer;
+import com.gtnewhorizons.retrofuturagradle.util.SourceFile;
+import com.gtnewhorizons.retrofuturagradle.util.SourceJar;
 import com.gtnewhorizons.retrofuturagradle.util.Utilities;
 import com.gtnewhorizons.retrofuturagradle.util.patching.ContextualPatch;
+import com.gtnewhorizons.retrofuturagradle.util.patching.ParallelPatcher;
 
 @CacheableTask
 public abstract class PatchSourcesTask extends DefaultTask implements IJarTransformTask {
@@ -60,6 +66,10 @@ public abstract class PatchSourcesTask extends DefaultTask implements IJarTransf
     @Input
     public abstract Property<Integer> getPathComponentsToStrip();
 
+    /** The maximum number of threads used to apply patches to different files, the output is the same for any value */
+    @Internal
+    public abstract Property<Integer> getParallelism();
+
     @Inject
     public abstract ObjectFactory getObjects();
 
@@ -77,30 +87,40 @@ public abstract class PatchSourcesTask extends DefaultTask implements IJarTransf
         }).andThen(HashUtils.addPropertyToHash(getMaxFuzziness()));
     }
 
-    private final Map<String, byte[]> loadedResources = new HashMap<>();
-    private final Map<String, String> loadedSources = new HashMap<>();
+    private SourceJar loadedJar;
+    private Map<String, SourceFile> loadedSources;
 
     @Inject
     public PatchSourcesTask() {
         getMaxFuzziness().convention(0);
         getPathComponentsToStrip().convention(3);
+        getParallelism().convention(Runtime.getRuntime().availableProcessors());
     }
 
     @TaskAction
     public void patchSources() throws IOException, PatchException {
-        loadedResources.clear();
-        loadedSources.clear();
-        Utilities.loadMemoryJar(getInputJar().get().getAsFile(), loadedResources, loadedSources);
-        getLogger().lifecycle(
-                "Patching sources: {} patch archives, {} injection directories",
-                getPatches().getFiles().size(),
-                getInjectionDirectories().getFiles().size());
-
-        injectFiles();
-
-        patchFiles();
+        try (final SourceJar jar = SourceJar.read(getInputJar().get().getAsFile())) {
+            loadedJar = jar;
+            loadedSources = jar.getSources();
+            getLogger().lifecycle(
+                    "Patching sources: {} patch archives, {} injection directories",
+                    getPatches().getFiles().size(),
+                    getInjectionDirectories().getFiles().size());
+
+            injectFiles();
+
+            final long patchStartMs = System.currentTimeMillis();
+            try (final HeapUsageSampler heap = HeapUsageSampler.start(getLogger())) {
+                patchFiles();
+                getLogger().lifecycle("  Patching took {} ms", System.currentTimeMillis() - patchStartMs);
+                heap.logPeriod("Patching");
+            }
 
-        Utilities.saveMemoryJar(loadedResources, loadedSources, getOutputJar().get().getAsFile(), false);
+            jar.write(getOutputJar().get().getAsFile(), getOutputCompression().getOrElse(JarCompression.DEFAULT));
+        } finally {
+            loadedJar = null;
+            loadedSources = null;
+        }
     }
 
     private void injectFiles() throws IOException {
@@ -111,78 +131,121 @@ public abstract class PatchSourcesTask extends DefaultTask implements IJarTransf
                 final Path relativePath = rootPath.relativize(absPath);
                 final String relPathStr = relativePath.toString().replace('\\', '/');
                 if (relPathStr.endsWith(".java")) {
-                    loadedSources.put(relPathStr, FileUtils.readFileToString(toInject, StandardCharsets.UTF_8));
+                    loadedSources.put(
+                            relPathStr,
+                            SourceFile.ofText(FileUtils.readFileToString(toInject, StandardCharsets.UTF_8)));
                 } else {
-                    loadedResources.put(relPathStr, FileUtils.readFileToByteArray(toInject));
+                    loadedJar.putResource(relPathStr, FileUtils.readFileToByteArray(toInject));
                 }
             }
         }
     }
 
+    /** A patch file from one of the patch bundles, applied as a unit */
+    private record PatchJob(File patchFile, File patchSpec, ContextualPatch patch,
+            Utilities.InMemoryJarContextProvider contextProvider)
+            implements ParallelPatcher.Job<List<ContextualPatch.PatchReport>> {
+
+        @Override
+        public List<String> getTargets() throws PatchException, IOException {
+            final List<String> targets = new ArrayList<>();
+            for (String target : patch.getTargetPaths()) {
+                targets.add(target == null ? "" : contextProvider.strip(target));
+            }
+            return targets;
+        }
+
+        @Override
+        public List<ContextualPatch.PatchReport> apply() throws PatchException, IOException {
+            return patch.patch(false);
+        }
+    }
+
     private void patchFiles() throws IOException, PatchException {
         final Utilities.InMemoryJarContextProvider contextProvider = new Utilities.InMemoryJarContextProvider(
                 loadedSources,
                 getPathComponentsToStrip().get());
+        final List<PatchJob> jobs = new ArrayList<>();
+        for (File patchSpec : getPatches()) {
+            final FileCollection patchFiles;
+            if (patchSpec.isDirectory()) {
+                patchFiles = getObjects().fileTree().from(patchSpec);
+            } else if (patchSpec.getName().endsWith(".zip") || patchSpec.getName().endsWith(".jar")) {
+                patchFiles = getArchiveOperations().zipTree(patchSpec);
+            } else {
+                patchFiles = getObjects().fileCollection().from(patchSpec);
+            }
+            for (File patchFile : patchFiles) {
+                final ContextualPatch patch = ContextualPatch
+                        .create(FileUtils.readFileToString(patchFile, StandardCharsets.UTF_8), contextProvider);
+                patch.setAccessC14N(true);
+                patch.setMaxFuzz(getMaxFuzziness().get());
+                jobs.add(new PatchJob(patchFile, patchSpec, patch, contextProvider));
+            }
+        }
+
+        // Patches of different files are applied in parallel, the log is written in the original patch order after
+        final List<ParallelPatcher.Result<List<ContextualPatch.PatchReport>>> results = ParallelPatcher
+                .applyAll(jobs, Math.max(1, getParallelism().get()));
+
         final File logFile = new File(getTemporaryDir(), "patching.log");
         Throwable failure = null;
-        int patchCount = 0;
+        boolean jobFailed = false;
         try (final FileOutputStream fos = new FileOutputStream(logFile);
                 final BufferedOutputStream bos = new BufferedOutputStream(fos);
                 final PrintWriter logStream = new PrintWriter(bos)) {
-            for (File patchSpec : getPatches()) {
-                final FileCollection patchFiles;
-                if (patchSpec.isDirectory()) {
-                    patchFiles = getObjects().fileTree().from(patchSpec);
-                } else if (patchSpec.getName().endsWith(".zip") || patchSpec.getName().endsWith(".jar")) {
-                    patchFiles = getArchiveOperations().zipTree(patchSpec);
-                } else {
-                    patchFiles = getObjects().fileCollection().from(patchSpec);
+            for (int i = 0; i < jobs.size(); i++) {
+                final PatchJob job = jobs.get(i);
+                logStream.printf(
+                        "Applying patch %s from bundle %s%n",
+                        job.patchFile().getPath(),
+                        job.patchSpec().getPath());
+                final ParallelPatcher.Result<List<ContextualPatch.PatchReport>> result = results.get(i);
+                if (result.failure() != null) {
+                    logStream.printf("Patch failed with an exception: %s%n", result.failure());
+                    jobFailed = true;
+                    continue;
+                } else if (result.isSkipped()) {
+                    logStream.printf("Patch skipped, an earlier patch of the same files failed%n");
+                    continue;
                 }
-                for (File patchFile : patchFiles) {
-                    logStream.printf("Applying patch %s from bundle %s%n", patchFile.getPath(), patchSpec.getPath());
-                    patchCount++;
-                    final ContextualPatch patch = ContextualPatch
-                            .create(FileUtils.readFileToString(patchFile, StandardCharsets.UTF_8), contextProvider);
-                    patch.setAccessC14N(true);
-                    patch.setMaxFuzz(getMaxFuzziness().get());
-                    final List<ContextualPatch.PatchReport> reports = patch.patch(false);
-                    for (ContextualPatch.PatchReport report : reports) {
-                        if (!report.getStatus().isSuccess()) {
-                            logStream.printf(
-                                    "Patch %s failed: %s%n",
-                                    contextProvider.strip(report.getTarget()),
-                                    report.getFailure().getMessage());
-                            failure = report.getFailure();
-                            for (ContextualPatch.HunkReport hunk : report.getHunks()) {
-                                if (hunk.getStatus() == ContextualPatch.PatchStatus.Fuzzed) {
-                                    logStream.printf(" - Hunk %d fuzzed %d%n", hunk.getHunkID(), hunk.getFuzz());
-                                } else if (!hunk.getStatus().isSuccess() && getLogger().isErrorEnabled()) {
-                                    logStream.printf(
-                                            " - Hunk %d failed (%d+%d -> %d+%d): %n%s%n",
-                                            hunk.getHunkID(),
-                                            hunk.hunk.baseStart,
-                                            hunk.hunk.baseCount,
-                                            hunk.hunk.modifiedStart,
-                                            hunk.hunk.modifiedCount,
-                                            StringUtils.join(hunk.hunk.lines, "\n"));
-                                }
+                for (ContextualPatch.PatchReport report : result.value()) {
+                    if (!report.getStatus().isSuccess()) {
+                        logStream.printf(
+                                "Patch %s failed: %s%n",
+                                contextProvider.strip(report.getTarget()),
+                                report.getFailure().getMessage());
+                        failure = report.getFailure();
+                        for (ContextualPatch.HunkReport hunk : report.getHunks()) {
+                            if (hunk.getStatus() == ContextualPatch.PatchStatus.Fuzzed) {
+                                logStream.printf(" - Hunk %d fuzzed %d%n", hunk.getHunkID(), hunk.getFuzz());
+                            } else if (!hunk.getStatus().isSuccess() && getLogger().isErrorEnabled()) {
+                                logStream.printf(
+                                        " - Hunk %d failed (%d+%d -> %d+%d): %n%s%n",
+                                        hunk.getHunkID(),
+                                        hunk.hunk.baseStart,
+                                        hunk.hunk.baseCount,
+                                        hunk.hunk.modifiedStart,
+                                        hunk.hunk.modifiedCount,
+                                        StringUtils.join(hunk.hunk.lines, "\n"));
                             }
-                        } else if (report.getStatus() == ContextualPatch.PatchStatus.Fuzzed) {
-                            logStream.printf("Patch fuzzed: %s%n", contextProvider.strip(report.getTarget()));
-                            for (ContextualPatch.HunkReport hunk : report.getHunks()) {
-                                if (hunk.getStatus() == ContextualPatch.PatchStatus.Fuzzed) {
-                                    logStream.printf(" - Hunk %d fuzzed %d%n", hunk.getHunkID(), hunk.getFuzz());
-                                }
+                        }
+                    } else if (report.getStatus() == ContextualPatch.PatchStatus.Fuzzed) {
+                        logStream.printf("Patch fuzzed: %s%n", contextProvider.strip(report.getTarget()));
+                        for (ContextualPatch.HunkReport hunk : report.getHunks()) {
+                            if (hunk.getStatus() == ContextualPatch.PatchStatus.Fuzzed) {
+                                logStream.printf(" - Hunk %d fuzzed %d%n", hunk.getHunkID(), hunk.getFuzz());
                             }
                         }
                     }
                 }
             }
         }
-        if (failure != null) {
+        if (failure != null || jobFailed) {
             getLogger().error("Patching errors occured, check the logfile at {} for details", logFile.getPath());
+            ParallelPatcher.rethrowFirstFailure(results);
             throw new RuntimeException(failure);
         }
-        getLogger().lifecycle("Applied {} patches", patchCount);
+        getLogger().lifecycle("Applied {} patches", jobs.size());
     }
 }
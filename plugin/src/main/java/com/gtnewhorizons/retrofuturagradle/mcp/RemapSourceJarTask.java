@@ -5,15 +5,13 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -25,6 +23,7 @@ import org.gradle.api.tasks.CacheableTask;
 import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.InputFile;
 import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.Optional;
 import org.gradle.api.tasks.PathSensitive;
 import org.gradle.api.tasks.PathSensitivity;
@@ -51,17 +50,18 @@ import com.github.javaparser.symbolsolver.JavaSymbolSolver;
 import com.github.javaparser.symbolsolver.resolution.typesolvers.CombinedTypeSolver;
 import com.github.javaparser.symbolsolver.resolution.typesolvers.JarTypeSolver;
 import com.github.javaparser.symbolsolver.resolution.typesolvers.ReflectionTypeSolver;
-import com.google.common.base.Strings;
-import com.gtnewhorizons.retrofuturagradle.fgpatchers.JavadocAdder;
 import com.gtnewhorizons.retrofuturagradle.util.HashUtils;
 import com.gtnewhorizons.retrofuturagradle.util.IJarTransformTask;
+import com.gtnewhorizons.retrofuturagradle.util.JarCompression;
 import com.gtnewhorizons.retrofuturagradle.util.MessageDigestConsumer;
+import com.gtnewhorizons.retrofuturagradle.util.SourceFile;
+import com.gtnewhorizons.retrofuturagradle.util.SourceJar;
 import com.gtnewhorizons.retrofuturagradle.util.Utilities;
 
 @CacheableTask
 public abstract class RemapSourceJarTask extends DefaultTask implements IJarTransformTask {
 
-    private static final boolean DEBUG_PRINT_ALL_GENERICS = false;
+    static final boolean DEBUG_PRINT_ALL_GENERICS = false;
 
     @InputFile
     @PathSensitive(PathSensitivity.NONE)
@@ -94,6 +94,17 @@ public abstract class RemapSourceJarTask extends DefaultTask implements IJarTran
     @Input
     public abstract Property<Boolean> getAddDummyJavadocs();
 
+    @Internal
+    public abstract Property<RfgCacheService> getCacheService();
+
+    /** The maximum number of threads used to remap source files, the output is the same for any value */
+    @Internal
+    public abstract Property<Integer> getParallelism();
+
+    /** If enabled, the parallel remapping result is checked against a sequential run, for debugging */
+    @Internal
+    public abstract Property<Boolean> getVerifyParallelRemap();
+
     @Override
     public MessageDigestConsumer hashInputs() {
         return HashUtils.addPropertyToHash(getFieldCsv()).andThen(HashUtils.addPropertyToHash(getMethodCsv()))
@@ -108,47 +119,40 @@ public abstract class RemapSourceJarTask extends DefaultTask implements IJarTran
 
     public RemapSourceJarTask() {
         getAddDummyJavadocs().convention(false);
+        getParallelism().convention(Runtime.getRuntime().availableProcessors());
+        getVerifyParallelRemap().convention(false);
         if (DEBUG_PRINT_ALL_GENERICS) {
             notCompatibleWithConfigurationCache("DEBUG_PRINT_ALL_GENERICS is enabled");
         }
     }
 
-    private final Map<String, byte[]> loadedResources = new HashMap<>();
-    private final Map<String, String> loadedSources = new HashMap<>();
+    private Map<String, SourceFile> loadedSources;
 
     private Utilities.MappingsSet mappings = new Utilities.MappingsSet();
-
-    // Matches SRG-style names (func_123_g/field_1_p/p_123_1_)
-    private static final Pattern SRG_FINDER = Pattern
-            .compile("(func_\\d+_[a-zA-Z_]+|field_\\d+_[a-zA-Z_]+|p_\\w+_\\d+_)([^\\w$]|$)");
-    private static final Pattern METHOD_DEFINITION = Pattern
-            .compile("^((?: {4})+|\\t+)(?:[\\w$.\\[\\]]+ )+([0-9a-zA-Z_]+)\\(");
-
-    private static final Pattern CONSTRUCTOR_DEFINITION = Pattern
-            .compile("^((?: {4})+|\\t+)(?:[\\w$.\\[\\]]+ )*([a-zA-Z0-9_]+)\\(");
-    private static final Pattern FIELD_DEFINITION = Pattern
-            .compile("^((?: {4})+|\\t+)(?:[\\w$.\\[\\]]+ )+(field_[0-9]+_[a-zA-Z_]+) *(?:=|;)");
+    private SourceRemapper remapper;
 
     @TaskAction
     public void remapSources() throws IOException {
-        loadedResources.clear();
-        loadedSources.clear();
-        Utilities.loadMemoryJar(getInputJar().get().getAsFile(), loadedResources, loadedSources);
+        try (final SourceJar jar = SourceJar.read(getInputJar().get().getAsFile())) {
+            loadedSources = jar.getSources();
+            remapLoadedSources();
+            jar.write(getOutputJar().get().getAsFile(), getOutputCompression().getOrElse(JarCompression.DEFAULT));
+        } finally {
+            loadedSources = null;
+        }
+    }
 
-        mappings = Utilities.loadMappingCsvs(
+    private void remapLoadedSources() throws IOException {
+
+        // The debug generics printer needs the source without any generics applied
+        mappings = getCacheService().get().getMappings(
                 getMethodCsv().get().getAsFile(),
                 getFieldCsv().get().getAsFile(),
                 getParamCsv().getAsFile().getOrNull(),
                 getExtraParamsCsvs().getFiles(),
-                getGenericFieldsCsvName().getOrNull());
-
-        final Matcher mSrg = SRG_FINDER.matcher("");
-        final Matcher mMethod = METHOD_DEFINITION.matcher("");
-        final Matcher mField = FIELD_DEFINITION.matcher("");
-        final Matcher mCtor = CONSTRUCTOR_DEFINITION.matcher("");
+                DEBUG_PRINT_ALL_GENERICS ? null : getGenericFieldsCsvName().getOrNull());
 
-        final boolean addJavadocs = getAddJavadocs().get();
-        final boolean addDummyJavadocs = getAddDummyJavadocs().get();
+        remapper = new SourceRemapper(mappings, getAddJavadocs().get(), getAddDummyJavadocs().get());
 
         JavaParser javaParser = null;
         PrintWriter genLog = null;
@@ -179,262 +183,113 @@ public abstract class RemapSourceJarTask extends DefaultTask implements IJarTran
             genLog.println("zipEntry,className,srg,mcp,param,type,genericSuffix");
         }
 
+        final LongAdder genericsApplied = new LongAdder();
         if (DEBUG_PRINT_ALL_GENERICS) {
-            mappings.genericMappings.clear();
-            mappings.genericPatches.clear();
-        }
-
-        final Set<String> paramsApplied = new HashSet<>(16);
-        for (Map.Entry<String, String> srcEntry : loadedSources.entrySet()) {
-            final String originalSrc = srcEntry.getValue();
-            final String[] originalLines = originalSrc.split("(\r\n)|\n|\r");
-            final ArrayList<String> newLines = new ArrayList<>(originalLines.length);
-
-            for (final String originalLine : originalLines) {
-                String newLine = originalLine;
-                mSrg.reset(originalLine);
-                mMethod.reset(originalLine);
-                mField.reset(originalLine);
-                mCtor.reset(originalLine);
-                paramsApplied.clear();
-                if (!newLine.trim().startsWith("return ")) {
-                    if (mMethod.find() && !Character.isUpperCase(mMethod.group(2).charAt(0))) {
-                        final String methodName = mMethod.group(2);
-                        final Utilities.Mapping methodMapping = mappings.methodMappings.get(methodName);
-                        if ((addJavadocs || addDummyJavadocs) && methodMapping != null
-                                && !methodMapping.javadoc().isEmpty()) {
-                            addBeforeAnnotations(
-                                    newLines,
-                                    addDummyJavadocs ? (mMethod.group(1) + "// JAVADOC METHOD $$ " + methodName)
-                                            : JavadocAdder
-                                                    .buildJavadoc(mMethod.group(1), methodMapping.javadoc(), true));
-                        }
-                        final List<Utilities.GenericMapping> genMaps = mappings.genericMappings.get(methodName);
-                        for (Utilities.GenericMapping genMap : genMaps) {
-                            if (!genMap.zipEntry.equals(srcEntry.getKey())) {
-                                continue;
-                            }
-                            if (paramsApplied.contains(genMap.param)) {
-                                continue;
-                            }
-                            final String[] typeComps = genMap.type.split("\\.");
-                            if (!newLine.contains(typeComps[typeComps.length - 1])) {
-                                continue;
-                            }
-                            genMap.uses++;
-                            paramsApplied.add(genMap.param);
-                            try {
-                                if (genMap.param.equals("@return")) {
-                                    final int parenIdx = newLine.indexOf('(');
-                                    final int nameIdx = newLine.substring(0, parenIdx).lastIndexOf(' ');
-                                    newLine = newLine.substring(0, nameIdx) + genMap.suffix
-                                            + newLine.substring(nameIdx);
-                                } else {
-                                    final int whichParam = Integer.parseInt(genMap.param);
-                                    final int paramsOffset = newLine.indexOf('(');
-                                    int paramStart = (whichParam == 0) ? (paramsOffset + 1)
-                                            : (StringUtils.ordinalIndexOf(newLine, ",", whichParam) + 1);
-                                    while (Character.isWhitespace(newLine.charAt(paramStart))) {
-                                        paramStart++;
-                                    }
-                                    int paramSplit = newLine.indexOf(' ', paramStart);
-                                    while (newLine.substring(0, paramSplit).trim().endsWith("final")) {
-                                        paramSplit = newLine.indexOf(' ', paramSplit + 1);
-                                    }
-                                    if (paramSplit == -1) {
-                                        throw new IllegalStateException(
-                                                "Could not find param " + whichParam
-                                                        + " in line: |"
-                                                        + newLine
-                                                        + "| file: "
-                                                        + srcEntry.getKey()
-                                                        + ":"
-                                                        + (newLines.size() + 1));
-                                    }
-                                    newLine = newLine.substring(0, paramSplit) + genMap.suffix
-                                            + newLine.substring(paramSplit);
-                                }
-                            } catch (Exception e) {
-                                throw new IllegalStateException(
-                                        "Error applying generic mapping " + genMap
-                                                + " to line |"
-                                                + newLine
-                                                + "| file: "
-                                                + srcEntry.getKey()
-                                                + ":"
-                                                + (newLines.size() + 1));
-                            }
-                        }
-                    } else if ((addJavadocs || addDummyJavadocs) && originalLine.trim().startsWith("// JAVADOC ")) {
-                        if (mSrg.find()) {
-                            final String indent = originalLine.substring(0, originalLine.indexOf("// JAVADOC"));
-                            final String entityName = mSrg.group();
-                            if (entityName.startsWith("func_")) {
-                                final Utilities.Mapping methodMapping = mappings.methodMappings.get(entityName);
-                                if (methodMapping != null && !Strings.isNullOrEmpty(methodMapping.javadoc())) {
-                                    newLine = JavadocAdder.buildJavadoc(indent, methodMapping.javadoc(), true);
-                                }
-                            } else if (entityName.startsWith("field_")) {
-                                final Utilities.Mapping fieldMapping = mappings.fieldMappings.get(entityName);
-                                if (fieldMapping != null && !Strings.isNullOrEmpty(fieldMapping.javadoc())) {
-                                    newLine = JavadocAdder.buildJavadoc(indent, fieldMapping.javadoc(), true);
-                                }
-                            }
-
-                            if (newLine.endsWith(System.lineSeparator())) {
-                                newLine = newLine.substring(0, newLine.length() - System.lineSeparator().length());
-                            }
-                        }
-                    } else if (mField.find()) {
-                        final String fieldName = mField.group(2);
-                        final Utilities.Mapping fieldMapping = mappings.fieldMappings.get(fieldName);
-                        if ((addJavadocs || addDummyJavadocs) && fieldMapping != null
-                                && !fieldMapping.javadoc().isEmpty()) {
-                            addBeforeAnnotations(
-                                    newLines,
-                                    addDummyJavadocs ? (mField.group(1) + "// JAVADOC FIELD $$ " + fieldName)
-                                            : JavadocAdder
-                                                    .buildJavadoc(mField.group(1), fieldMapping.javadoc(), false));
-                        }
-                        final List<Utilities.GenericMapping> genMaps = mappings.genericMappings.get(fieldName);
-                        for (Utilities.GenericMapping genMap : genMaps) {
-                            if (!genMap.zipEntry.equals(srcEntry.getKey())) {
-                                continue;
-                            }
-                            genMap.uses++;
-                            final int splitIdx = newLine.indexOf(" field_");
-                            newLine = newLine.substring(0, splitIdx) + genMap.suffix + newLine.substring(splitIdx);
-                        }
-                    } else if (mCtor.find()) {
-                        final String key = srcEntry.getKey() + "@init:" + extractCtorSig(newLine, newLines.size() + 1);
-                        final List<Utilities.GenericMapping> genMaps = mappings.genericMappings.get(key);
-                        for (Utilities.GenericMapping genMap : genMaps) {
-                            if (!genMap.zipEntry.equals(srcEntry.getKey())) {
-                                continue;
-                            }
-                            if (paramsApplied.contains(genMap.param)) {
-                                continue;
-                            }
-                            final String[] typeComps = genMap.type.split("\\.");
-                            if (!newLine.contains(typeComps[typeComps.length - 1])) {
-                                continue;
-                            }
-                            genMap.uses++;
-                            paramsApplied.add(genMap.param);
-                            final int whichParam = Integer.parseInt(genMap.param);
-                            final int paramsOffset = newLine.indexOf('(');
-                            int paramStart = (whichParam == 0) ? (paramsOffset + 1)
-                                    : (StringUtils.ordinalIndexOf(newLine, ",", whichParam) + 1);
-                            while (Character.isWhitespace(newLine.charAt(paramStart))) {
-                                paramStart++;
-                            }
-                            int paramSplit = newLine.indexOf(' ', paramStart);
-                            while (newLine.substring(0, paramSplit).trim().endsWith("final")) {
-                                paramSplit = newLine.indexOf(' ', paramSplit + 1);
-                            }
-                            if (paramSplit == -1) {
-                                throw new IllegalStateException(
-                                        "Could not find param " + whichParam
-                                                + " in line: |"
-                                                + newLine
-                                                + "| file: "
-                                                + srcEntry.getKey()
-                                                + ":"
-                                                + (newLines.size() + 1));
-                            }
-                            newLine = newLine.substring(0, paramSplit) + genMap.suffix + newLine.substring(paramSplit);
-                        }
-                    }
-                }
-                if (!mappings.genericMappings.isEmpty()) {
-                    // Extra patches
-                    newLine = newLine.replace("(Object)null", "null");
-                }
-                if (!DEBUG_PRINT_ALL_GENERICS) {
-                    final StringBuilder mappedLine = new StringBuilder();
-                    mSrg.reset(newLine);
-                    while (mSrg.find()) {
-                        final String found = mSrg.group(1);
-                        final String mapped;
-                        if (found.startsWith("p_")) {
-                            mapped = mappings.paramMappings.getOrDefault(found, found);
-                        } else if (found.startsWith("func_")) {
-                            final Utilities.Mapping mapping = mappings.methodMappings.get(found);
-                            mapped = (mapping != null) ? mapping.name() : found;
-                        } else if (found.startsWith("field_")) {
-                            final Utilities.Mapping mapping = mappings.fieldMappings.get(found);
-                            mapped = (mapping != null) ? mapping.name() : found;
-                        } else {
-                            mapped = found;
-                        }
-                        mSrg.appendReplacement(mappedLine, mapped);
-                        mappedLine.append(mSrg.group(2));
-                    }
-                    mSrg.appendTail(mappedLine);
-                    newLine = mappedLine.toString();
-
-                    final List<Utilities.GenericPatch> patches = mappings.genericPatches.get(srcEntry.getKey());
-                    for (Utilities.GenericPatch patch : patches) {
-                        if (newLine.contains(patch.containsFilter())) {
-                            newLine = newLine.replace(patch.toReplace(), patch.replaceWith());
-                        }
-                    }
-                }
-                newLines.add(newLine);
-            }
-
-            srcEntry.setValue(StringUtils.join(newLines, System.lineSeparator()));
-
-            if (DEBUG_PRINT_ALL_GENERICS) {
+            for (Map.Entry<String, SourceFile> srcEntry : loadedSources.entrySet()) {
+                final List<String> newLines = remapper.remap(srcEntry.getKey(), srcEntry.getValue(), genericsApplied);
+                srcEntry.setValue(SourceFile.ofLines(newLines));
                 if (!srcEntry.getKey().startsWith("net/minecraft") && !srcEntry.getKey().startsWith("/net/minecraft")) {
                     continue;
                 }
 
-                ParseResult<CompilationUnit> result = javaParser.parse(srcEntry.getValue());
+                ParseResult<CompilationUnit> result = javaParser.parse(srcEntry.getValue().getText());
                 CompilationUnit cu = result.getResult().orElse(null);
                 if (cu == null) {
                     getLogger().error("{}: {}", srcEntry.getKey(), result.toString());
                 }
-                printRawGenericFile(genLog, srcEntry, newLines, cu);
+                printRawGenericFile(genLog, srcEntry.getKey(), newLines, cu);
+            }
+        } else {
+            final long startTime = System.currentTimeMillis();
+            final int parallelism = Math.max(1, getParallelism().get());
+            final boolean verify = getVerifyParallelRemap().get() && parallelism > 1;
+            // Without verification the sources are replaced in place, so only one version of each is kept in memory
+            final Map<String, SourceFile> remapped = remapSources(
+                    parallelism,
+                    genericsApplied,
+                    verify ? new ConcurrentHashMap<>(loadedSources.size()) : loadedSources);
+            getLogger().lifecycle(
+                    "  Remapping {} sources took {} ms ({} threads)",
+                    remapped.size(),
+                    System.currentTimeMillis() - startTime,
+                    parallelism);
+            if (verify) {
+                verifyAgainstSequential(remapped, genericsApplied.sum());
+                loadedSources.putAll(remapped);
             }
         }
 
-        int totalGenericsApplied = 0;
-        for (Map.Entry<String, Utilities.GenericMapping> entry : mappings.genericMappings.entries()) {
-            totalGenericsApplied += entry.getValue().uses;
-        }
-        getLogger().lifecycle("Applied {} missing generics", totalGenericsApplied);
+        getLogger().lifecycle("Applied {} missing generics", genericsApplied.sum());
 
         if (genLog != null) {
             genLog.close();
         }
-
-        Utilities.saveMemoryJar(loadedResources, loadedSources, getOutputJar().get().getAsFile(), false);
     }
 
-    private static String extractCtorSig(String line, int lineNo) {
+    /**
+     * Remaps all loaded sources, each file is independent of the others so they can be processed in any order.
+     *
+     * @param remapped The map to put the remapped sources into, may be the map of loaded sources itself
+     * @return Zip entry name to remapped source
+     */
+    private Map<String, SourceFile> remapSources(int parallelism, LongAdder genericsApplied,
+            Map<String, SourceFile> remapped) {
+        final List<String> entries = new ArrayList<>(loadedSources.keySet());
+        entries.sort(null);
+        final Consumer<String> remapEntry = zipEntry -> remapped.put(
+                zipEntry,
+                SourceFile.ofLines(remapper.remap(zipEntry, loadedSources.get(zipEntry), genericsApplied)));
+        if (parallelism == 1) {
+            entries.forEach(remapEntry);
+            return remapped;
+        }
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
         try {
-            final int lparen = line.indexOf('(');
-            final int rparen = line.indexOf(')');
-            final String preParen = line.substring(0, lparen).trim();
-            final int ppNameIdx = preParen.lastIndexOf(' ');
-            final String cname = preParen.substring(ppNameIdx + 1);
-            final String argStr = line.substring(lparen + 1, rparen);
-            final String[] argStrs = argStr.split(",");
-            return cname + ":"
-                    + Arrays.stream(argStrs).map(String::trim).map(arg -> arg.substring(0, arg.lastIndexOf(' ')).trim())
-                            .collect(Collectors.joining(","));
-        } catch (Exception e) {
-            return "???" + lineNo;
+            pool.submit(() -> entries.parallelStream().forEach(remapEntry)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdownNow();
         }
+        return remapped;
+    }
+
+    /** Re-runs the remapping on a single thread and fails the task if the parallel result is any different */
+    private void verifyAgainstSequential(Map<String, SourceFile> parallelResult, long parallelGenericsApplied) {
+        final LongAdder sequentialGenericsApplied = new LongAdder();
+        final Map<String, SourceFile> sequentialResult = remapSources(
+                1,
+                sequentialGenericsApplied,
+                new ConcurrentHashMap<>(loadedSources.size()));
+        final List<String> mismatches = new ArrayList<>();
+        for (Map.Entry<String, SourceFile> entry : sequentialResult.entrySet()) {
+            final SourceFile parallelSource = parallelResult.get(entry.getKey());
+            if (parallelSource == null || !entry.getValue().getLines().equals(parallelSource.getLines())) {
+                mismatches.add(entry.getKey());
+            }
+        }
+        if (!mismatches.isEmpty() || sequentialResult.size() != parallelResult.size()
+                || sequentialGenericsApplied.sum() != parallelGenericsApplied) {
+            mismatches.sort(null);
+            throw new IllegalStateException(
+                    "Parallel source remapping differs from the sequential result in " + mismatches.size()
+                            + " files: "
+                            + StringUtils.join(mismatches.subList(0, Math.min(10, mismatches.size())), ", "));
+        }
+        getLogger().lifecycle("  Parallel remapping verified against the sequential result");
     }
 
     private static String extractCtorSig(ConstructorDeclaration ctor, int lineNo) {
-        return extractCtorSig(ctor.getDeclarationAsString(true, false, true), lineNo);
+        return SourceRemapper.extractCtorSig(ctor.getDeclarationAsString(true, false, true), lineNo);
     }
 
-    private void printRawGenericFile(PrintWriter genLog, Map.Entry<String, String> srcEntry, List<String> srcLines,
-            CompilationUnit cu) {
+    private void printRawGenericFile(PrintWriter genLog, String zipEntry, List<String> srcLines, CompilationUnit cu) {
         cu.accept(new ModifierVisitor<Void>() {
 
             @Override
@@ -517,7 +372,7 @@ public abstract class RemapSourceJarTask extends DefaultTask implements IJarTran
                     }
                     genLog.println(
                             StringUtils.join(
-                                    new String[] { srcEntry.getKey(), declaringType.getQualifiedName(),
+                                    new String[] { zipEntry, declaringType.getQualifiedName(),
                                             '"' + srgName + '"', '"' + mcpName + '"', paramNr,
                                             refType.getQualifiedName(), "" },
                                     ","));
@@ -525,12 +380,4 @@ public abstract class RemapSourceJarTask extends DefaultTask implements IJarTran
             }
         }, null);
     }
-
-    private static void addBeforeAnnotations(ArrayList<String> lineBuffer, String text) {
-        int pos = lineBuffer.size() - 1;
-        while (pos > 0 && lineBuffer.get(pos).trim().startsWith("@")) {
-            pos--;
-        }
-        lineBuffer.add(pos + 1, text);
-    }
 }
@@ -22,6 +22,7 @@ import org.gradle.api.tasks.Classpath;
 import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.InputFile;
 import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.PathSensitive;
 import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.TaskProvider;
@@ -29,6 +30,7 @@ import org.gradle.jvm.tasks.Jar;
 
 import com.gtnewhorizons.retrofuturagradle.Constants;
 import com.gtnewhorizons.retrofuturagradle.fgpatchers.ReobfExceptor;
+import com.gtnewhorizons.retrofuturagradle.util.FileMaterializer;
 import com.gtnewhorizons.retrofuturagradle.util.Utilities;
 
 @CacheableTask
@@ -72,6 +74,10 @@ public abstract class ReobfuscatedJar extends Jar {
     @Classpath
     public abstract ConfigurableFileCollection getReferenceClasspath();
 
+    /** Optional, the mapping csvs are parsed by the task itself if not set */
+    @Internal
+    public abstract Property<RfgCacheService> getCacheService();
+
     /**
      * Sets the inputJar property to the output of the given Jar task, and copies all jar attributes (base name,
      * appendix, version, extension) except the classifier as default values for the output jar properties.
@@ -92,8 +98,9 @@ public abstract class ReobfuscatedJar extends Jar {
             final File tmpObfedJar = new File(tmpDir, "working.jar");
             final File recompJar = new File(tmpDir, "recomp.jar");
             final File tmpInjectedJar = new File(tmpDir, "inject.jar");
-            FileUtils.copyFile(getInputJar().get().getAsFile(), tmpObfedJar);
-            FileUtils.copyFile(getRecompMcJar().get().getAsFile(), recompJar);
+            // Both jars are only read from
+            FileMaterializer.materialize(getInputJar().get().getAsFile(), tmpObfedJar, true);
+            FileMaterializer.materialize(getRecompMcJar().get().getAsFile(), recompJar, true);
 
             final File srg = File.createTempFile("reobf-default", ".srg", tmpDir);
             final File extraSrg = File.createTempFile("reobf-extra", ".srg", tmpDir);
@@ -103,6 +110,10 @@ public abstract class ReobfuscatedJar extends Jar {
             exc.excConfig = getExceptorCfg().get().getAsFile();
             exc.fieldCSV = getFieldCsv().get().getAsFile();
             exc.methodCSV = getMethodCsv().get().getAsFile();
+            if (getCacheService().isPresent()) {
+                exc.csvData = getCacheService().get()
+                        .getCombinedMappings(exc.methodCSV, exc.fieldCSV, null, null);
+            }
             exc.doFirstThings();
 
             exc.buildSrg(getSrg().get().getAsFile(), srg);
@@ -134,7 +145,8 @@ public abstract class ReobfuscatedJar extends Jar {
             }
 
             final File outputJar = super.getArchiveFile().get().getAsFile();
-            FileUtils.copyFile(tmpInjectedJar, outputJar);
+            // The temporary jar gets deleted below, so a hardlink acts as a move
+            FileMaterializer.materialize(tmpInjectedJar, outputJar, !Constants.DEBUG_NO_TMP_CLEANUP);
 
             if (!Constants.DEBUG_NO_TMP_CLEANUP) {
                 FileUtils.deleteQuietly(tmpInjectedJar);
@@ -2,43 +2,87 @@ package com.gtnewhorizons.retrofuturagradle.mcp;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.net.URI;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import javax.inject.Inject;
 
 import org.apache.commons.compress.archivers.ArchiveStreamFactory;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.gradle.api.file.DirectoryProperty;
 import org.gradle.api.invocation.Gradle;
 import org.gradle.api.logging.Logger;
 import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.Property;
 import org.gradle.api.provider.Provider;
 import org.gradle.api.services.BuildService;
 import org.gradle.api.services.BuildServiceParameters;
 import org.jetbrains.annotations.Nullable;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.gtnewhorizons.retrofuturagradle.BuildConfig;
 import com.gtnewhorizons.retrofuturagradle.Constants;
+import com.gtnewhorizons.retrofuturagradle.util.CompiledMappings;
+import com.gtnewhorizons.retrofuturagradle.util.FileMaterializer;
+import com.gtnewhorizons.retrofuturagradle.util.HashUtils;
+import com.gtnewhorizons.retrofuturagradle.util.MessageDigestConsumer;
 import com.gtnewhorizons.retrofuturagradle.util.Utilities;
 
 /**
  * A shared build service that can fetch and provide cached forge, mapping, etc. data for various MC versions.
  */
-public abstract class RfgCacheService implements BuildService<RfgCacheService.Parameters>, Serializable {
+public abstract class RfgCacheService
+        implements BuildService<RfgCacheService.Parameters>, Serializable, AutoCloseable {
 
     public interface Parameters extends BuildServiceParameters {
 
         DirectoryProperty getGradleCacheDirectory();
+
+        /**
+         * Size budget of the shared artifact store in bytes, least recently used artifacts get evicted once it's
+         * exceeded.
+         */
+        Property<Long> getArtifactStoreMaxSize();
+
+        /**
+         * Whether new artifacts are stored compressed, most of them are uncompressed intermediate jars.
+         */
+        Property<Boolean> getCompressArtifacts();
     }
 
     /**
@@ -46,16 +90,106 @@ public abstract class RfgCacheService implements BuildService<RfgCacheService.Pa
      */
     public static final String NAME = "rfgCacheService";
 
+    /**
+     * Project property (in MiB) overriding the default size budget of the artifact store, e.g.
+     * {@code -Prfg.artifactCacheMaxSizeMb=4096}
+     */
+    public static final String ARTIFACT_STORE_MAX_SIZE_PROPERTY = "rfg.artifactCacheMaxSizeMb";
+    public static final long DEFAULT_ARTIFACT_STORE_MAX_SIZE = 2048L * 1024L * 1024L;
+
+    /**
+     * Project property enabling compression of the artifact store, e.g. {@code -Prfg.artifactCacheCompression=true},
+     * trades around a second of CPU time per stored jar for a cache about 4 times smaller.
+     */
+    public static final String ARTIFACT_STORE_COMPRESSION_PROPERTY = "rfg.artifactCacheCompression";
+
+    /** Persistent index of file content hashes used for up-to-date checks, see {@link HashUtils} */
+    private static final String FILE_HASH_INDEX_FILE = "file-hashes.txt";
+
     private transient FileChannel cacheLockFile = null;
 
     /**
-     * Acquires a lock on the RFG cache directory.
+     * Orders the threads of this build before they take the file lock, which can only be held once per JVM: a second
+     * thread asking for it would otherwise spin on {@link OverlappingFileLockException}s.
+     */
+    private final transient ReentrantReadWriteLock threadLock = new ReentrantReadWriteLock();
+    /** The file lock shared by all threads holding the read lock, guarded by this */
+    private transient FileLock sharedFileLock = null;
+    private transient int sharedFileLockHolders = 0;
+
+    /** A held cache lock, released on close */
+    public final class CacheLock implements AutoCloseable {
+
+        private final boolean shared;
+        private final @Nullable FileLock exclusiveFileLock;
+        private boolean released = false;
+
+        private CacheLock(boolean shared, @Nullable FileLock exclusiveFileLock) {
+            this.shared = shared;
+            this.exclusiveFileLock = exclusiveFileLock;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (released) {
+                return;
+            }
+            released = true;
+            if (shared) {
+                try {
+                    synchronized (RfgCacheService.this) {
+                        if (--sharedFileLockHolders == 0) {
+                            final FileLock lock = sharedFileLock;
+                            sharedFileLock = null;
+                            lock.release();
+                        }
+                    }
+                } finally {
+                    threadLock.readLock().unlock();
+                }
+            } else {
+                try {
+                    exclusiveFileLock.release();
+                } finally {
+                    threadLock.writeLock().unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Acquires a lock on the RFG cache directory, both against other threads of this build and other processes.
      * 
      * @param shared Whether the lock can be shared with other shared locks (for reading only), if false it must be
      *               exclusive (for writing).
      * @return The lock acquired
      */
-    public FileLock lockCache(boolean shared) {
+    public CacheLock lockCache(boolean shared) {
+        if (shared) {
+            threadLock.readLock().lock();
+            try {
+                synchronized (this) {
+                    if (sharedFileLockHolders == 0) {
+                        sharedFileLock = lockCacheFile(true);
+                    }
+                    sharedFileLockHolders++;
+                }
+            } catch (RuntimeException e) {
+                threadLock.readLock().unlock();
+                throw e;
+            }
+            return new CacheLock(true, null);
+        }
+        threadLock.writeLock().lock();
+        try {
+            return new CacheLock(false, lockCacheFile(false));
+        } catch (RuntimeException e) {
+            threadLock.writeLock().unlock();
+            throw e;
+        }
+    }
+
+    private FileLock lockCacheFile(boolean shared) {
         try {
             final FileChannel channel;
             Path lockFile = null;
@@ -81,6 +215,7 @@ public abstract class RfgCacheService implements BuildService<RfgCacheService.Pa
                 try {
                     lock = channel.lock(0, Long.MAX_VALUE, shared);
                 } catch (OverlappingFileLockException ofle) {
+                    // Only happens if another copy of the plugin in the same JVM holds the lock
                     waitCount++;
                     if (waitCount == 5) {
                         LOGGER.warn("Waiting for the RFG cache lock at {} to get released...", lockFile);
@@ -104,8 +239,18 @@ public abstract class RfgCacheService implements BuildService<RfgCacheService.Pa
     }
 
     public static void register(Gradle gradle) {
+        HashUtils.useFileHashIndex(Utilities.getCacheRoot(gradle).toPath().resolve(FILE_HASH_INDEX_FILE));
+        final String maxSizeOverride = gradle.getStartParameter().getProjectProperties()
+                .get(ARTIFACT_STORE_MAX_SIZE_PROPERTY);
+        final String compressArtifacts = gradle.getStartParameter().getProjectProperties()
+                .get(ARTIFACT_STORE_COMPRESSION_PROPERTY);
         gradle.getSharedServices().registerIfAbsent(NAME, RfgCacheService.class, spec -> {
             spec.getParameters().getGradleCacheDirectory().set(Utilities.getRawCacheRoot(gradle));
+            spec.getParameters().getArtifactStoreMaxSize().set(
+                    maxSizeOverride == null ? DEFAULT_ARTIFACT_STORE_MAX_SIZE
+                            : Long.parseLong(maxSizeOverride.trim()) * 1024L * 1024L);
+            spec.getParameters().getCompressArtifacts()
+                    .set(compressArtifacts != null && Boolean.parseBoolean(compressArtifacts.trim()));
         });
     }
 
@@ -135,13 +280,13 @@ public abstract class RfgCacheService implements BuildService<RfgCacheService.Pa
     private Path accessDownloadableZipData(final Path targetPath, final List<URI> downloadUris,
             @Nullable final Consumer<Path> prepareFolder) {
         try {
-            try (final FileLock ignored = lockCache(true)) {
+            try (final CacheLock ignored = lockCache(true)) {
                 if (Files.isDirectory(targetPath)) {
                     return targetPath;
                 }
             }
             // Path doesn't exist, upgrade to a write lock and fetch it
-            try (final FileLock ignored = lockCache(false)) {
+            try (final CacheLock ignored = lockCache(false)) {
                 // Could have been created in between calls
                 if (Files.isDirectory(targetPath)) {
                     return targetPath;
@@ -246,4 +391,447 @@ public abstract class RfgCacheService implements BuildService<RfgCacheService.Pa
                 .resolve("mcp_" + channel).resolve(mcpVersion);
         return accessDownloadableZipData(mcpRoot, urls, null);
     }
+
+    // Shared content-addressed store for expensive pipeline artifacts (decompiled jars etc.)
+
+    private static final String ARTIFACT_STORE_DIRECTORY = "artifacts";
+    private static final String ARTIFACT_INDEX_FILE = "index.txt";
+    private static final String ARTIFACT_TEMP_SUFFIX = ".tmp";
+    private static final String ARTIFACT_COMPRESSED_SUFFIX = ".z";
+    /** The unbounded cache directory used by older RFG versions for decompiled jars */
+    private static final String LEGACY_FERNFLOWER_CACHE_DIRECTORY = "fernflower-cache";
+
+    private final AtomicLong artifactHits = new AtomicLong();
+    private final AtomicLong artifactMisses = new AtomicLong();
+    private final AtomicLong artifactEvictions = new AtomicLong();
+    private transient volatile boolean legacyCacheChecked = false;
+
+    private record ArtifactIndexEntry(long size, long lastAccess) {}
+
+    /**
+     * Mixed into every artifact key, so that artifacts made by another plugin version are never reused: any change to
+     * the code producing them can change their contents. Builds from untagged commits have the commit in their version.
+     */
+    private static final String ARTIFACT_KEY_SALT = BuildConfig.PLUGIN_VERSION;
+
+    private static String saltKey(String key) {
+        return HashUtils.digestToHex(HashUtils.addToHash(ARTIFACT_KEY_SALT).andThen(HashUtils.addToHash(key)));
+    }
+
+    public Path getArtifactStorePath() {
+        return getRfgCachePath().resolve(ARTIFACT_STORE_DIRECTORY);
+    }
+
+    private Path getArtifactPath(String kind, String key, boolean compressed) {
+        return getArtifactStorePath().resolve(kind)
+                .resolve(saltKey(key) + (compressed ? ".jar" + ARTIFACT_COMPRESSED_SUFFIX : ".jar"));
+    }
+
+    /** @return The stored artifact, compressed or not, or null if it's not in the store */
+    private @Nullable Path findArtifact(String kind, String key) {
+        for (final boolean compressed : new boolean[] { false, true }) {
+            final Path artifact = getArtifactPath(kind, key, compressed);
+            if (Files.isRegularFile(artifact)) {
+                return artifact;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Looks up an artifact in the shared store and copies it to the given destination if it exists.
+     *
+     * @param kind        The kind of artifact, used as a subdirectory name, e.g. "decompiled"
+     * @param key         A hex content hash of all the inputs that were used to produce the artifact, the plugin version
+     *                    is added to it
+     * @param destination Where to put the artifact on a cache hit
+     * @return true on a cache hit, false if the artifact is not in the store
+     */
+    public boolean restoreArtifact(String kind, String key, File destination) throws IOException {
+        final Path artifact;
+        try (final CacheLock ignored = lockCache(true)) {
+            artifact = findArtifact(kind, key);
+            if (artifact == null) {
+                artifactMisses.incrementAndGet();
+                return false;
+            }
+            if (artifact.getFileName().toString().endsWith(ARTIFACT_COMPRESSED_SUFFIX)) {
+                final Inflater inflater = new Inflater();
+                try (final InputStream is = Files.newInputStream(artifact);
+                        final InputStream iis = new InflaterInputStream(is, inflater, 65536)) {
+                    FileUtils.copyInputStreamToFile(iis, destination);
+                } finally {
+                    inflater.end();
+                }
+            } else {
+                // Tasks may rewrite their outputs in place, so the stored artifact can't be hardlinked
+                FileMaterializer.materialize(artifact.toFile(), destination, false);
+            }
+            // The modification time is the access time of the LRU order, the index is only updated when storing
+            try {
+                Files.setLastModifiedTime(artifact, FileTime.fromMillis(System.currentTimeMillis()));
+            } catch (IOException e) {
+                LOGGER.debug("Could not update the access time of {}", artifact, e);
+            }
+        }
+        artifactHits.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Saves a copy of the given file into the shared store, evicting the least recently used artifacts if the store
+     * grows over its size budget.
+     *
+     * @param kind   The kind of artifact, used as a subdirectory name, e.g. "decompiled"
+     * @param key    A hex content hash of all the inputs that were used to produce the artifact, the plugin version is
+     *               added to it
+     * @param source The artifact to store
+     */
+    public void storeArtifact(String kind, String key, File source) throws IOException {
+        final boolean compress = getParameters().getCompressArtifacts().getOrElse(false);
+        final Path artifact = getArtifactPath(kind, key, compress);
+        final String indexKey = getArtifactIndexKey(artifact);
+        try (final CacheLock ignored = lockCache(false)) {
+            deleteLegacyCaches();
+            Files.createDirectories(artifact.getParent());
+            final Path tempArtifact = Files.createTempFile(artifact.getParent(), key, ARTIFACT_TEMP_SUFFIX);
+            try {
+                if (compress) {
+                    // The fastest level still gets most of the gains, the artifacts are mostly uncompressed jars
+                    final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+                    try (final OutputStream os = Files.newOutputStream(tempArtifact);
+                            final OutputStream dos = new DeflaterOutputStream(os, deflater, 65536)) {
+                        FileUtils.copyFile(source, dos);
+                    } finally {
+                        deflater.end();
+                    }
+                } else {
+                    FileMaterializer.materialize(source, tempArtifact.toFile(), false);
+                }
+                // A copy stored with the other compression setting would shadow or duplicate this one
+                Files.deleteIfExists(getArtifactPath(kind, key, !compress));
+                Files.move(
+                        tempArtifact,
+                        artifact,
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tempArtifact);
+            }
+
+            final Map<String, ArtifactIndexEntry> index = readArtifactIndex();
+            reconcileArtifactIndex(index);
+            index.put(indexKey, new ArtifactIndexEntry(Files.size(artifact), System.currentTimeMillis()));
+            evictArtifacts(index, indexKey);
+            writeArtifactIndex(index);
+        }
+    }
+
+    public long getArtifactHits() {
+        return artifactHits.get();
+    }
+
+    public long getArtifactMisses() {
+        return artifactMisses.get();
+    }
+
+    public long getArtifactEvictions() {
+        return artifactEvictions.get();
+    }
+
+    private String getArtifactIndexKey(Path artifact) {
+        return getArtifactStorePath().relativize(artifact).toString().replace('\\', '/');
+    }
+
+    /** Must be called with the cache lock held */
+    private Map<String, ArtifactIndexEntry> readArtifactIndex() throws IOException {
+        final Map<String, ArtifactIndexEntry> index = new TreeMap<>();
+        final Path indexFile = getArtifactStorePath().resolve(ARTIFACT_INDEX_FILE);
+        if (!Files.isRegularFile(indexFile)) {
+            return index;
+        }
+        for (final String line : Files.readAllLines(indexFile, StandardCharsets.UTF_8)) {
+            // path size lastAccess
+            final String[] parts = line.trim().split("\t");
+            if (parts.length != 3) {
+                continue;
+            }
+            try {
+                index.put(parts[0], new ArtifactIndexEntry(Long.parseLong(parts[1]), Long.parseLong(parts[2])));
+            } catch (NumberFormatException e) {
+                LOGGER.warn("Skipping malformed RFG artifact index entry: {}", line);
+            }
+        }
+        return index;
+    }
+
+    /** Must be called with the exclusive cache lock held */
+    private void writeArtifactIndex(Map<String, ArtifactIndexEntry> index) throws IOException {
+        final Path storeRoot = getArtifactStorePath();
+        Files.createDirectories(storeRoot);
+        final StringBuilder sb = new StringBuilder();
+        for (final Map.Entry<String, ArtifactIndexEntry> entry : index.entrySet()) {
+            sb.append(entry.getKey()).append('\t').append(entry.getValue().size()).append('\t')
+                    .append(entry.getValue().lastAccess()).append('\n');
+        }
+        final Path tempIndex = Files.createTempFile(storeRoot, ARTIFACT_INDEX_FILE, ARTIFACT_TEMP_SUFFIX);
+        try {
+            Files.writeString(tempIndex, sb, StandardCharsets.UTF_8);
+            Files.move(
+                    tempIndex,
+                    storeRoot.resolve(ARTIFACT_INDEX_FILE),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempIndex);
+        }
+    }
+
+    /**
+     * Drops index entries of deleted artifacts, adds artifacts missing from the index (e.g. if it got deleted), and
+     * updates the last access times from the modification times cache hits set. Must be called with the exclusive cache
+     * lock held.
+     */
+    private void reconcileArtifactIndex(Map<String, ArtifactIndexEntry> index) throws IOException {
+        final Path storeRoot = getArtifactStorePath();
+        index.keySet().removeIf(key -> !Files.isRegularFile(storeRoot.resolve(key)));
+        final List<Path> artifacts;
+        try (final Stream<Path> files = Files.walk(storeRoot)) {
+            artifacts = files.filter(Files::isRegularFile).filter(p -> !p.getParent().equals(storeRoot)).toList();
+        }
+        for (final Path artifact : artifacts) {
+            if (artifact.getFileName().toString().endsWith(ARTIFACT_TEMP_SUFFIX)) {
+                // Leftover from an interrupted build
+                Files.deleteIfExists(artifact);
+                continue;
+            }
+            final String key = getArtifactIndexKey(artifact);
+            final ArtifactIndexEntry entry = index.get(key);
+            final long lastModified = artifact.toFile().lastModified();
+            if (entry == null) {
+                index.put(key, new ArtifactIndexEntry(artifact.toFile().length(), lastModified));
+            } else if (lastModified > entry.lastAccess()) {
+                index.put(key, new ArtifactIndexEntry(entry.size(), lastModified));
+            }
+        }
+    }
+
+    /** Must be called with the exclusive cache lock held */
+    private void evictArtifacts(Map<String, ArtifactIndexEntry> index, String keepKey) throws IOException {
+        final long maxSize = getParameters().getArtifactStoreMaxSize().getOrElse(DEFAULT_ARTIFACT_STORE_MAX_SIZE);
+        long totalSize = index.values().stream().mapToLong(ArtifactIndexEntry::size).sum();
+        if (totalSize <= maxSize) {
+            return;
+        }
+        final List<Map.Entry<String, ArtifactIndexEntry>> lruOrder = new ArrayList<>(index.entrySet());
+        lruOrder.sort(Comparator.comparingLong(e -> e.getValue().lastAccess()));
+        final Path storeRoot = getArtifactStorePath();
+        for (final Map.Entry<String, ArtifactIndexEntry> entry : lruOrder) {
+            if (totalSize <= maxSize) {
+                break;
+            }
+            if (entry.getKey().equals(keepKey)) {
+                continue;
+            }
+            LOGGER.info("Evicting {} from the RFG artifact cache", entry.getKey());
+            Files.deleteIfExists(storeRoot.resolve(entry.getKey()));
+            index.remove(entry.getKey());
+            totalSize -= entry.getValue().size();
+            artifactEvictions.incrementAndGet();
+        }
+    }
+
+    /** Must be called with the exclusive cache lock held */
+    private void deleteLegacyCaches() {
+        if (legacyCacheChecked) {
+            return;
+        }
+        legacyCacheChecked = true;
+        final File legacyFernflowerCache = getRfgCachePath().resolve(LEGACY_FERNFLOWER_CACHE_DIRECTORY).toFile();
+        if (legacyFernflowerCache.isDirectory()) {
+            LOGGER.lifecycle("Removing the old unbounded decompilation cache at {}", legacyFernflowerCache);
+            FileUtils.deleteQuietly(legacyFernflowerCache);
+        }
+    }
+
+    // In-memory cache of parsed MCP mapping csvs, shared by all tasks and artifact transforms of a build
+
+    /** Values are softly referenced, so unused mapping sets can be evicted when the heap runs low */
+    private final transient Cache<String, Utilities.MappingsSet> mappingsCache = CacheBuilder.newBuilder()
+            .softValues().build();
+    private final transient Cache<String, Map<String, String>> combinedMappingsCache = CacheBuilder.newBuilder()
+            .softValues().build();
+
+    private static String getMappingsKey(@Nullable File methodsCsv, @Nullable File fieldsCsv, @Nullable File paramsCsv,
+            @Nullable Collection<File> extraParamsCsvs, @Nullable String genericsFilename) {
+        MessageDigestConsumer hasher = HashUtils.addToHash("mappings");
+        // Null markers keep e.g. (methods, null) and (null, methods) apart
+        for (File csv : new File[] { methodsCsv, fieldsCsv, paramsCsv }) {
+            hasher = hasher.andThen(
+                    (csv == null) ? HashUtils.addToHash(0)
+                            : HashUtils.addToHash(1).andThen(HashUtils.addFileContentsToHash(csv)));
+        }
+        if (extraParamsCsvs != null) {
+            // Order matters, later files override earlier ones
+            for (File csv : extraParamsCsvs) {
+                hasher = hasher.andThen(HashUtils.addToHash(2)).andThen(HashUtils.addFileContentsToHash(csv));
+            }
+        }
+        if (StringUtils.isNotBlank(genericsFilename)) {
+            hasher = hasher.andThen(HashUtils.addToHash(3)).andThen(HashUtils.addToHash(genericsFilename));
+        }
+        return HashUtils.digestToHex(hasher);
+    }
+
+    private static <V> V getCached(Cache<String, V> cache, String key, Callable<V> loader) {
+        try {
+            return cache.get(key, loader);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Parses the given MCP mapping csvs, or returns an already parsed copy if files with the same contents were parsed
+     * earlier in the build. Concurrent callers asking for the same files wait for a single parse.
+     *
+     * @return A read-only mappings set, safe to use from multiple threads
+     * @see Utilities#loadMappingCsvs(File, File, File, Collection, String)
+     */
+    public Utilities.MappingsSet getMappings(@Nullable File methodsCsv, @Nullable File fieldsCsv,
+            @Nullable File paramsCsv, @Nullable Collection<File> extraParamsCsvs, @Nullable String genericsFilename) {
+        final String key = getMappingsKey(methodsCsv, fieldsCsv, paramsCsv, extraParamsCsvs, genericsFilename);
+        return getCached(mappingsCache, key, () -> {
+            LOGGER.info("Parsing mappings from {}, {}, {}", methodsCsv, fieldsCsv, paramsCsv);
+            return Utilities.loadMappingCsvs(methodsCsv, fieldsCsv, paramsCsv, extraParamsCsvs, genericsFilename)
+                    .toImmutable();
+        });
+    }
+
+    /**
+     * @return A read-only combined srg name to mcp name map, see {@link Utilities.MappingsSet#getCombinedMappings()}
+     */
+    public Map<String, String> getCombinedMappings(@Nullable File methodsCsv, @Nullable File fieldsCsv,
+            @Nullable File paramsCsv, @Nullable Collection<File> extraParamsCsvs) {
+        final String key = getMappingsKey(methodsCsv, fieldsCsv, paramsCsv, extraParamsCsvs, null);
+        return getCached(
+                combinedMappingsCache,
+                key,
+                () -> ImmutableMap.copyOf(
+                        getMappings(methodsCsv, fieldsCsv, paramsCsv, extraParamsCsvs, null).getCombinedMappings()));
+    }
+
+    /** Compiled mappings files opened in this build by absolute path, empty if missing or out of date */
+    private final transient Cache<String, Optional<CompiledMappings>> compiledMappingsCache = CacheBuilder.newBuilder()
+            .build();
+    /** Held for reading while compiled mappings are in use, and for writing to close them */
+    private final transient ReentrantReadWriteLock compiledMappingsLock = new ReentrantReadWriteLock();
+
+    /** Compiled mappings in use, see {@link #useCompiledMappings(File, File, File)} */
+    public final class CompiledMappingsLease implements AutoCloseable {
+
+        private final @Nullable CompiledMappings mappings;
+        private boolean released = false;
+
+        private CompiledMappingsLease(@Nullable CompiledMappings mappings) {
+            this.mappings = mappings;
+        }
+
+        /**
+         * @return The compiled mappings, or null if the file doesn't exist yet or wasn't compiled from the given csvs
+         */
+        public @Nullable CompiledMappings getMappings() {
+            return mappings;
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                compiledMappingsLock.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Memory-maps and validates a {@link CompiledMappings} file the first time it's used in the build, and keeps it
+     * open until the end of the build or until {@link #closeCompiledMappings(File)} is called. The lease must be closed
+     * on the thread that took it, once the mappings are no longer in use.
+     */
+    public CompiledMappingsLease useCompiledMappings(File compiledMappings, File methodsCsv, File fieldsCsv) {
+        compiledMappingsLock.readLock().lock();
+        try {
+            final Optional<CompiledMappings> mappings = getCached(
+                    compiledMappingsCache,
+                    compiledMappings.getAbsolutePath(),
+                    () -> openCompiledMappings(compiledMappings, methodsCsv, fieldsCsv));
+            return new CompiledMappingsLease(mappings.orElse(null));
+        } catch (RuntimeException e) {
+            compiledMappingsLock.readLock().unlock();
+            throw e;
+        }
+    }
+
+    private static Optional<CompiledMappings> openCompiledMappings(File compiledMappings, File methodsCsv,
+            File fieldsCsv) {
+        if (!compiledMappings.isFile()) {
+            return Optional.empty();
+        }
+        final CompiledMappings mappings;
+        try {
+            mappings = CompiledMappings.open(compiledMappings);
+        } catch (IOException e) {
+            LOGGER.info("Ignoring unreadable compiled mappings {}: {}", compiledMappings, e.getMessage());
+            return Optional.empty();
+        }
+        if (!mappings.isCompiledFrom(CompiledMappings.hashSources(methodsCsv, fieldsCsv))) {
+            LOGGER.info("Ignoring out of date compiled mappings {}", compiledMappings);
+            mappings.close();
+            return Optional.empty();
+        }
+        return Optional.of(mappings);
+    }
+
+    /**
+     * Unmaps the given compiled mappings file if it's open, waiting for the current users to finish. Must be called
+     * before the file is replaced, Windows doesn't allow replacing mapped files.
+     */
+    public void closeCompiledMappings(File compiledMappings) {
+        compiledMappingsLock.writeLock().lock();
+        try {
+            final Optional<CompiledMappings> mappings = compiledMappingsCache.asMap()
+                    .remove(compiledMappings.getAbsolutePath());
+            if (mappings != null) {
+                mappings.ifPresent(CompiledMappings::close);
+            }
+        } finally {
+            compiledMappingsLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        HashUtils.flushFileHashIndex();
+        compiledMappingsLock.writeLock().lock();
+        try {
+            compiledMappingsCache.asMap().values().forEach(mappings -> mappings.ifPresent(CompiledMappings::close));
+            compiledMappingsCache.invalidateAll();
+        } finally {
+            compiledMappingsLock.writeLock().unlock();
+        }
+        final long hits = artifactHits.get(), misses = artifactMisses.get(), evictions = artifactEvictions.get();
+        if (hits + misses + evictions > 0) {
+            LOGGER.info("RFG artifact cache: {} hits, {} misses, {} evictions", hits, misses, evictions);
+        }
+        synchronized (this) {
+            if (cacheLockFile != null) {
+                cacheLockFile.close();
+                cacheLockFile = null;
+            }
+        }
+    }
 }
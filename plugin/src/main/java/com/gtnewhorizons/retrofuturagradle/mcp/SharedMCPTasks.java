@@ -42,6 +42,11 @@ public class SharedMCPTasks<McExtType extends IMinecraftyExtension> {
     public static final String RFG_DIR = "rfg";
     public static final String SOURCE_SET_PATCHED_MC = "patchedMc";
     public static final String SOURCE_SET_LAUNCHER = "mcLauncher";
+    /**
+     * Output of generateForgeSrgMappings in the srg directory, see
+     * {@link com.gtnewhorizons.retrofuturagradle.util.CompiledMappings}
+     */
+    public static final String COMPILED_MAPPINGS_FILENAME = "srg-mcp.rfgmap";
 
     protected final McExtType mcExt;
     protected final MinecraftTasks mcTasks;
@@ -123,7 +128,8 @@ public class SharedMCPTasks<McExtType extends IMinecraftyExtension> {
                     final Provider<Directory> srgLocation = forgeSrgLocation; // configuration cache fix
                     task.onlyIf(t -> {
                         File root = srgLocation.get().getAsFile();
-                        return !(root.isDirectory() && new File(root, "notch-srg.srg").isFile());
+                        return !(root.isDirectory() && new File(root, "notch-srg.srg").isFile()
+                                && new File(root, COMPILED_MAPPINGS_FILENAME).isFile());
                     });
                     // inputs
                     Provider<Integer> mcVer = mcExt.getMinorMcVersion();
@@ -145,6 +151,7 @@ public class SharedMCPTasks<McExtType extends IMinecraftyExtension> {
                     task.getMcpToNotch().set(srgFile("mcp-notch.srg"));
                     task.getSrgExc().set(srgFile("srg.exc"));
                     task.getMcpExc().set(srgFile("mcp.exc"));
+                    task.getCompiledMappings().set(srgFile(COMPILED_MAPPINGS_FILENAME));
                     task.doFirst(new MkdirAction(forgeSrgLocation));
                     task.getCacheService().set(RfgCacheService.lazyAccess(project.getGradle()));
                     task.usesService(RfgCacheService.lazyAccess(project.getGradle()));
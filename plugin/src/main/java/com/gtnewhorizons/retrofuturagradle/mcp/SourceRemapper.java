@@ -0,0 +1,306 @@
+package com.gtnewhorizons.retrofuturagradle.mcp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.common.base.Strings;
+import com.gtnewhorizons.retrofuturagradle.fgpatchers.JavadocAdder;
+import com.gtnewhorizons.retrofuturagradle.util.SourceFile;
+import com.gtnewhorizons.retrofuturagradle.util.SrgTokenScanner;
+import com.gtnewhorizons.retrofuturagradle.util.Utilities;
+
+/**
+ * Remaps one decompiled source file at a time from SRG to MCP names, adding the missing generics and the javadocs of
+ * the mappings. This is the per-file part of {@link RemapSourceJarTask}, separate from the task so that it can be
+ * benchmarked on its own.
+ */
+public final class SourceRemapper {
+
+    // Matches SRG-style names (func_123_g/field_1_p/p_123_1_)
+    private static final Pattern SRG_FINDER = Pattern
+            .compile("(func_\\d+_[a-zA-Z_]+|field_\\d+_[a-zA-Z_]+|p_\\w+_\\d+_)([^\\w$]|$)");
+    private static final Pattern METHOD_DEFINITION = Pattern
+            .compile("^((?: {4})+|\\t+)(?:[\\w$.\\[\\]]+ )+([0-9a-zA-Z_]+)\\(");
+
+    private static final Pattern CONSTRUCTOR_DEFINITION = Pattern
+            .compile("^((?: {4})+|\\t+)(?:[\\w$.\\[\\]]+ )*([a-zA-Z0-9_]+)\\(");
+    private static final Pattern FIELD_DEFINITION = Pattern
+            .compile("^((?: {4})+|\\t+)(?:[\\w$.\\[\\]]+ )+(field_[0-9]+_[a-zA-Z_]+) *(?:=|;)");
+
+    private final Utilities.MappingsSet mappings;
+    private final boolean addJavadocs;
+    private final boolean addDummyJavadocs;
+
+    public SourceRemapper(Utilities.MappingsSet mappings, boolean addJavadocs, boolean addDummyJavadocs) {
+        this.mappings = mappings;
+        this.addJavadocs = addJavadocs;
+        this.addDummyJavadocs = addDummyJavadocs;
+    }
+
+    /** Per-thread state for remapping lines, {@link Matcher}s are not thread-safe */
+    private static final class LineMatchers {
+
+        final Matcher mSrg = SRG_FINDER.matcher("");
+        final Matcher mMethod = METHOD_DEFINITION.matcher("");
+        final Matcher mField = FIELD_DEFINITION.matcher("");
+        final Matcher mCtor = CONSTRUCTOR_DEFINITION.matcher("");
+        final Set<String> paramsApplied = new HashSet<>(16);
+        final StringBuilder lineBuffer = new StringBuilder(256);
+    }
+
+    private static final ThreadLocal<LineMatchers> LINE_MATCHERS = ThreadLocal.withInitial(LineMatchers::new);
+
+    /**
+     * Remaps a single source file, safe to call from multiple threads at once.
+     *
+     * @param zipEntry        The path of the file in the sources jar, generic mappings and patches are looked up by it
+     * @param genericsApplied Gets the number of generic type arguments added to the file
+     * @return The remapped lines
+     */
+    public List<String> remap(String zipEntry, SourceFile originalSrc, LongAdder genericsApplied) {
+        final LineMatchers matchers = LINE_MATCHERS.get();
+        final Matcher mSrg = matchers.mSrg;
+        final Matcher mMethod = matchers.mMethod;
+        final Matcher mField = matchers.mField;
+        final Matcher mCtor = matchers.mCtor;
+        final Set<String> paramsApplied = matchers.paramsApplied;
+        final List<String> originalLines = originalSrc.getLines();
+        final ArrayList<String> newLines = new ArrayList<>(originalLines.size());
+        final List<Utilities.GenericPatch> patches = mappings.genericPatches.get(zipEntry);
+
+        for (final String originalLine : originalLines) {
+            String newLine = originalLine;
+            mSrg.reset(originalLine);
+            mMethod.reset(originalLine);
+            mField.reset(originalLine);
+            mCtor.reset(originalLine);
+            paramsApplied.clear();
+            // Cheap checks for characters the declaration patterns require, most lines can skip the regexes
+            final boolean hasParen = originalLine.indexOf('(') >= 0;
+            if (!trimmedStartsWith(newLine, "return ")) {
+                if (hasParen && mMethod.find() && !Character.isUpperCase(mMethod.group(2).charAt(0))) {
+                    final String methodName = mMethod.group(2);
+                    final Utilities.Mapping methodMapping = mappings.methodMappings.get(methodName);
+                    if ((addJavadocs || addDummyJavadocs) && methodMapping != null
+                            && !methodMapping.javadoc().isEmpty()) {
+                        addBeforeAnnotations(
+                                newLines,
+                                addDummyJavadocs ? (mMethod.group(1) + "// JAVADOC METHOD $$ " + methodName)
+                                        : JavadocAdder
+                                                .buildJavadoc(mMethod.group(1), methodMapping.javadoc(), true));
+                    }
+                    final List<Utilities.GenericMapping> genMaps = mappings.genericMappings.get(methodName);
+                    for (Utilities.GenericMapping genMap : genMaps) {
+                        if (!genMap.zipEntry.equals(zipEntry)) {
+                            continue;
+                        }
+                        if (paramsApplied.contains(genMap.param)) {
+                            continue;
+                        }
+                        final String[] typeComps = genMap.type.split("\\.");
+                        if (!newLine.contains(typeComps[typeComps.length - 1])) {
+                            continue;
+                        }
+                        genericsApplied.increment();
+                        paramsApplied.add(genMap.param);
+                        try {
+                            if (genMap.param.equals("@return")) {
+                                final int parenIdx = newLine.indexOf('(');
+                                final int nameIdx = newLine.substring(0, parenIdx).lastIndexOf(' ');
+                                newLine = newLine.substring(0, nameIdx) + genMap.suffix
+                                        + newLine.substring(nameIdx);
+                            } else {
+                                final int whichParam = Integer.parseInt(genMap.param);
+                                final int paramsOffset = newLine.indexOf('(');
+                                int paramStart = (whichParam == 0) ? (paramsOffset + 1)
+                                        : (StringUtils.ordinalIndexOf(newLine, ",", whichParam) + 1);
+                                while (Character.isWhitespace(newLine.charAt(paramStart))) {
+                                    paramStart++;
+                                }
+                                int paramSplit = newLine.indexOf(' ', paramStart);
+                                while (newLine.substring(0, paramSplit).trim().endsWith("final")) {
+                                    paramSplit = newLine.indexOf(' ', paramSplit + 1);
+                                }
+                                if (paramSplit == -1) {
+                                    throw new IllegalStateException(
+                                            "Could not find param " + whichParam
+                                                    + " in line: |"
+                                                    + newLine
+                                                    + "| file: "
+                                                    + zipEntry
+                                                    + ":"
+                                                    + (newLines.size() + 1));
+                                }
+                                newLine = newLine.substring(0, paramSplit) + genMap.suffix
+                                        + newLine.substring(paramSplit);
+                            }
+                        } catch (Exception e) {
+                            throw new IllegalStateException(
+                                    "Error applying generic mapping " + genMap
+                                            + " to line |"
+                                            + newLine
+                                            + "| file: "
+                                            + zipEntry
+                                            + ":"
+                                            + (newLines.size() + 1));
+                        }
+                    }
+                } else if ((addJavadocs || addDummyJavadocs) && trimmedStartsWith(originalLine, "// JAVADOC ")) {
+                    if (mSrg.find()) {
+                        final String indent = originalLine.substring(0, originalLine.indexOf("// JAVADOC"));
+                        final String entityName = mSrg.group();
+                        if (entityName.startsWith("func_")) {
+                            final Utilities.Mapping methodMapping = mappings.methodMappings.get(entityName);
+                            if (methodMapping != null && !Strings.isNullOrEmpty(methodMapping.javadoc())) {
+                                newLine = JavadocAdder.buildJavadoc(indent, methodMapping.javadoc(), true);
+                            }
+                        } else if (entityName.startsWith("field_")) {
+                            final Utilities.Mapping fieldMapping = mappings.fieldMappings.get(entityName);
+                            if (fieldMapping != null && !Strings.isNullOrEmpty(fieldMapping.javadoc())) {
+                                newLine = JavadocAdder.buildJavadoc(indent, fieldMapping.javadoc(), true);
+                            }
+                        }
+
+                        if (newLine.endsWith(System.lineSeparator())) {
+                            newLine = newLine.substring(0, newLine.length() - System.lineSeparator().length());
+                        }
+                    }
+                } else if (originalLine.contains("field_") && mField.find()) {
+                    final String fieldName = mField.group(2);
+                    final Utilities.Mapping fieldMapping = mappings.fieldMappings.get(fieldName);
+                    if ((addJavadocs || addDummyJavadocs) && fieldMapping != null
+                            && !fieldMapping.javadoc().isEmpty()) {
+                        addBeforeAnnotations(
+                                newLines,
+                                addDummyJavadocs ? (mField.group(1) + "// JAVADOC FIELD $$ " + fieldName)
+                                        : JavadocAdder
+                                                .buildJavadoc(mField.group(1), fieldMapping.javadoc(), false));
+                    }
+                    final List<Utilities.GenericMapping> genMaps = mappings.genericMappings.get(fieldName);
+                    for (Utilities.GenericMapping genMap : genMaps) {
+                        if (!genMap.zipEntry.equals(zipEntry)) {
+                            continue;
+                        }
+                        genericsApplied.increment();
+                        final int splitIdx = newLine.indexOf(" field_");
+                        newLine = newLine.substring(0, splitIdx) + genMap.suffix + newLine.substring(splitIdx);
+                    }
+                } else if (hasParen && mCtor.find()) {
+                    final String key = zipEntry + "@init:" + extractCtorSig(newLine, newLines.size() + 1);
+                    final List<Utilities.GenericMapping> genMaps = mappings.genericMappings.get(key);
+                    for (Utilities.GenericMapping genMap : genMaps) {
+                        if (!genMap.zipEntry.equals(zipEntry)) {
+                            continue;
+                        }
+                        if (paramsApplied.contains(genMap.param)) {
+                            continue;
+                        }
+                        final String[] typeComps = genMap.type.split("\\.");
+                        if (!newLine.contains(typeComps[typeComps.length - 1])) {
+                            continue;
+                        }
+                        genericsApplied.increment();
+                        paramsApplied.add(genMap.param);
+                        final int whichParam = Integer.parseInt(genMap.param);
+                        final int paramsOffset = newLine.indexOf('(');
+                        int paramStart = (whichParam == 0) ? (paramsOffset + 1)
+                                : (StringUtils.ordinalIndexOf(newLine, ",", whichParam) + 1);
+                        while (Character.isWhitespace(newLine.charAt(paramStart))) {
+                            paramStart++;
+                        }
+                        int paramSplit = newLine.indexOf(' ', paramStart);
+                        while (newLine.substring(0, paramSplit).trim().endsWith("final")) {
+                            paramSplit = newLine.indexOf(' ', paramSplit + 1);
+                        }
+                        if (paramSplit == -1) {
+                            throw new IllegalStateException(
+                                    "Could not find param " + whichParam
+                                            + " in line: |"
+                                            + newLine
+                                            + "| file: "
+                                            + zipEntry
+                                            + ":"
+                                            + (newLines.size() + 1));
+                        }
+                        newLine = newLine.substring(0, paramSplit) + genMap.suffix + newLine.substring(paramSplit);
+                    }
+                }
+            }
+            if (!mappings.genericMappings.isEmpty()) {
+                // Extra patches
+                newLine = newLine.replace("(Object)null", "null");
+            }
+            if (!RemapSourceJarTask.DEBUG_PRINT_ALL_GENERICS) {
+                newLine = SrgTokenScanner.remapTokens(newLine, this::remapSrgName, matchers.lineBuffer);
+
+                for (Utilities.GenericPatch patch : patches) {
+                    if (newLine.contains(patch.containsFilter())) {
+                        newLine = newLine.replace(patch.toReplace(), patch.replaceWith());
+                    }
+                }
+            }
+            newLines.add(newLine);
+        }
+        return newLines;
+    }
+
+    private String remapSrgName(String found) {
+        if (found.startsWith("p_")) {
+            return mappings.paramMappings.getOrDefault(found, found);
+        } else if (found.startsWith("func_")) {
+            final Utilities.Mapping mapping = mappings.methodMappings.get(found);
+            return (mapping != null) ? mapping.name() : found;
+        } else if (found.startsWith("field_")) {
+            final Utilities.Mapping mapping = mappings.fieldMappings.get(found);
+            return (mapping != null) ? mapping.name() : found;
+        }
+        return found;
+    }
+
+    /** Same as {@code line.trim().startsWith(prefix)} without creating the trimmed string */
+    private static boolean trimmedStartsWith(String line, String prefix) {
+        int start = 0;
+        int end = line.length();
+        while (start < end && line.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && line.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end - start >= prefix.length() && line.startsWith(prefix, start);
+    }
+
+    static String extractCtorSig(String line, int lineNo) {
+        try {
+            final int lparen = line.indexOf('(');
+            final int rparen = line.indexOf(')');
+            final String preParen = line.substring(0, lparen).trim();
+            final int ppNameIdx = preParen.lastIndexOf(' ');
+            final String cname = preParen.substring(ppNameIdx + 1);
+            final String argStr = line.substring(lparen + 1, rparen);
+            final String[] argStrs = argStr.split(",");
+            return cname + ":"
+                    + Arrays.stream(argStrs).map(String::trim).map(arg -> arg.substring(0, arg.lastIndexOf(' ')).trim())
+                            .collect(Collectors.joining(","));
+        } catch (Exception e) {
+            return "???" + lineNo;
+        }
+    }
+
+    private static void addBeforeAnnotations(ArrayList<String> lineBuffer, String text) {
+        int pos = lineBuffer.size() - 1;
+        while (pos > 0 && lineBuffer.get(pos).trim().startsWith("@")) {
+            pos--;
+        }
+        lineBuffer.add(pos + 1, text);
+    }
+}
@@ -9,6 +9,7 @@ import org.gradle.api.file.ConfigurableFileCollection;
 import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.model.ObjectFactory;
 import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.InputFile;
 import org.gradle.api.tasks.InputFiles;
@@ -20,6 +21,7 @@ import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.options.Option;
 
 import com.gtnewhorizons.retrofuturagradle.mcp.RemapSourceJarTask;
+import com.gtnewhorizons.retrofuturagradle.mcp.RfgCacheService;
 import com.gtnewhorizons.retrofuturagradle.util.Utilities;
 
 /**
@@ -62,11 +64,17 @@ public abstract class DeobfuscateFileTaskBase extends DefaultTask {
     @Option(option = "output", description = "Where to save the deobfuscated version")
     public abstract RegularFileProperty getOutputFile();
 
+    @Internal
+    public abstract Property<RfgCacheService> getCacheService();
+
     @Inject
     protected abstract ObjectFactory getObjectFactory();
 
     @Inject
     public DeobfuscateFileTaskBase() {
+        final Provider<RfgCacheService> rfgCacheService = RfgCacheService.lazyAccess(getProject().getGradle());
+        getCacheService().convention(rfgCacheService);
+        usesService(rfgCacheService);
         getOutputFile().convention(getInputFile().map(rf -> {
             File f = rf.getAsFile();
             String path = f.getPath();
@@ -91,7 +99,7 @@ public abstract class DeobfuscateFileTaskBase extends DefaultTask {
 
     @Internal
     public Utilities.MappingsSet getMappings() {
-        return Utilities.loadMappingCsvs(
+        return getCacheService().get().getMappings(
                 getMethodsCsv().getAsFile().get(),
                 getFieldsCsv().getAsFile().get(),
                 getParamsCsv().getAsFile().getOrNull(),
@@ -1,28 +1,34 @@
 package com.gtnewhorizons.retrofuturagradle.modutils;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
 import java.util.jar.Attributes;
-import java.util.jar.JarEntry;
-import java.util.jar.JarInputStream;
-import java.util.jar.JarOutputStream;
+import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 import java.util.stream.Collectors;
 
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
-import org.apache.commons.io.input.CloseShieldInputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Strings;
 import org.gradle.api.artifacts.transform.CacheableTransform;
@@ -45,9 +51,11 @@ import org.gradle.api.tasks.InputFile;
 import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.PathSensitive;
 import org.gradle.api.tasks.PathSensitivity;
+import org.jetbrains.annotations.Nullable;
 
 import com.google.common.io.Files;
 import com.gtnewhorizons.retrofuturagradle.mcp.RfgCacheService;
+import com.gtnewhorizons.retrofuturagradle.util.SimpleSrgRemapper;
 import com.gtnewhorizons.retrofuturagradle.util.Utilities;
 
 @CacheableTransform
@@ -67,14 +75,28 @@ public abstract class DependencyDeobfuscationTransform
         @PathSensitive(PathSensitivity.NONE)
         RegularFileProperty getMethodsCsv();
 
+        /**
+         * Compiled form of the csvs, used instead of parsing them if it exists and is up to date. Internal because it
+         * doesn't contain anything the csvs don't, and it might not be generated yet when dependencies are resolved.
+         */
+        @Internal
+        RegularFileProperty getCompiledMappings();
+
         @InputFile
         @PathSensitive(PathSensitivity.RELATIVE)
         ConfigurableFileCollection getFilesToDeobf();
 
         @Input
         SetProperty<String> getModulesToDeobf();
+
+        /** The maximum number of threads remapping the classes of one jar, doesn't change the output */
+        @Internal
+        Property<Integer> getParallelism();
     }
 
+    private static final byte[] FUNC_PREFIX = "func_".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FIELD_PREFIX = "field_".getBytes(StandardCharsets.US_ASCII);
+
     @InputArtifact
     @PathSensitive(PathSensitivity.NONE)
     public abstract Provider<FileSystemLocation> getInputArtifact();
@@ -143,54 +165,188 @@ public abstract class DependencyDeobfuscationTransform
         final File fieldsCsv = parameters.getFieldsCsv().get().getAsFile();
         final File methodsCsv = parameters.getMethodsCsv().get().getAsFile();
 
-        final Utilities.MappingsSet mappings = Utilities.loadMappingCsvs(methodsCsv, fieldsCsv, null, null, null);
-        final Map<String, String> combined = mappings.getCombinedMappings();
-
         if (outFile.isFile()) {
             FileUtils.delete(outFile);
         }
 
-        try (final InputStream is = FileUtils.openInputStream(inputLocation);
-                final BufferedInputStream bis = new BufferedInputStream(is);
-                final JarInputStream jis = new JarInputStream(bis, false);
-                final OutputStream os = FileUtils.openOutputStream(outFileTemp, false);
-                final BufferedOutputStream bos = new BufferedOutputStream(os);
-                final JarOutputStream jos = makeTransformerJarOutputStream(jis, bos)) {
-            JarEntry entry;
-            while ((entry = jis.getNextJarEntry()) != null) {
-                if (Strings.CI.endsWith(entry.getName(), ".dsa") || Strings.CI.endsWith(entry.getName(), ".rsa")
-                        || Strings.CI.endsWith(entry.getName(), ".sf")
-                        || Strings.CI.contains(entry.getName(), "meta-inf/sig-")) {
-                    continue;
-                }
-                jos.putNextEntry(new JarEntry(entry.getName()));
-                if (Strings.CI.endsWith(entry.getName(), ".class")) {
-                    byte[] data = IOUtils.toByteArray(jis);
-                    IOUtils.write(Utilities.simpleRemapClass(data, combined), jos);
-                } else if (Strings.CS.endsWith(entry.getName(), "META-INF/MANIFEST.MF")) {
-                    // This if will only trigger if the manifest is not one of the first 2 jar entries
-                    Manifest mf = new Manifest(CloseShieldInputStream.wrap(jis));
-                    transformManifest(mf);
-                    mf.write(jos);
-                } else {
-                    IOUtils.copy(jis, jos);
+        try (final ZipFile inputJar = ZipFile.builder().setFile(inputLocation).get()) {
+            final List<ZipArchiveEntry> entries = Collections.list(inputJar.getEntries());
+            final Map<String, byte[]> remappedClasses;
+            try (final RfgCacheService.CompiledMappingsLease compiled = useCompiledMappings(
+                    parameters,
+                    methodsCsv,
+                    fieldsCsv)) {
+                remappedClasses = remapClasses(
+                        inputJar,
+                        entries,
+                        createSrgRemapper(parameters, compiled, methodsCsv, fieldsCsv),
+                        Math.max(1, parameters.getParallelism().getOrElse(1)));
+            }
+            try (final ZipArchiveOutputStream out = new ZipArchiveOutputStream(outFileTemp)) {
+                for (ZipArchiveEntry entry : entries) {
+                    final String name = entry.getName();
+                    if (Strings.CI.endsWith(name, ".dsa") || Strings.CI.endsWith(name, ".rsa")
+                            || Strings.CI.endsWith(name, ".sf")
+                            || Strings.CI.contains(name, "meta-inf/sig-")) {
+                        continue;
+                    }
+                    final byte[] remapped = remappedClasses.get(name);
+                    if (remapped != null) {
+                        putEntry(out, name, remapped);
+                    } else if (name.equals(JarFile.MANIFEST_NAME)) {
+                        final Manifest mf;
+                        try (final InputStream is = inputJar.getInputStream(entry)) {
+                            mf = new Manifest(is);
+                        }
+                        transformManifest(mf);
+                        final ByteArrayOutputStream mfBytes = new ByteArrayOutputStream();
+                        mf.write(mfBytes);
+                        putEntry(out, name, mfBytes.toByteArray());
+                    } else {
+                        // Resources and classes without SRG names, copied without inflating and deflating them again
+                        try (final InputStream raw = inputJar.getRawInputStream(entry)) {
+                            out.addRawArchiveEntry(new ZipArchiveEntry(entry), raw);
+                        }
+                    }
                 }
-                jos.closeEntry();
             }
         }
 
         Files.move(outFileTemp, outFile);
     }
 
-    private static JarOutputStream makeTransformerJarOutputStream(JarInputStream jis, OutputStream os)
-            throws IOException {
-        if (jis.getManifest() != null) {
-            final Manifest mf = jis.getManifest();
-            transformManifest(mf);
-            return new JarOutputStream(os, mf);
-        } else {
-            return new JarOutputStream(os);
+    /**
+     * Remaps all the classes that reference SRG names on multiple threads.
+     *
+     * @return Entry name to remapped class bytes, for the classes that needed remapping
+     */
+    private static Map<String, byte[]> remapClasses(ZipFile inputJar, List<ZipArchiveEntry> entries,
+            SimpleSrgRemapper srgRemapper, int parallelism) throws IOException {
+        final Map<String, byte[]> classes = new LinkedHashMap<>();
+        for (ZipArchiveEntry entry : entries) {
+            if (entry.isDirectory() || !Strings.CI.endsWith(entry.getName(), ".class")) {
+                continue;
+            }
+            final byte[] data;
+            try (final InputStream is = inputJar.getInputStream(entry)) {
+                data = IOUtils.toByteArray(is);
+            }
+            if (mayContainSrgNames(data)) {
+                classes.put(entry.getName(), data);
+            }
+        }
+        final Map<String, byte[]> remapped = new ConcurrentHashMap<>(classes.size());
+        final Consumer<Map.Entry<String, byte[]>> remapEntry = entry -> remapped
+                .put(entry.getKey(), Utilities.simpleRemapClass(entry.getValue(), srgRemapper));
+        if (parallelism == 1 || classes.size() <= 1) {
+            classes.entrySet().forEach(remapEntry);
+            return remapped;
+        }
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.submit(() -> classes.entrySet().parallelStream().forEach(remapEntry)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return remapped;
+    }
+
+    /**
+     * Walks the constant pool of a class looking for strings with SRG method or field names in them, which is much
+     * cheaper than parsing the class. Only those names are in the mappings, so a class without them is left as is.
+     *
+     * @return false if remapping would not change the class, true otherwise or if the data is not a valid class
+     */
+    static boolean mayContainSrgNames(byte[] classBytes) {
+        try {
+            final ByteBuffer buffer = ByteBuffer.wrap(classBytes);
+            if (buffer.getInt() != 0xCAFEBABE) {
+                return true;
+            }
+            buffer.position(8);
+            final int constantCount = buffer.getShort() & 0xFFFF;
+            for (int i = 1; i < constantCount; i++) {
+                final int tag = buffer.get();
+                switch (tag) {
+                    case 1 -> { // Utf8
+                        final int length = buffer.getShort() & 0xFFFF;
+                        if (containsSrgPrefix(classBytes, buffer.position(), length)) {
+                            return true;
+                        }
+                        buffer.position(buffer.position() + length);
+                    }
+                    case 7, 8, 16, 19, 20 -> buffer.position(buffer.position() + 2);
+                    case 15 -> buffer.position(buffer.position() + 3);
+                    case 3, 4, 9, 10, 11, 12, 17, 18 -> buffer.position(buffer.position() + 4);
+                    case 5, 6 -> { // Long and Double take up two slots
+                        buffer.position(buffer.position() + 8);
+                        i++;
+                    }
+                    default -> {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    private static boolean containsSrgPrefix(byte[] bytes, int start, int length) {
+        final int end = start + length;
+        for (int i = start; i < end; i++) {
+            if (bytes[i] == 'f' && (matchesAt(bytes, i, end, FUNC_PREFIX) || matchesAt(bytes, i, end, FIELD_PREFIX))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchesAt(byte[] bytes, int start, int end, byte[] prefix) {
+        if (end - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[start + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void putEntry(ZipArchiveOutputStream out, String name, byte[] contents) throws IOException {
+        out.putArchiveEntry(new ZipArchiveEntry(name));
+        out.write(contents);
+        out.closeArchiveEntry();
+    }
+
+    private static @Nullable RfgCacheService.CompiledMappingsLease useCompiledMappings(Parameters parameters,
+            File methodsCsv, File fieldsCsv) {
+        final File compiledMappings = parameters.getCompiledMappings().getAsFile().getOrNull();
+        if (compiledMappings == null) {
+            return null;
+        }
+        // Opened and checked against the csvs once per build
+        return parameters.getMappingService().get().useCompiledMappings(compiledMappings, methodsCsv, fieldsCsv);
+    }
+
+    private static SimpleSrgRemapper createSrgRemapper(Parameters parameters,
+            @Nullable RfgCacheService.CompiledMappingsLease compiled, File methodsCsv, File fieldsCsv) {
+        if (compiled != null && compiled.getMappings() != null) {
+            return new SimpleSrgRemapper(compiled.getMappings()::get);
         }
+        // Parsed once per build and shared by all the artifacts being transformed
+        return new SimpleSrgRemapper(
+                parameters.getMappingService().get().getCombinedMappings(methodsCsv, fieldsCsv, null, null));
     }
 
     private static void transformManifest(Manifest mf) {
@@ -157,8 +157,11 @@ public class ModUtils {
                         .set(mcpTasks.getTaskGenerateForgeSrgMappings().flatMap(GenSrgMappingsTask::getFieldsCsv));
                 params.getMethodsCsv()
                         .set(mcpTasks.getTaskGenerateForgeSrgMappings().flatMap(GenSrgMappingsTask::getMethodsCsv));
+                params.getCompiledMappings().set(
+                        mcpTasks.getTaskGenerateForgeSrgMappings().flatMap(GenSrgMappingsTask::getCompiledMappings));
                 params.getFilesToDeobf().from(depFilesToDeobf);
                 params.getModulesToDeobf().set(depModulesToDeobf);
+                params.getParallelism().set(mcExt.getJarTransformParallelism());
                 // can't use a true build service here due to gradle serialization errors
                 params.getMappingService().set(RfgCacheService.lazyAccess(project.getGradle()));
             });
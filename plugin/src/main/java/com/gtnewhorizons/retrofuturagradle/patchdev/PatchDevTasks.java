@@ -50,6 +50,8 @@ public class PatchDevTasks extends SharedMCPTasks<RfgPatchdevExtension> {
                     task.getOutputJar().set(mergedVanillaJarLocation);
                     task.getMergeConfigFile().set(project.file("mcp_merge.cfg"));
                     task.getMcVersion().set(mcExt.getMcVersion());
+                    task.getCacheService().set(rfgCacheService);
+                    task.usesService(rfgCacheService);
                 });
 
         final Provider<RegularFile> srgMergedJarLocation = buildDir.dir(RFG_DIR)
@@ -67,6 +69,8 @@ public class PatchDevTasks extends SharedMCPTasks<RfgPatchdevExtension> {
                     task.getIsApplyingMarkers().set(true);
                     // Configured in afterEvaluate()
                     task.getAccessTransformerFiles().setFrom(mcExt.getAccessTransformers());
+                    task.getCacheService().set(rfgCacheService);
+                    task.usesService(rfgCacheService);
                 });
 
         final Provider<RegularFile> decompiledSrgLocation = buildDir.dir(RFG_DIR)
@@ -79,7 +83,6 @@ public class PatchDevTasks extends SharedMCPTasks<RfgPatchdevExtension> {
                     task.dependsOn(taskDeobfuscateMergedJarToSrg, taskDownloadFernflower);
                     task.getInputJar().set(taskDeobfuscateMergedJarToSrg.flatMap(DeobfuscateTask::getOutputJar));
                     task.getOutputJar().set(rawDecompiledSrgLocation);
-                    task.getCacheDir().set(Utilities.getCacheDir(project, "fernflower-cache"));
                     task.getFernflower().set(fernflowerLocation);
                     task.getCacheService().set(rfgCacheService);
                     task.usesService(rfgCacheService);
@@ -92,6 +95,8 @@ public class PatchDevTasks extends SharedMCPTasks<RfgPatchdevExtension> {
                     task.getOutputJar().set(decompiledSrgLocation);
                     task.getPatches().set(userdevDir("conf/minecraft_ff"));
                     task.getAstyleConfig().set(userdevFile("conf/astyle.cfg"));
+                    task.getCacheService().set(rfgCacheService);
+                    task.usesService(rfgCacheService);
                 });
 
         final Provider<RegularFile> patchedSourcesLocation = buildDir.dir(RFG_DIR)
@@ -114,6 +119,8 @@ public class PatchDevTasks extends SharedMCPTasks<RfgPatchdevExtension> {
                     task.dependsOn(taskCleanupDecompSrgJar);
                     task.getInputJar().set(taskCleanupDecompSrgJar.flatMap(CleanupDecompiledJarTask::getOutputJar));
                     task.getOutputJar().set(remappedUnpatchedSourcesLocation);
+                    task.getCacheService().set(rfgCacheService);
+                    task.usesService(rfgCacheService);
                     task.getFieldCsv().set(taskGenerateForgeSrgMappings.flatMap(GenSrgMappingsTask::getFieldsCsv));
                     task.getMethodCsv().set(taskGenerateForgeSrgMappings.flatMap(GenSrgMappingsTask::getMethodsCsv));
                     // No params - incompatible with the old patches
@@ -128,6 +135,8 @@ public class PatchDevTasks extends SharedMCPTasks<RfgPatchdevExtension> {
                     task.dependsOn(taskPatchDecompiledJar);
                     task.getInputJar().set(taskPatchDecompiledJar.flatMap(PatchSourcesTask::getOutputJar));
                     task.getOutputJar().set(remappedPatchedSourcesLocation);
+                    task.getCacheService().set(rfgCacheService);
+                    task.usesService(rfgCacheService);
                     task.getFieldCsv().set(taskGenerateForgeSrgMappings.flatMap(GenSrgMappingsTask::getFieldsCsv));
                     task.getMethodCsv().set(taskGenerateForgeSrgMappings.flatMap(GenSrgMappingsTask::getMethodsCsv));
                     // No params - incompatible with the old patches
@@ -0,0 +1,296 @@
+package com.gtnewhorizons.retrofuturagradle.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.foreign.Arena;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.Nullable;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * A compact binary SRG to MCP name table that can be memory-mapped and queried without parsing the MCP csvs or
+ * allocating objects per entry. Lookups binary search a sorted offset index, so the file is usable right after
+ * mapping it, and the instances are safe to share between threads. Only methods and fields are stored, parameter names
+ * aren't needed to deobfuscate compiled classes.
+ *
+ * <p>
+ * Layout (big endian):
+ *
+ * <pre>
+ * int magic "RFGM", int version, 32 byte SHA-256 of the source csvs
+ * 2x (int entryCount, int indexOffset)  for the method and field tables
+ * indices: entryCount x (int keyOffset, int valueOffset), sorted by key
+ * strings: unsigned short byteLength, UTF-8 bytes
+ * </pre>
+ *
+ * Keys must be ASCII, which all SRG names are, so that their byte order matches {@link String} order.
+ */
+public final class CompiledMappings implements AutoCloseable {
+
+    private static final int MAGIC = 0x5246474D; // RFGM
+    private static final int VERSION = 2;
+    private static final int TABLE_METHODS = 0;
+    private static final int TABLE_FIELDS = 1;
+    private static final int TABLE_COUNT = 2;
+    private static final int SOURCE_DIGEST_SIZE = 32;
+    private static final int TABLES_OFFSET = 8 + SOURCE_DIGEST_SIZE;
+    private static final int HEADER_SIZE = TABLES_OFFSET + TABLE_COUNT * 8;
+    private static final int INDEX_ENTRY_SIZE = 8;
+
+    private final ByteBuffer buffer;
+    /** Owns the file mapping, null for wrapped arrays */
+    private final @Nullable Arena arena;
+    private final int[] entryCounts = new int[TABLE_COUNT];
+    private final int[] indexOffsets = new int[TABLE_COUNT];
+
+    private CompiledMappings(ByteBuffer buffer, @Nullable Arena arena) throws IOException {
+        this.buffer = buffer;
+        this.arena = arena;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a compiled mappings file");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported compiled mappings version " + buffer.getInt(4));
+        }
+        for (int table = 0; table < TABLE_COUNT; table++) {
+            entryCounts[table] = buffer.getInt(TABLES_OFFSET + table * 8);
+            indexOffsets[table] = buffer.getInt(TABLES_OFFSET + 4 + table * 8);
+        }
+    }
+
+    /**
+     * Memory-maps a file written by {@link #write(File, byte[], Map, Map)}. The file stays mapped until
+     * {@link #close()}, which on Windows also keeps it from being replaced.
+     */
+    public static CompiledMappings open(File file) throws IOException {
+        final Arena arena = Arena.ofShared();
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            return new CompiledMappings(
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena).asByteBuffer(),
+                    arena);
+        } catch (IOException | RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Wraps an already loaded compiled mappings file, mostly for testing.
+     */
+    public static CompiledMappings wrap(byte[] contents) throws IOException {
+        return new CompiledMappings(ByteBuffer.wrap(contents).asReadOnlyBuffer(), null);
+    }
+
+    /**
+     * Unmaps the file, lookups must not be running or made afterwards.
+     */
+    @Override
+    public void close() {
+        if (arena != null) {
+            arena.close();
+        }
+    }
+
+    /**
+     * @return The digest of the csv files' contents, in order, to store in and compare with compiled mappings
+     */
+    public static byte[] hashSources(File... csvs) {
+        final MessageDigest digest = DigestUtils.getSha256Digest();
+        for (File csv : csvs) {
+            HashUtils.addFileContentsToHash(csv).accept(digest);
+        }
+        return digest.digest();
+    }
+
+    /**
+     * @return Whether these mappings were compiled from csvs with the given {@link #hashSources(File...)} digest, so
+     *         that stale files can be detected
+     */
+    public boolean isCompiledFrom(byte[] sourceDigest) {
+        if (sourceDigest.length != SOURCE_DIGEST_SIZE) {
+            return false;
+        }
+        for (int i = 0; i < SOURCE_DIGEST_SIZE; i++) {
+            if (buffer.get(8 + i) != sourceDigest[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Atomically writes out the given srg to mcp name maps.
+     *
+     * @param sourceDigest The {@link #hashSources(File...)} digest of the csvs the maps were read from
+     */
+    public static void write(File file, byte[] sourceDigest, Map<String, String> methods, Map<String, String> fields)
+            throws IOException {
+        if (sourceDigest.length != SOURCE_DIGEST_SIZE) {
+            throw new IllegalArgumentException("Source digest must be a SHA-256 digest");
+        }
+        final List<TreeMap<String, String>> tables = List.of(new TreeMap<>(methods), new TreeMap<>(fields));
+        final ByteArrayOutputStream strings = new ByteArrayOutputStream();
+        final DataOutputStream stringsOut = new DataOutputStream(strings);
+        final List<int[]> indices = new ArrayList<>(TABLE_COUNT);
+        int indexSize = 0;
+        for (TreeMap<String, String> table : tables) {
+            indexSize += table.size() * INDEX_ENTRY_SIZE;
+        }
+        final int stringsOffset = HEADER_SIZE + indexSize;
+        for (TreeMap<String, String> table : tables) {
+            final int[] index = new int[table.size() * 2];
+            int i = 0;
+            for (Map.Entry<String, String> entry : table.entrySet()) {
+                if (!StandardCharsets.US_ASCII.newEncoder().canEncode(entry.getKey())) {
+                    throw new IllegalArgumentException("Non-ASCII mapping key " + entry.getKey());
+                }
+                index[i++] = stringsOffset + stringsOut.size();
+                writeString(stringsOut, entry.getKey());
+                index[i++] = stringsOffset + stringsOut.size();
+                writeString(stringsOut, entry.getValue());
+            }
+            indices.add(index);
+        }
+        stringsOut.flush();
+
+        final Path target = file.toPath();
+        final Path parent = target.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        final Path tempFile = Files.createTempFile(parent, file.getName(), ".tmp");
+        try {
+            try (final OutputStream os = Files.newOutputStream(tempFile);
+                    final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.write(sourceDigest);
+                int indexOffset = HEADER_SIZE;
+                for (int table = 0; table < TABLE_COUNT; table++) {
+                    out.writeInt(tables.get(table).size());
+                    out.writeInt(indexOffset);
+                    indexOffset += tables.get(table).size() * INDEX_ENTRY_SIZE;
+                }
+                for (int[] index : indices) {
+                    for (int offset : index) {
+                        out.writeInt(offset);
+                    }
+                }
+                strings.writeTo(out);
+            }
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("Mapping name too long: " + value);
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    public int getMethodCount() {
+        return entryCounts[TABLE_METHODS];
+    }
+
+    public int getFieldCount() {
+        return entryCounts[TABLE_FIELDS];
+    }
+
+    /**
+     * @return The MCP name of the given func_ SRG name, or null if it's not mapped
+     */
+    public @Nullable String getMethodName(String srgName) {
+        return lookup(TABLE_METHODS, srgName);
+    }
+
+    /**
+     * @return The MCP name of the given field_ SRG name, or null if it's not mapped
+     */
+    public @Nullable String getFieldName(String srgName) {
+        return lookup(TABLE_FIELDS, srgName);
+    }
+
+    /**
+     * Looks up a method or field name, other names are rejected without searching.
+     *
+     * @return The MCP name, or null if it's not mapped
+     */
+    public @Nullable String get(String name) {
+        if (name.startsWith("func_")) {
+            return getMethodName(name);
+        } else if (name.startsWith("field_")) {
+            return getFieldName(name);
+        }
+        return null;
+    }
+
+    /**
+     * Same as {@link Utilities.MappingsSet#remapSimpleName(String)}, but leaves parameter names as they are.
+     */
+    public String remapSimpleName(String name) {
+        if (name == null || name.isBlank()) {
+            return "";
+        }
+        final String mapped = get(name);
+        return mapped == null ? name : mapped;
+    }
+
+    private @Nullable String lookup(int table, String key) {
+        final int indexOffset = indexOffsets[table];
+        int low = 0;
+        int high = entryCounts[table] - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int cmp = compareKey(buffer.getInt(indexOffset + mid * INDEX_ENTRY_SIZE), key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return readString(buffer.getInt(indexOffset + mid * INDEX_ENTRY_SIZE + 4));
+            }
+        }
+        return null;
+    }
+
+    /** Compares the stored ASCII string at the offset with the key, char by char */
+    private int compareKey(int offset, String key) {
+        final int length = buffer.getShort(offset) & 0xFFFF;
+        final int common = Math.min(length, key.length());
+        for (int i = 0; i < common; i++) {
+            final int diff = (buffer.get(offset + 2 + i) & 0xFF) - key.charAt(i);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return length - key.length();
+    }
+
+    private String readString(int offset) {
+        final int length = buffer.getShort(offset) & 0xFFFF;
+        final byte[] bytes = new byte[length];
+        buffer.get(offset + 2, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,190 @@
+package com.gtnewhorizons.retrofuturagradle.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+/**
+ * A persistent, thread-safe index of SHA-256 file content hashes, so that a fresh Gradle daemon doesn't have to re-read
+ * every unchanged patch, AT, CSV and jar file to check if the decompilation is up to date. Entries are keyed by the
+ * absolute path, and only trusted if the file size, modification time and inode (where the filesystem has one) still
+ * match. New entries are written out in batches, atomically replacing the index file.
+ */
+public final class FileHashIndex {
+
+    private static final Logger LOGGER = Logging.getLogger("RFG Cache");
+    private static final String HEADER = "# RFG file hash index v1";
+    /** Number of new hashes after which the index gets written out without waiting for an explicit flush */
+    private static final int FLUSH_BATCH_SIZE = 1024;
+
+    private record Entry(long size, long modifiedNanos, String inode, byte[] digest) {
+
+        boolean matches(BasicFileAttributes attrs) {
+            return size == attrs.size() && modifiedNanos == attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS)
+                    && inode.equals(inodeOf(attrs));
+        }
+
+        static Entry of(BasicFileAttributes attrs, byte[] digest) {
+            return new Entry(
+                    attrs.size(),
+                    attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+                    inodeOf(attrs),
+                    digest);
+        }
+    }
+
+    private final @Nullable Path indexFile;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicInteger unsavedEntries = new AtomicInteger();
+
+    /**
+     * @param indexFile Where to persist the index, or null to only keep it in memory
+     */
+    public FileHashIndex(@Nullable Path indexFile) {
+        this.indexFile = indexFile;
+        if (indexFile != null) {
+            entries.putAll(readIndexFile(indexFile));
+        }
+    }
+
+    public @Nullable Path getIndexFile() {
+        return indexFile;
+    }
+
+    /**
+     * @return The SHA-256 digest of the file's contents, must not be modified by the caller
+     */
+    public byte[] getDigest(File file) throws IOException {
+        final Path path = file.toPath().toAbsolutePath();
+        final String key = path.toString();
+        final BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        final Entry cached = entries.get(key);
+        if (cached != null && cached.matches(attrs)) {
+            return cached.digest();
+        }
+
+        final byte[] digest;
+        try (final InputStream is = Files.newInputStream(path)) {
+            digest = DigestUtils.sha256(is);
+        }
+        // Don't remember the hash if the file changed while it was being read
+        if (Entry.of(attrs, digest).matches(Files.readAttributes(path, BasicFileAttributes.class))) {
+            entries.put(key, Entry.of(attrs, digest));
+            if (unsavedEntries.incrementAndGet() >= FLUSH_BATCH_SIZE) {
+                flush();
+            }
+        }
+        return digest;
+    }
+
+    /**
+     * Writes new entries to the index file, merged with any entries saved by other daemons in the meantime. Entries of
+     * files that no longer exist are dropped.
+     */
+    public void flush() {
+        if (indexFile == null || unsavedEntries.get() == 0) {
+            return;
+        }
+        synchronized (this) {
+            if (unsavedEntries.getAndSet(0) == 0) {
+                return;
+            }
+            final Map<String, Entry> merged = new TreeMap<>(readIndexFile(indexFile));
+            merged.putAll(entries);
+            merged.keySet().removeIf(path -> !Files.exists(Path.of(path)));
+            entries.keySet().retainAll(merged.keySet());
+
+            final List<String> lines = new ArrayList<>(merged.size() + 1);
+            lines.add(HEADER);
+            for (Map.Entry<String, Entry> entry : merged.entrySet()) {
+                final Entry e = entry.getValue();
+                // The path goes last, so it can contain any characters except a newline
+                lines.add(
+                        Hex.encodeHexString(e.digest()) + '\t'
+                                + e.size()
+                                + '\t'
+                                + e.modifiedNanos()
+                                + '\t'
+                                + e.inode()
+                                + '\t'
+                                + entry.getKey());
+            }
+            Path tempFile = null;
+            try {
+                Files.createDirectories(indexFile.toAbsolutePath().getParent());
+                tempFile = Files.createTempFile(indexFile.toAbsolutePath().getParent(), "file-hashes", ".tmp");
+                Files.write(tempFile, lines, StandardCharsets.UTF_8);
+                Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                LOGGER.warn("Could not save the file hash index {}: {}", indexFile, e.toString());
+            } finally {
+                if (tempFile != null) {
+                    try {
+                        Files.deleteIfExists(tempFile);
+                    } catch (IOException ignored) {}
+                }
+            }
+        }
+    }
+
+    private static Map<String, Entry> readIndexFile(Path indexFile) {
+        final Map<String, Entry> read = new TreeMap<>();
+        final List<String> lines;
+        try {
+            lines = Files.readAllLines(indexFile, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return read;
+        } catch (IOException e) {
+            LOGGER.warn("Could not read the file hash index {}: {}", indexFile, e.toString());
+            return read;
+        }
+        if (lines.isEmpty() || !HEADER.equals(lines.getFirst())) {
+            return read;
+        }
+        for (String line : lines.subList(1, lines.size())) {
+            // digest size modifiedNanos inode path
+            final String[] parts = line.split("\t", 5);
+            if (parts.length != 5) {
+                continue;
+            }
+            try {
+                read.put(
+                        parts[4],
+                        new Entry(
+                                Long.parseLong(parts[1]),
+                                Long.parseLong(parts[2]),
+                                parts[3],
+                                Hex.decodeHex(parts[0])));
+            } catch (NumberFormatException | DecoderException e) {
+                // Skip corrupted lines, the files will just get rehashed
+            }
+        }
+        return read;
+    }
+
+    private static String inodeOf(BasicFileAttributes attrs) {
+        final Object fileKey = attrs.fileKey();
+        return fileKey == null ? "" : fileKey.toString();
+    }
+}
@@ -0,0 +1,96 @@
+package com.gtnewhorizons.retrofuturagradle.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+/**
+ * Puts copies of (usually large) jar files into place with as little I/O as possible: a hardlink where it's safe, a
+ * kernel-side clone via {@link FileChannel#transferTo} (copy_file_range, which reflinks on copy-on-write filesystems
+ * like btrfs and xfs), and a plain copy only if both of those fail.
+ */
+public final class FileMaterializer {
+
+    private FileMaterializer() {}
+
+    private static final Logger LOGGER = Logging.getLogger("RFG");
+
+    private static final AtomicLong fallbackBytesCopied = new AtomicLong();
+
+    public enum Method {
+        HARDLINK,
+        CLONE,
+        COPY
+    }
+
+    /**
+     * Makes destination have the same contents and modification time as source, replacing it if it already exists.
+     *
+     * @param allowHardlink Whether destination may share its storage with source, only safe if neither of the files
+     *                      will be modified in place afterwards, e.g. for read-only working copies of inputs or when
+     *                      the source gets deleted right after
+     * @return How the file was materialized
+     */
+    public static Method materialize(File source, File destination, boolean allowHardlink) throws IOException {
+        final Path src = source.toPath();
+        final Path dst = destination.toPath();
+        final Path dstParent = dst.toAbsolutePath().getParent();
+        if (dstParent != null) {
+            Files.createDirectories(dstParent);
+        }
+        // Never write through an existing hardlink into another file
+        Files.deleteIfExists(dst);
+
+        if (allowHardlink) {
+            try {
+                Files.createLink(dst, src);
+                return Method.HARDLINK;
+            } catch (IOException | UnsupportedOperationException | SecurityException e) {
+                // Different filesystems, no hardlink support or not permitted
+                LOGGER.debug("Could not hardlink {} to {}: {}", src, dst, e.toString());
+                Files.deleteIfExists(dst);
+            }
+        }
+
+        final long size = Files.size(src);
+        try (final FileChannel in = FileChannel.open(src, StandardOpenOption.READ);
+                final FileChannel out = FileChannel
+                        .open(dst, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            long position = 0;
+            while (position < size) {
+                final long transferred = in.transferTo(position, size - position, out);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+            }
+            if (position == size) {
+                Files.setLastModifiedTime(dst, Files.getLastModifiedTime(src));
+                return Method.CLONE;
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Could not clone {} to {}: {}", src, dst, e.toString());
+        }
+
+        Files.deleteIfExists(dst);
+        Files.copy(src, dst);
+        Files.setLastModifiedTime(dst, Files.getLastModifiedTime(src));
+        final long total = fallbackBytesCopied.addAndGet(size);
+        LOGGER.info("Copied {} bytes from {} to {} ({} bytes copied in total)", size, src, dst, total);
+        return Method.COPY;
+    }
+
+    /**
+     * @return The number of bytes copied by the slow fallback path since the daemon started
+     */
+    public static long getFallbackBytesCopied() {
+        return fallbackBytesCopied.get();
+    }
+}
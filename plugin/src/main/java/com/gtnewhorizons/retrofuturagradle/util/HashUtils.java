@@ -5,16 +5,15 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
-import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.io.FileUtils;
 import org.gradle.api.file.ConfigurableFileCollection;
 import org.gradle.api.file.ConfigurableFileTree;
@@ -28,21 +27,36 @@ public class HashUtils {
 
     private HashUtils() {}
 
-    private static class FileHashCacheEntry {
+    public static final boolean DEBUG_LOG = false;
 
-        public long lastModified;
-        public byte[] digest;
+    private static volatile FileHashIndex fileHashIndex = new FileHashIndex(null);
 
-        public FileHashCacheEntry(long lastModified, byte[] digest) {
-            this.lastModified = lastModified;
-            this.digest = digest;
+    /**
+     * Persists file hashes across daemons in the given index file, called when the plugin is applied.
+     */
+    public static synchronized void useFileHashIndex(Path indexFile) {
+        if (!indexFile.equals(fileHashIndex.getIndexFile())) {
+            fileHashIndex.flush();
+            fileHashIndex = new FileHashIndex(indexFile);
         }
     }
 
-    public static final boolean DEBUG_LOG = false;
+    /**
+     * Saves newly calculated file hashes to the persistent index, if there is one.
+     */
+    public static void flushFileHashIndex() {
+        fileHashIndex.flush();
+    }
 
-    private static DigestUtils utils = new DigestUtils(DigestUtils.getSha256Digest());
-    private static Map<File, FileHashCacheEntry> fileHashCache = new HashMap<>();
+    /**
+     * @return The lowercase hex SHA-256 digest of everything the given consumer feeds into a fresh digest, usable as a
+     *         content-addressed cache key.
+     */
+    public static String digestToHex(MessageDigestConsumer hasher) {
+        final MessageDigest digest = DigestUtils.getSha256Digest();
+        hasher.accept(digest);
+        return Hex.encodeHexString(digest.digest());
+    }
 
     public static MessageDigestConsumer addToHash(String value) {
         if (DEBUG_LOG) {
@@ -77,21 +91,15 @@ public class HashUtils {
                 addToHash(0).accept(digest);
                 return;
             }
-            final File absoluteFile = file.getAbsoluteFile();
-            final FileHashCacheEntry cacheEntry = fileHashCache.compute(absoluteFile, (f, fhce) -> {
-                if (fhce == null || fhce.lastModified < f.lastModified()) {
-                    try {
-                        return new FileHashCacheEntry(f.lastModified(), utils.digest(f));
-                    } catch (IOException e) {
-                        throw new RuntimeException("Could not hash file " + f, e);
-                    }
-                } else {
-                    return fhce;
-                }
-            });
-            digest.update(cacheEntry.digest);
+            final byte[] fileDigest;
+            try {
+                fileDigest = fileHashIndex.getDigest(file);
+            } catch (IOException e) {
+                throw new RuntimeException("Could not hash file " + file, e);
+            }
+            digest.update(fileDigest);
             if (DEBUG_LOG) {
-                System.err.println(" = " + Hex.encodeHexString(cacheEntry.digest));
+                System.err.println(" = " + Hex.encodeHexString(fileDigest));
             }
         };
     }
@@ -106,9 +114,9 @@ public class HashUtils {
                 return;
             }
             List<File> files = new ArrayList<>();
-            files.addAll(CollectionUtils.collect(FileUtils.iterateFiles(dir, null, true), o -> o));
+            FileUtils.iterateFiles(dir, null, true).forEachRemaining(files::add);
             files.sort(Comparator.naturalOrder());
-            files.forEach(f -> addFileContentsToHash(f).accept(digest));
+            addSortedFilesToHash(files, digest);
         };
     }
 
@@ -120,10 +128,42 @@ public class HashUtils {
             List<File> files = new ArrayList<>();
             files.addAll(fc.getFiles());
             files.sort(Comparator.naturalOrder());
-            files.forEach(f -> addFileContentsToHash(f).accept(digest));
+            addSortedFilesToHash(files, digest);
         };
     }
 
+    /**
+     * Hashes all the files of the already sorted list in parallel (reusing the persistent index for unchanged files),
+     * keeps their digests in memory, and only then feeds them in list order. This produces exactly the same result as
+     * calling {@link #addFileContentsToHash(File)} for each file in turn, nothing is streamed or hashed per directory.
+     */
+    private static void addSortedFilesToHash(List<File> files, MessageDigest digest) {
+        final List<byte[]> fileDigests = files.parallelStream().map(file -> {
+            if (!file.exists()) {
+                return null;
+            }
+            try {
+                return fileHashIndex.getDigest(file);
+            } catch (IOException e) {
+                throw new RuntimeException("Could not hash file " + file, e);
+            }
+        }).toList();
+        for (int i = 0; i < files.size(); i++) {
+            final byte[] fileDigest = fileDigests.get(i);
+            if (DEBUG_LOG) {
+                System.err.println(
+                        "hash file {" + files.get(i)
+                                + "} = "
+                                + (fileDigest == null ? "not exists (0)" : Hex.encodeHexString(fileDigest)));
+            }
+            if (fileDigest == null) {
+                addToHash(0).accept(digest);
+            } else {
+                digest.update(fileDigest);
+            }
+        }
+    }
+
     public static MessageDigestConsumer addPropertyToHash(RegularFileProperty prop) {
         if (DEBUG_LOG) {
             System.err.println("hash rfp");
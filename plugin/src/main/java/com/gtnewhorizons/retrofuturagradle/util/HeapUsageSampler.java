@@ -0,0 +1,105 @@
+package com.gtnewhorizons.retrofuturagradle.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.Nullable;
+
+import org.gradle.api.logging.Logger;
+
+/**
+ * Samples the used heap of the JVM from a background thread while a task runs, to log how much memory its stages
+ * need. Unlike the memory pool peaks this doesn't touch any JVM-wide state, but the numbers still include everything
+ * else running in the same Gradle daemon at the time. Only runs when the task logs at info level (--info), otherwise
+ * all methods do nothing.
+ */
+public final class HeapUsageSampler implements AutoCloseable {
+
+    private static final long SAMPLE_INTERVAL_NS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final AtomicLong peakUsed = new AtomicLong();
+    private final @Nullable Logger logger;
+    private final @Nullable Thread thread;
+    private volatile boolean running = true;
+    private long periodStartUsed;
+
+    private HeapUsageSampler(@Nullable Logger logger) {
+        this.logger = logger;
+        if (logger != null) {
+            thread = new Thread(this::run, "RFG heap usage sampler");
+            thread.setDaemon(true);
+        } else {
+            thread = null;
+        }
+    }
+
+    /**
+     * Starts sampling if the logger has info enabled, close the sampler when the measured work is done.
+     */
+    public static HeapUsageSampler start(Logger logger) {
+        final HeapUsageSampler sampler = new HeapUsageSampler(logger.isInfoEnabled() ? logger : null);
+        if (sampler.thread != null) {
+            sampler.startPeriod();
+            sampler.thread.start();
+        }
+        return sampler;
+    }
+
+    /**
+     * Starts a new measurement period, the peak is reset to the current usage.
+     */
+    public void startPeriod() {
+        if (logger == null) {
+            return;
+        }
+        periodStartUsed = sample();
+        peakUsed.set(periodStartUsed);
+    }
+
+    /**
+     * Logs the heap usage at the start and end of the current period, and the peak in between, at info level.
+     *
+     * @param period What ran in the period, starts the log line
+     */
+    public void logPeriod(String period) {
+        if (logger == null) {
+            return;
+        }
+        final long used = sample();
+        logger.info(
+                "  {} heap usage {} MB -> {} MB, peak {} MB",
+                period,
+                toMb(periodStartUsed),
+                toMb(used),
+                toMb(peakUsed.get()));
+    }
+
+    private long sample() {
+        final long used = memory.getHeapMemoryUsage().getUsed();
+        peakUsed.accumulateAndGet(used, Math::max);
+        return used;
+    }
+
+    private void run() {
+        while (running) {
+            sample();
+            LockSupport.parkNanos(SAMPLE_INTERVAL_NS);
+        }
+    }
+
+    private static long toMb(long bytes) {
+        return bytes / (1024 * 1024);
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+}
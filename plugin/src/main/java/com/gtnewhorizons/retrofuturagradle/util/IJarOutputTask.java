@@ -2,6 +2,8 @@ package com.gtnewhorizons.retrofuturagradle.util;
 
 import org.gradle.api.Task;
 import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.OutputFile;
 
 public interface IJarOutputTask extends Task {
@@ -9,6 +11,14 @@ public interface IJarOutputTask extends Task {
     @OutputFile
     RegularFileProperty getOutputJar();
 
+    /**
+     * How the entries the task writes into the output jar get compressed, {@link JarCompression#DEFAULT} if not set.
+     * Set to {@link JarCompression#STORED} by {@link JarChain} for outputs that are deleted after the next task reads
+     * them. Tasks that let an external tool write the jar ignore it, except for FG2.3 decompilation.
+     */
+    @Internal
+    Property<JarCompression> getOutputCompression();
+
     /**
      * @return A function that updates this digest with a hash of all the non-jar inputs.
      */
@@ -16,12 +16,14 @@ import org.apache.commons.io.FileUtils;
 import org.gradle.api.Action;
 import org.gradle.api.Task;
 import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.TaskProvider;
 
 import com.gtnewhorizons.retrofuturagradle.Constants;
 
 /**
- * A utility to remove outputs of intermediary tasks if the inputs don't change.
+ * A utility to remove outputs of intermediary tasks if the inputs don't change. The intermediary outputs are written
+ * uncompressed, as they are only read once by the next task in the chain.
  */
 public class JarChain {
 
@@ -42,6 +44,7 @@ public class JarChain {
     private List<TaskProvider<? extends IJarOutputTask>> taskChain = new ArrayList<>();
     private boolean eager = false;
     private List<RegularFileProperty> taskChainOutputs = new ArrayList<>();
+    private List<Property<JarCompression>> taskChainCompressions = new ArrayList<>();
     private List<MessageDigestConsumer> taskChainHashers = new ArrayList<>();
 
     private boolean wasUpToDate = false;
@@ -69,6 +72,7 @@ public class JarChain {
         final IJarOutputTask eagerTask = newTask.get();
         if (action.doCleanup) {
             taskChainOutputs.add(eagerTask.getOutputJar());
+            taskChainCompressions.add(eagerTask.getOutputCompression());
         }
         if (action.doHooks) {
             taskChainHashers.add(eagerTask.hashInputs());
@@ -84,7 +88,12 @@ public class JarChain {
             return;
         }
         getLastTask().configure(lastTask -> { lastTask.doLast("Jar Chain finalizer", new FinalizerAction()); });
+        // Matches the outputs deleted by the finalizer
+        for (int i = 0; i < taskChainCompressions.size() - 1; i++) {
+            taskChainCompressions.get(i).set(JarCompression.STORED);
+        }
         taskChain = Collections.emptyList(); // Don't persistently store full Task references
+        taskChainCompressions = Collections.emptyList();
     }
 
     private class FinalizerAction implements Action<Task> {
@@ -163,6 +172,7 @@ public class JarChain {
             t.accept(inputsHasher);
         }
         final byte[] digest = inputsHasher.digest();
+        HashUtils.flushFileHashIndex();
         return Hex.encodeHexString(digest).trim();
     }
 }
@@ -0,0 +1,53 @@
+package com.gtnewhorizons.retrofuturagradle.util;
+
+import java.io.IOException;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+
+/**
+ * How the newly written entries of a jar are compressed.
+ */
+public enum JarCompression {
+
+    /** Not compressed at all, for intermediate jars that are only read back by the next step */
+    STORED(ZipEntry.STORED, Deflater.NO_COMPRESSION),
+    /** Deflated with the fastest compression level */
+    FASTEST(ZipEntry.DEFLATED, Deflater.BEST_SPEED),
+    /** Deflated with the default compression level, like most jar tools do */
+    DEFAULT(ZipEntry.DEFLATED, Deflater.DEFAULT_COMPRESSION);
+
+    /** The zip compression method, {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED} */
+    public final int method;
+    /** The {@link Deflater} level, only used for deflated entries */
+    public final int level;
+
+    JarCompression(int method, int level) {
+        this.method = method;
+        this.level = level;
+    }
+
+    public void configure(ZipArchiveOutputStream out) {
+        out.setMethod(method);
+        if (method == ZipEntry.DEFLATED) {
+            out.setLevel(level);
+        }
+    }
+
+    /**
+     * Writes a whole entry into a {@link ZipOutputStream}, which needs the size and checksum of stored entries before
+     * their contents.
+     */
+    public void putEntry(ZipOutputStream out, ZipEntry entry, byte[] contents) throws IOException {
+        if (method == ZipEntry.STORED) {
+            Utilities.putStoredZipEntry(out, entry, contents);
+            return;
+        }
+        out.setLevel(level);
+        out.putNextEntry(entry);
+        out.write(contents);
+        out.closeEntry();
+    }
+}
@@ -0,0 +1,189 @@
+package com.gtnewhorizons.retrofuturagradle.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Builds a jar out of independent per-entry jobs: entry contents are read on a small bounded pool, transformed in
+ * parallel on a {@link ForkJoinPool}, and written by the calling thread in entry name order, so the output is
+ * byte-for-byte the same regardless of the parallelism and scheduling.
+ */
+public final class ParallelJarTransformer {
+
+    /** Reading entries is mostly I/O and decompression, more threads than this don't help */
+    private static final int MAX_READ_THREADS = 4;
+    /** How many entries per transform thread can be processed ahead of the writer, bounds the memory usage */
+    private static final int ENTRIES_IN_FLIGHT_PER_THREAD = 16;
+
+    /**
+     * Reads the input(s) of an entry, e.g. from a {@link java.util.zip.ZipFile}.
+     *
+     * @param <T> The type of the read data, usually a byte array
+     */
+    @FunctionalInterface
+    public interface EntryReader<T> {
+
+        T read() throws IOException;
+    }
+
+    /**
+     * Turns the read data into the final contents of an entry.
+     *
+     * @param <T> The type of the read data, usually a byte array
+     */
+    @FunctionalInterface
+    public interface EntryTransformer<T> {
+
+        /**
+         * Must be a pure function of its input, it can be called on any thread.
+         *
+         * @return The new contents of the entry, or null to leave the entry out of the jar
+         */
+        byte[] transform(T input) throws IOException;
+    }
+
+    private record Job<T>(String name, EntryReader<T> reader, EntryTransformer<T> transformer) {
+
+        byte[] transform(T input) throws IOException {
+            return (input == null) ? null : transformer.transform(input);
+        }
+
+        byte[] run() throws IOException {
+            return transform(reader.read());
+        }
+    }
+
+    private final int parallelism;
+    private final Map<String, Job<?>> jobs = new TreeMap<>();
+
+    /**
+     * @param parallelism The maximum number of threads transforming entries at the same time, 1 runs everything on the
+     *                    calling thread
+     */
+    public ParallelJarTransformer(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Adds an entry to the output jar, the entries are written sorted by name.
+     */
+    public <T> void addEntry(String name, EntryReader<T> reader, EntryTransformer<T> transformer) {
+        if (jobs.putIfAbsent(name, new Job<>(name, reader, transformer)) != null) {
+            throw new IllegalArgumentException("Duplicate jar entry " + name);
+        }
+    }
+
+    /**
+     * Adds an entry copied as-is to the output jar, the entries are written sorted by name.
+     */
+    public void addEntry(String name, EntryReader<byte[]> reader) {
+        addEntry(name, reader, contents -> contents);
+    }
+
+    public boolean hasEntry(String name) {
+        return jobs.containsKey(name);
+    }
+
+    /**
+     * Runs all the jobs and writes their results into the given zip stream.
+     *
+     * @param entryFactory Creates the zip entry for an entry name, e.g. to set a constant timestamp for reproducibility
+     */
+    public void writeTo(ZipOutputStream out, Function<String, ZipEntry> entryFactory) throws IOException {
+        writeTo(out, entryFactory, JarCompression.DEFAULT);
+    }
+
+    /**
+     * Runs all the jobs and writes their results into the given zip stream.
+     *
+     * @param entryFactory Creates the zip entry for an entry name, e.g. to set a constant timestamp for reproducibility
+     * @param compression  How the entries get compressed
+     */
+    public void writeTo(ZipOutputStream out, Function<String, ZipEntry> entryFactory, JarCompression compression)
+            throws IOException {
+        final List<Job<?>> sortedJobs = new ArrayList<>(jobs.values());
+        if (parallelism == 1 || sortedJobs.size() <= 1) {
+            for (Job<?> job : sortedJobs) {
+                writeEntry(out, entryFactory, compression, job.name(), job.run());
+            }
+            return;
+        }
+
+        final AtomicInteger readerId = new AtomicInteger();
+        final ExecutorService readPool = Executors.newFixedThreadPool(Math.min(parallelism, MAX_READ_THREADS), r -> {
+            final Thread thread = new Thread(r, "RFG jar reader " + readerId.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        final ForkJoinPool transformPool = new ForkJoinPool(parallelism);
+        try {
+            final int window = parallelism * ENTRIES_IN_FLIGHT_PER_THREAD;
+            final ArrayDeque<CompletableFuture<byte[]>> inFlight = new ArrayDeque<>(window);
+            int submitted = 0;
+            for (int written = 0; written < sortedJobs.size(); written++) {
+                while (submitted < sortedJobs.size() && submitted < written + window) {
+                    inFlight.add(submit(sortedJobs.get(submitted++), readPool, transformPool));
+                }
+                writeEntry(out, entryFactory, compression, sortedJobs.get(written).name(), await(inFlight.poll()));
+            }
+        } finally {
+            readPool.shutdownNow();
+            transformPool.shutdownNow();
+        }
+    }
+
+    private static <T> CompletableFuture<byte[]> submit(Job<T> job, ExecutorService readPool,
+            ForkJoinPool transformPool) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return job.reader().read();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, readPool).thenApplyAsync(input -> {
+            try {
+                return job.transform(input);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, transformPool);
+    }
+
+    private static byte[] await(CompletableFuture<byte[]> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException uioe) {
+                throw uioe.getCause();
+            } else if (cause instanceof RuntimeException re) {
+                throw re;
+            } else if (cause instanceof Error err) {
+                throw err;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private static void writeEntry(ZipOutputStream out, Function<String, ZipEntry> entryFactory,
+            JarCompression compression, String name, byte[] contents) throws IOException {
+        if (contents == null) {
+            return;
+        }
+        compression.putEntry(out, entryFactory.apply(name), contents);
+    }
+}
@@ -1,17 +1,23 @@
 package com.gtnewhorizons.retrofuturagradle.util;
 
 import java.util.Map;
+import java.util.function.Function;
 
 import org.objectweb.asm.commons.Remapper;
 
 /**
- * A {@link Remapper} using a {@link Map} to define its mapping, using simple SRG-style mappings.
+ * A {@link Remapper} using a {@link Map} or any other lookup function (returning null for unmapped names) to define its
+ * mapping, using simple SRG-style mappings.
  */
 public class SimpleSrgRemapper extends Remapper {
 
-    private final Map<String, String> mapping;
+    private final Function<String, String> mapping;
 
     public SimpleSrgRemapper(final Map<String, String> mapping) {
+        this.mapping = mapping::get;
+    }
+
+    public SimpleSrgRemapper(final Function<String, String> mapping) {
         this.mapping = mapping;
     }
 
@@ -41,6 +47,6 @@ public class SimpleSrgRemapper extends Remapper {
 
     @Override
     public String map(final String key) {
-        return mapping.get(key);
+        return mapping.apply(key);
     }
 }
@@ -0,0 +1,67 @@
+package com.gtnewhorizons.retrofuturagradle.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A java source file of an in-memory jar. It is kept in whichever form the last stage produced it in, text or lines,
+ * and only converted to the other form when a stage asks for it, so consecutive line-based stages like patching don't
+ * re-split and re-join the file every time.
+ */
+public final class SourceFile {
+
+    private static final Pattern LINE_SEPARATOR = Pattern.compile("\r\n|\r|\n");
+
+    private String text;
+    private List<String> lines;
+
+    private SourceFile(String text, List<String> lines) {
+        this.text = text;
+        this.lines = lines;
+    }
+
+    public static SourceFile ofText(String text) {
+        return new SourceFile(text, null);
+    }
+
+    /**
+     * @param lines The lines of the file without line separators, must not be modified afterwards
+     */
+    public static SourceFile ofLines(List<String> lines) {
+        return new SourceFile(null, Collections.unmodifiableList(lines));
+    }
+
+    /**
+     * @return The file contents, lines are joined with the system line separator
+     */
+    public synchronized String getText() {
+        if (text == null) {
+            text = String.join(System.lineSeparator(), lines);
+        }
+        return text;
+    }
+
+    /**
+     * @return An unmodifiable list of the file's lines, trailing empty lines are dropped
+     */
+    public synchronized List<String> getLines() {
+        if (lines == null) {
+            lines = Collections.unmodifiableList(Arrays.asList(LINE_SEPARATOR.split(text)));
+        }
+        return lines;
+    }
+
+    /**
+     * Writes the UTF-8 encoded text of the file, without keeping the joined text of line-based files around.
+     */
+    public synchronized void writeTo(OutputStream out) throws IOException {
+        // One write per file, small writes are slow on deflating zip streams
+        final String contents = (text != null) ? text : String.join(System.lineSeparator(), lines);
+        out.write(contents.getBytes(StandardCharsets.UTF_8));
+    }
+}
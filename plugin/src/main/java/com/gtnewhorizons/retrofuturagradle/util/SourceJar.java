@@ -0,0 +1,125 @@
+package com.gtnewhorizons.retrofuturagradle.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.io.IOUtils;
+
+import com.gtnewhorizons.retrofuturagradle.mcp.DeobfuscateTask;
+
+/**
+ * A jar of java sources that gets transformed in memory. Only the .java files are decoded, all other entries stay in
+ * the input jar and are copied over without being decompressed when the jar is written. META-INF entries are dropped.
+ * Entries are always written sorted by name with a constant timestamp, so the same contents give the same jar bytes.
+ * The input jar is kept open until the source jar is closed.
+ */
+public final class SourceJar implements Closeable {
+
+    private final ZipFile inputJar;
+    /** Entries copied as-is from the input jar */
+    private final Map<String, ZipArchiveEntry> copiedEntries = new HashMap<>();
+    /** Non-source entries added after loading */
+    private final Map<String, byte[]> addedResources = new HashMap<>();
+    private final Map<String, SourceFile> sources = new ConcurrentHashMap<>();
+
+    private SourceJar(ZipFile inputJar) {
+        this.inputJar = inputJar;
+    }
+
+    /**
+     * Opens a jar and decodes all its java sources.
+     */
+    public static SourceJar read(File jar) throws IOException {
+        final SourceJar sourceJar = new SourceJar(ZipFile.builder().setFile(jar).get());
+        try {
+            final Enumeration<ZipArchiveEntry> entries = sourceJar.inputJar.getEntries();
+            while (entries.hasMoreElements()) {
+                final ZipArchiveEntry entry = entries.nextElement();
+                final String name = entry.getName();
+                if (name.contains("META-INF")) {
+                    continue;
+                }
+                if (entry.isDirectory() || !name.endsWith(".java")) {
+                    sourceJar.copiedEntries.put(name, entry);
+                } else {
+                    try (final InputStream is = sourceJar.inputJar.getInputStream(entry)) {
+                        sourceJar.sources.put(name, SourceFile.ofText(IOUtils.toString(is, StandardCharsets.UTF_8)));
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            sourceJar.close();
+            throw e;
+        }
+        return sourceJar;
+    }
+
+    /**
+     * @return The mutable, thread-safe map of entry names to java sources
+     */
+    public Map<String, SourceFile> getSources() {
+        return sources;
+    }
+
+    /**
+     * Adds or replaces a non-source entry.
+     */
+    public void putResource(String name, byte[] contents) {
+        copiedEntries.remove(name);
+        addedResources.put(name, contents);
+    }
+
+    /**
+     * Writes all the entries into a new jar, overwriting the target file.
+     *
+     * @param compression How the sources and added resources get compressed, the entries copied from the input jar
+     *                    keep their original compression
+     */
+    public File write(File target, JarCompression compression) throws IOException {
+        final TreeSet<String> names = new TreeSet<>(sources.keySet());
+        names.addAll(copiedEntries.keySet());
+        names.addAll(addedResources.keySet());
+        try (final ZipArchiveOutputStream out = new ZipArchiveOutputStream(target)) {
+            compression.configure(out);
+            for (String name : names) {
+                final SourceFile source = sources.get(name);
+                final byte[] resource = addedResources.get(name);
+                if (source != null || resource != null) {
+                    final ZipArchiveEntry entry = new ZipArchiveEntry(name);
+                    entry.setTime(DeobfuscateTask.CONSTANT_TIME_FOR_ZIP_ENTRIES);
+                    out.putArchiveEntry(entry);
+                    if (source != null) {
+                        source.writeTo(out);
+                    } else {
+                        out.write(resource);
+                    }
+                    out.closeArchiveEntry();
+                } else {
+                    final ZipArchiveEntry original = copiedEntries.get(name);
+                    final ZipArchiveEntry copy = new ZipArchiveEntry(original);
+                    copy.setTime(DeobfuscateTask.CONSTANT_TIME_FOR_ZIP_ENTRIES);
+                    try (final InputStream raw = inputJar.getRawInputStream(original)) {
+                        out.addRawArchiveEntry(copy, raw);
+                    }
+                }
+            }
+        }
+        return target;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inputJar.close();
+    }
+}
@@ -0,0 +1,237 @@
+package com.gtnewhorizons.retrofuturagradle.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import javax.annotation.Nullable;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import com.gtnewhorizons.retrofuturagradle.mcp.RfgCacheService;
+
+/**
+ * Memoizes a deterministic per-file source transformation, like one of the decompiled source cleanup stages. Results
+ * are keyed by the hash of the file's path and contents, or by a key the caller computes from its own inputs, so that
+ * unchanged files don't have to be processed again when only some of them change. The results of one stage
+ * configuration are spread over {@value #SHARD_COUNT} shards by key, each stored as its own artifact in the
+ * {@link RfgCacheService} artifact store. All shards are restored up front by {@link #load}, on the calling thread, so
+ * lookups from parallel workers never touch the store. Saving merges the new results into the stored ones, so projects
+ * using the same stage configuration on different files don't evict each other's results. Safe to use from multiple
+ * threads.
+ */
+public final class SourceStageCache {
+
+    public static final String ARTIFACT_KIND = "source-stages";
+
+    /**
+     * Number of artifacts the results of a stage are spread over, a power of two. A few shards keep the artifacts that
+     * have to be rewritten when a few files change small, without many store lookups per stage.
+     */
+    private static final int SHARD_COUNT = 8;
+
+    /**
+     * Once a shard holds more results than this, the results not used in the current run are dropped from it when it's
+     * saved, so that shards don't grow forever with the results of files that changed since
+     */
+    private static final int MAX_SHARD_ENTRIES = 4096;
+
+    @FunctionalInterface
+    public interface Transform {
+
+        String apply(String text) throws IOException;
+    }
+
+    private final @Nullable RfgCacheService cacheService;
+    private final String[] shardKeys = new String[SHARD_COUNT];
+    private final File tempDir;
+    /** Stored results of every shard, by shard key, only replaced when saving */
+    private final Map<String, Map<String, String>> storedShards = new ConcurrentHashMap<>();
+    /** Results computed in this run that weren't stored yet */
+    private final Map<String, String> newResults = new ConcurrentHashMap<>();
+    /** Keys of the stored results used in this run */
+    private final Set<String> usedKeys = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    private SourceStageCache(@Nullable RfgCacheService cacheService, String cacheKey, File tempDir) {
+        this.cacheService = cacheService;
+        for (int shard = 0; shard < SHARD_COUNT; shard++) {
+            shardKeys[shard] = HashUtils
+                    .digestToHex(HashUtils.addToHash(cacheKey).andThen(HashUtils.addToHash(shard)));
+        }
+        this.tempDir = tempDir;
+    }
+
+    /**
+     * Restores the stored results of a stage.
+     *
+     * @param cacheService The cache to load results from, or null to not cache anything
+     * @param configHash   Hashes everything other than the file contents that influences the stage's output
+     * @param tempDir      A directory for temporary files
+     */
+    public static SourceStageCache load(@Nullable RfgCacheService cacheService, MessageDigestConsumer configHash,
+            File tempDir) throws IOException {
+        final String cacheKey = HashUtils.digestToHex(HashUtils.addToHash(ARTIFACT_KIND).andThen(configHash));
+        final SourceStageCache cache = new SourceStageCache(cacheService, cacheKey, tempDir);
+        if (cacheService != null) {
+            for (String shardKey : cache.shardKeys) {
+                cache.storedShards.put(shardKey, cache.readShard(shardKey));
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * @return The cached result for this file, or the result of the transform if there is none
+     */
+    public String apply(String path, String text, Transform transform) throws IOException {
+        final String fileKey = hashFile(path, text);
+        String result = lookup(fileKey);
+        if (result != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            result = transform.apply(text);
+            newResults.put(fileKey, result);
+        }
+        return result;
+    }
+
+    /**
+     * Looks up a result by a key computed by the caller.
+     *
+     * @return The cached result, or null if the result has to be computed and {@link #put(String, String) put} again
+     */
+    public @Nullable String get(String key) {
+        final String result = lookup(key);
+        if (result != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return result;
+    }
+
+    /**
+     * Stores a result computed after a {@link #get(String)} miss.
+     */
+    public void put(String key, String result) {
+        newResults.put(key, result);
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    public int getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Adds the results computed since loading to the stored shards they belong to. Shards without new results are left
+     * as they are.
+     */
+    public void save() throws IOException {
+        if (cacheService == null || newResults.isEmpty()) {
+            return;
+        }
+        final Map<String, Map<String, String>> newShards = new HashMap<>();
+        for (Map.Entry<String, String> result : newResults.entrySet()) {
+            newShards.computeIfAbsent(getShardKey(result.getKey()), k -> new HashMap<>())
+                    .put(result.getKey(), result.getValue());
+        }
+        for (Map.Entry<String, Map<String, String>> shard : newShards.entrySet()) {
+            final Map<String, String> contents = new TreeMap<>(storedShards.get(shard.getKey()));
+            if (contents.size() + shard.getValue().size() > MAX_SHARD_ENTRIES) {
+                contents.keySet().retainAll(usedKeys);
+            }
+            contents.putAll(shard.getValue());
+            writeShard(shard.getKey(), contents);
+            storedShards.put(shard.getKey(), contents);
+        }
+        newResults.clear();
+    }
+
+    private @Nullable String lookup(String key) {
+        if (cacheService == null) {
+            return null;
+        }
+        final String result = storedShards.get(getShardKey(key)).get(key);
+        if (result != null) {
+            usedKeys.add(key);
+        }
+        return result;
+    }
+
+    private String getShardKey(String key) {
+        return shardKeys[key.hashCode() & (SHARD_COUNT - 1)];
+    }
+
+    private Map<String, String> readShard(String shardKey) throws IOException {
+        final File pack = new File(tempDir, "stage-" + shardKey + ".jar");
+        try {
+            if (!cacheService.restoreArtifact(ARTIFACT_KIND, shardKey, pack)) {
+                return Collections.emptyMap();
+            }
+            final Map<String, String> contents = new HashMap<>();
+            try (final FileInputStream fis = new FileInputStream(pack);
+                    final BufferedInputStream bis = new BufferedInputStream(fis);
+                    final ZipInputStream zis = new ZipInputStream(bis)) {
+                ZipEntry entry;
+                while ((entry = zis.getNextEntry()) != null) {
+                    contents.put(entry.getName(), IOUtils.toString(zis, StandardCharsets.UTF_8));
+                }
+            }
+            return contents;
+        } finally {
+            FileUtils.deleteQuietly(pack);
+        }
+    }
+
+    private void writeShard(String shardKey, Map<String, String> contents) throws IOException {
+        final File pack = new File(tempDir, "stage-" + shardKey + ".jar");
+        try {
+            try (final FileOutputStream fos = new FileOutputStream(pack);
+                    final BufferedOutputStream bos = new BufferedOutputStream(fos);
+                    final ZipOutputStream zos = new ZipOutputStream(bos)) {
+                zos.setLevel(Deflater.BEST_SPEED);
+                for (Map.Entry<String, String> result : contents.entrySet()) {
+                    zos.putNextEntry(new ZipEntry(result.getKey()));
+                    zos.write(result.getValue().getBytes(StandardCharsets.UTF_8));
+                    zos.closeEntry();
+                }
+            }
+            cacheService.storeArtifact(ARTIFACT_KIND, shardKey, pack);
+        } finally {
+            FileUtils.deleteQuietly(pack);
+        }
+    }
+
+    private static String hashFile(String path, String text) {
+        final MessageDigest digest = DigestUtils.getSha256Digest();
+        digest.update(path.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(text.getBytes(StandardCharsets.UTF_8));
+        return Hex.encodeHexString(digest.digest());
+    }
+}
@@ -0,0 +1,158 @@
+package com.gtnewhorizons.retrofuturagradle.util;
+
+import java.util.function.UnaryOperator;
+
+/**
+ * A hand-written scanner for SRG names (func_123_g/field_1_p/p_123_1_) in source code. It finds exactly the same
+ * tokens as the regex {@code (func_\d+_[a-zA-Z_]+|field_\d+_[a-zA-Z_]+|p_\w+_\d+_)([^\w$]|$)} used to, but without
+ * creating matchers, groups or builders for lines that contain no SRG names.
+ */
+public final class SrgTokenScanner {
+
+    private SrgTokenScanner() {}
+
+    /**
+     * Replaces all SRG names in the line.
+     *
+     * @param mapping Maps a found SRG name to its replacement, may return the name itself
+     * @param buffer  A reusable buffer for building the new line, its previous contents are discarded
+     * @return The same line instance if nothing was replaced, otherwise the remapped line
+     */
+    public static String remapTokens(String line, UnaryOperator<String> mapping, StringBuilder buffer) {
+        final int length = line.length();
+        int copiedUpTo = 0;
+        int i = 0;
+        while (i < length) {
+            final int end = matchToken(line, i);
+            if (end < 0) {
+                i++;
+                continue;
+            }
+            final String token = line.substring(i, end);
+            final String mapped = mapping.apply(token);
+            if (mapped != null && !mapped.equals(token)) {
+                if (copiedUpTo == 0) {
+                    buffer.setLength(0);
+                }
+                buffer.append(line, copiedUpTo, i);
+                buffer.append(mapped);
+                copiedUpTo = end;
+            }
+            // The character after a token can never start another one
+            i = end;
+        }
+        if (copiedUpTo == 0) {
+            return line;
+        }
+        buffer.append(line, copiedUpTo, length);
+        return buffer.toString();
+    }
+
+    /**
+     * Finds the next SRG name in the text.
+     *
+     * @return The start index of the next SRG name at or after from, or -1 if there is none, use
+     *         {@link #matchToken(CharSequence, int)} to get its end
+     */
+    public static int findToken(CharSequence text, int from) {
+        final int length = text.length();
+        for (int i = Math.max(0, from); i < length; i++) {
+            if (matchToken(text, i) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return The end index (exclusive) of the SRG name starting exactly at start, or -1 if there is none
+     */
+    public static int matchToken(CharSequence text, int start) {
+        final int length = text.length();
+        final char first = text.charAt(start);
+        if (first == 'f') {
+            final int prefixEnd;
+            if (regionMatches(text, start, "func_")) {
+                prefixEnd = start + 5;
+            } else if (regionMatches(text, start, "field_")) {
+                prefixEnd = start + 6;
+            } else {
+                return -1;
+            }
+            // \d+_
+            int pos = prefixEnd;
+            while (pos < length && isDigit(text.charAt(pos))) {
+                pos++;
+            }
+            if (pos == prefixEnd || pos >= length || text.charAt(pos) != '_') {
+                return -1;
+            }
+            // [a-zA-Z_]+
+            final int suffixStart = ++pos;
+            while (pos < length && isLetterOrUnderscore(text.charAt(pos))) {
+                pos++;
+            }
+            if (pos == suffixStart) {
+                return -1;
+            }
+            return isTerminator(text, pos) ? pos : -1;
+        } else if (first == 'p') {
+            if (!regionMatches(text, start, "p_")) {
+                return -1;
+            }
+            // \w+_\d+_ followed by a terminator must span the whole run of word characters
+            final int wordStart = start + 2;
+            int end = wordStart;
+            while (end < length && isWordChar(text.charAt(end))) {
+                end++;
+            }
+            if (end - wordStart < 4 || text.charAt(end - 1) != '_' || !isTerminator(text, end)) {
+                return -1;
+            }
+            int digitsStart = end - 1;
+            while (digitsStart > wordStart && isDigit(text.charAt(digitsStart - 1))) {
+                digitsStart--;
+            }
+            final int separator = digitsStart - 1;
+            if (digitsStart == end - 1 || separator <= wordStart || text.charAt(separator) != '_') {
+                return -1;
+            }
+            return end;
+        }
+        return -1;
+    }
+
+    private static boolean regionMatches(CharSequence text, int start, String prefix) {
+        if (start + prefix.length() > text.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (text.charAt(start + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** {@code ([^\w$]|$)} */
+    private static boolean isTerminator(CharSequence text, int pos) {
+        if (pos >= text.length()) {
+            return true;
+        }
+        final char c = text.charAt(pos);
+        return !isWordChar(c) && c != '$';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isLetterOrUnderscore(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    /** {@code \w} without UNICODE_CHARACTER_CLASS */
+    private static boolean isWordChar(char c) {
+        return isLetterOrUnderscore(c) || isDigit(c);
+    }
+}
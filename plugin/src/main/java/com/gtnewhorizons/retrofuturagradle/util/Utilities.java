@@ -3,9 +3,7 @@ package com.gtnewhorizons.retrofuturagradle.util;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -19,7 +17,6 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -29,9 +26,9 @@ import java.util.Objects;
 import java.util.Properties;
 import java.util.UUID;
 import java.util.stream.StreamSupport;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
-import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
 import javax.annotation.Nullable;
@@ -57,7 +54,8 @@ import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.commons.ClassRemapper;
 import org.objectweb.asm.tree.ClassNode;
 
-import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.MultimapBuilder;
 import com.google.gson.Gson;
@@ -226,53 +224,19 @@ public final class Utilities {
     }
 
     /**
-     * Load a JAR file into in-memory hashmaps
-     * 
-     * @param jar             The JAR to load
-     * @param loadedResources The map to populate with non-java file contents
-     * @param loadedSources   The map to populate with java file contents
-     * @throws IOException Forwarded IO errors from the JAR reading process
+     * Writes an uncompressed (STORED) zip entry, which is much faster to write and read back than a deflated one, for
+     * intermediate jars that never leave the build directory.
      */
-    public static void loadMemoryJar(File jar, Map<String, byte[]> loadedResources, Map<String, String> loadedSources)
-            throws IOException {
-        try (final FileInputStream fis = new FileInputStream(jar);
-                final BufferedInputStream bis = new BufferedInputStream(fis);
-                final ZipInputStream zis = new ZipInputStream(bis)) {
-            ZipEntry entry = null;
-            while ((entry = zis.getNextEntry()) != null) {
-                if (entry.getName().contains("META-INF")) {
-                    continue;
-                }
-                if (entry.isDirectory() || !entry.getName().endsWith(".java")) {
-                    loadedResources.put(entry.getName(), IOUtils.toByteArray(zis));
-                } else {
-                    final String src = IOUtils.toString(zis, StandardCharsets.UTF_8);
-                    loadedSources.put(entry.getName(), src);
-                }
-            }
-        }
-    }
-
-    public static File saveMemoryJar(Map<String, byte[]> loadedResources, Map<String, String> loadedSources,
-            File target, boolean isTemporary) throws IOException {
-        if (isTemporary && !Constants.DEBUG_NO_TMP_CLEANUP) {
-            return null;
-        }
-        try (FileOutputStream fos = new FileOutputStream(target);
-                BufferedOutputStream bos = new BufferedOutputStream(fos);
-                ZipOutputStream zos = new ZipOutputStream(bos)) {
-            for (Map.Entry<String, byte[]> resource : loadedResources.entrySet()) {
-                zos.putNextEntry(new ZipEntry(resource.getKey()));
-                zos.write(resource.getValue());
-                zos.closeEntry();
-            }
-            for (Map.Entry<String, String> srcFile : loadedSources.entrySet()) {
-                zos.putNextEntry(new ZipEntry(srcFile.getKey()));
-                zos.write(srcFile.getValue().getBytes(StandardCharsets.UTF_8));
-                zos.closeEntry();
-            }
-        }
-        return target;
+    public static void putStoredZipEntry(ZipOutputStream zos, ZipEntry entry, byte[] contents) throws IOException {
+        final CRC32 crc = new CRC32();
+        crc.update(contents);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(contents.length);
+        entry.setCompressedSize(contents.length);
+        entry.setCrc(crc.getValue());
+        zos.putNextEntry(entry);
+        zos.write(contents);
+        zos.closeEntry();
     }
 
     public static void decompressArchive(final ArchiveInputStream<?> stream, final Path destination)
@@ -332,11 +296,11 @@ public final class Utilities {
      */
     public static class InMemoryJarContextProvider implements ContextualPatch.IContextProvider {
 
-        private Map<String, String> fileMap;
+        private Map<String, SourceFile> fileMap;
 
         private final int stripFrontComponents;
 
-        public InMemoryJarContextProvider(Map<String, String> fileMap, int stripFrontComponents) {
+        public InMemoryJarContextProvider(Map<String, SourceFile> fileMap, int stripFrontComponents) {
             this.fileMap = fileMap;
             this.stripFrontComponents = stripFrontComponents;
         }
@@ -352,19 +316,14 @@ public final class Utilities {
 
         @Override
         public List<String> getData(String target) {
-            target = strip(target);
-
-            if (fileMap.containsKey(target)) {
-                String[] lines = fileMap.get(target).split("\r\n|\r|\n");
-                return new ArrayList<>(Arrays.asList(lines));
-            }
-
-            return null;
+            final SourceFile source = fileMap.get(strip(target));
+            // The patcher modifies the list even on dry runs
+            return source == null ? null : new ArrayList<>(source.getLines());
         }
 
         @Override
         public void setData(String target, List<String> data) {
-            fileMap.put(strip(target), Joiner.on(System.lineSeparator()).join(data));
+            fileMap.put(strip(target), SourceFile.ofLines(data));
         }
     }
 
@@ -386,7 +345,6 @@ public final class Utilities {
         public final String param;
         public final String suffix;
         public final String type;
-        public int uses = 0;
 
         public GenericMapping(String zipEntry, String param, String suffix, String type) {
             this.zipEntry = zipEntry;
@@ -417,15 +375,44 @@ public final class Utilities {
 
     public static class MappingsSet {
 
-        public final Map<String, Utilities.Mapping> methodMappings = new HashMap<>();
-        public final Map<String, Utilities.Mapping> fieldMappings = new HashMap<>();
-        public final Map<String, String> paramMappings = new HashMap<>();
+        public final Map<String, Utilities.Mapping> methodMappings;
+        public final Map<String, Utilities.Mapping> fieldMappings;
+        public final Map<String, String> paramMappings;
         // srg name -> mapping
-        public final ListMultimap<String, GenericMapping> genericMappings = MultimapBuilder.hashKeys().arrayListValues()
-                .build();
+        public final ListMultimap<String, GenericMapping> genericMappings;
         // zip entry -> patch list
-        public final ListMultimap<String, Utilities.GenericPatch> genericPatches = MultimapBuilder.hashKeys()
-                .arrayListValues().build();
+        public final ListMultimap<String, Utilities.GenericPatch> genericPatches;
+
+        public MappingsSet() {
+            this(
+                    new HashMap<>(),
+                    new HashMap<>(),
+                    new HashMap<>(),
+                    MultimapBuilder.hashKeys().arrayListValues().build(),
+                    MultimapBuilder.hashKeys().arrayListValues().build());
+        }
+
+        private MappingsSet(Map<String, Mapping> methodMappings, Map<String, Mapping> fieldMappings,
+                Map<String, String> paramMappings, ListMultimap<String, GenericMapping> genericMappings,
+                ListMultimap<String, GenericPatch> genericPatches) {
+            this.methodMappings = methodMappings;
+            this.fieldMappings = fieldMappings;
+            this.paramMappings = paramMappings;
+            this.genericMappings = genericMappings;
+            this.genericPatches = genericPatches;
+        }
+
+        /**
+         * @return A read-only copy of this set, safe to share between tasks and threads.
+         */
+        public MappingsSet toImmutable() {
+            return new MappingsSet(
+                    ImmutableMap.copyOf(methodMappings),
+                    ImmutableMap.copyOf(fieldMappings),
+                    ImmutableMap.copyOf(paramMappings),
+                    ImmutableListMultimap.copyOf(genericMappings),
+                    ImmutableListMultimap.copyOf(genericPatches));
+        }
 
         public String remapSimpleName(String name) {
             if (StringUtils.isBlank(name)) {
@@ -455,21 +442,30 @@ public final class Utilities {
         }
     }
 
-    public static MappingsSet loadMappingCsvs(File methodsCsv, File fieldsCsv, @Nullable File paramsCsv,
-            @Nullable Collection<File> extraParamsCsvs, @Nullable String genericsFilename) {
+    /**
+     * Parses the given MCP mapping csvs, prefer
+     * {@link com.gtnewhorizons.retrofuturagradle.mcp.RfgCacheService#getMappings} which only parses each set of files
+     * once per build.
+     */
+    public static MappingsSet loadMappingCsvs(@Nullable File methodsCsv, @Nullable File fieldsCsv,
+            @Nullable File paramsCsv, @Nullable Collection<File> extraParamsCsvs, @Nullable String genericsFilename) {
         try {
             MappingsSet mappings = new MappingsSet();
-            try (CSVReader methodReader = Utilities.createCsvReader(methodsCsv)) {
-                for (String[] csvLine : methodReader) {
-                    // func_100012_b,setPotionDurationMax,0,Toggle the isPotionDurationMax field.
-                    mappings.methodMappings.put(csvLine[0], new Utilities.Mapping(csvLine[1], csvLine[3]));
+            if (methodsCsv != null) {
+                try (CSVReader methodReader = Utilities.createCsvReader(methodsCsv)) {
+                    for (String[] csvLine : methodReader) {
+                        // func_100012_b,setPotionDurationMax,0,Toggle the isPotionDurationMax field.
+                        mappings.methodMappings.put(csvLine[0], new Utilities.Mapping(csvLine[1], csvLine[3]));
+                    }
                 }
             }
-            try (CSVReader fieldReader = Utilities.createCsvReader(fieldsCsv)) {
-                for (String[] csvLine : fieldReader) {
-                    // field_100013_f,isPotionDurationMax,0,"True if potion effect duration is at maximum, false
-                    // otherwise."
-                    mappings.fieldMappings.put(csvLine[0], new Utilities.Mapping(csvLine[1], csvLine[3]));
+            if (fieldsCsv != null) {
+                try (CSVReader fieldReader = Utilities.createCsvReader(fieldsCsv)) {
+                    for (String[] csvLine : fieldReader) {
+                        // field_100013_f,isPotionDurationMax,0,"True if potion effect duration is at maximum, false
+                        // otherwise."
+                        mappings.fieldMappings.put(csvLine[0], new Utilities.Mapping(csvLine[1], csvLine[3]));
+                    }
                 }
             }
             if (paramsCsv != null) {
@@ -590,9 +586,13 @@ public final class Utilities {
      *         inheritance checks performed)
      */
     public static byte[] simpleRemapClass(byte[] classBytes, Map<String, String> mappings) {
+        return simpleRemapClass(classBytes, new SimpleSrgRemapper(mappings));
+    }
+
+    public static byte[] simpleRemapClass(byte[] classBytes, SimpleSrgRemapper srgRemapper) {
         final ClassReader reader = new ClassReader(classBytes);
         final ClassWriter writer = new ClassWriter(0);
-        final ClassRemapper remapper = new ClassRemapper(writer, new SimpleSrgRemapper(mappings));
+        final ClassRemapper remapper = new ClassRemapper(writer, srgRemapper);
         reader.accept(remapper, 0);
         return writer.toByteArray();
     }
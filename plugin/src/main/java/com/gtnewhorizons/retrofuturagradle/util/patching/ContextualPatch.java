@@ -35,7 +35,9 @@ import java.io.PrintWriter;
 import java.io.StringReader;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -64,6 +66,7 @@ public final class ContextualPatch {
     private final Pattern normalAddRangePattern = Pattern.compile("(\\d+)a(\\d+),(\\d+)");
     private final Pattern normalDeleteRangePattern = Pattern.compile("(\\d+),(\\d+)d(\\d+)");
     private final Pattern binaryHeaderPattern = Pattern.compile("MIME: (.*?); encoding: (.*?); length: (-?\\d+?)");
+    private static final Pattern WHITESPACE_PATTERN = Pattern.compile("[\t| ]+");
 
     private final File patchFile;
     private final File suggestedContext;
@@ -79,6 +82,8 @@ public final class ContextualPatch {
     private String patchLine;
     private boolean patchLineRead;
     private int lastPatchedLine; // the last line that was successfuly patched
+    private List<SinglePatch> parsedPatches; // in-memory patches are only parsed once
+    private TargetIndex targetIndex; // normalized lines of the file currently being patched
 
     public static ContextualPatch create(File patchFile, File context) {
         return new ContextualPatch(patchFile, context);
@@ -123,6 +128,38 @@ public final class ContextualPatch {
      */
     public List<PatchReport> patch(boolean dryRun) throws PatchException, IOException {
         List<PatchReport> report = new ArrayList<>();
+        List<SinglePatch> patches = parsePatches();
+        computeContext(patches);
+        for (SinglePatch patch : patches) {
+            try {
+                report.add(applyPatch(patch, dryRun));
+                // report.add(new PatchReport(patch.targetFile, computeBackup(patch.targetFile), patch.binary,
+                // PatchStatus.Patched, null));
+            } catch (Exception e) {
+                report.add(new PatchReport(patch.targetPath, patch.binary, PatchStatus.Failure, e, new ArrayList<>()));
+            }
+        }
+        return report;
+    }
+
+    /**
+     * @return The target paths of the files this patch modifies, as written in the patch, null entries for file patches
+     *         without a path
+     * @throws PatchException for a malformed patch file
+     * @throws IOException    because it reads the patch file
+     */
+    public List<String> getTargetPaths() throws PatchException, IOException {
+        final List<String> targets = new ArrayList<>();
+        for (SinglePatch patch : parsePatches()) {
+            targets.add(patch.targetPath);
+        }
+        return targets;
+    }
+
+    private List<SinglePatch> parsePatches() throws PatchException, IOException {
+        if (parsedPatches != null) {
+            return parsedPatches;
+        }
         init();
         try {
             patchLine = patchReader.readLine();
@@ -134,18 +171,11 @@ public final class ContextualPatch {
                 }
                 patches.add(patch);
             }
-            computeContext(patches);
-            for (SinglePatch patch : patches) {
-                try {
-                    report.add(applyPatch(patch, dryRun));
-                    // report.add(new PatchReport(patch.targetFile, computeBackup(patch.targetFile), patch.binary,
-                    // PatchStatus.Patched, null));
-                } catch (Exception e) {
-                    report.add(
-                            new PatchReport(patch.targetPath, patch.binary, PatchStatus.Failure, e, new ArrayList<>()));
-                }
+            // Patching files modifies the parsed patches, so those get parsed again every time
+            if (contextProvider != null) {
+                parsedPatches = patches;
             }
-            return report;
+            return patches;
         } finally {
             if (patchReader != null) {
                 try {
@@ -185,6 +215,7 @@ public final class ContextualPatch {
 
     private PatchReport applyPatch(SinglePatch patch, boolean dryRun) throws IOException, PatchException {
         lastPatchedLine = 1;
+        targetIndex = null;
         List<HunkReport> ret = new ArrayList<>();
 
         if (this.contextProvider != null) {
@@ -355,7 +386,9 @@ public final class ContextualPatch {
         int idx = hunk.modifiedStart; // first guess from the hunk range specification
         if (idx >= lastPatchedLine && applyHunk(target, hunk, idx, true, fuzz, hunkID).getStatus().isSuccess()) {
             return idx;
-        } else {
+        }
+        final int[] candidates = lastPatchedLine >= 1 ? findCandidateIndices(target, hunk, fuzz) : null;
+        if (candidates == null) {
             // try to search for the context
             for (int i = idx - 1; i >= lastPatchedLine; i--) {
                 if (applyHunk(target, hunk, i, true, fuzz, hunkID).getStatus().isSuccess()) {
@@ -367,10 +400,111 @@ public final class ContextualPatch {
                     return i;
                 }
             }
+            return -1;
+        }
+        // Same search order as above, but only at the offsets where the anchor line matches
+        for (int c = candidates.length - 1; c >= 0; c--) {
+            final int i = candidates[c];
+            if (i < idx && i >= lastPatchedLine
+                    && applyHunk(target, hunk, i, true, fuzz, hunkID).getStatus().isSuccess()) {
+                return i;
+            }
+        }
+        for (int i : candidates) {
+            if (i > idx && i < target.size()
+                    && applyHunk(target, hunk, i, true, fuzz, hunkID).getStatus().isSuccess()) {
+                return i;
+            }
         }
         return -1;
     }
 
+    /**
+     * Picks the rarest hunk line that has to match exactly at this fuzz level and looks it up in the index of the
+     * target's normalized lines. A hunk can only apply at an offset where that line matches, so all other offsets can
+     * be skipped without changing the result.
+     *
+     * @return The sorted 1-based hunk start offsets worth trying, or null if every line of the hunk may be fuzzed away
+     *         and a full scan is needed
+     */
+    private int[] findCandidateIndices(List<String> target, Hunk hunk, int fuzz) {
+        final Map<String, List<Integer>> positions = getTargetIndex(target).getPositions();
+        List<Integer> anchorPositions = null;
+        int anchorOffset = 0;
+        int offset = 0; // position of the line relative to the hunk start in the target
+        int hunkIdx = -1;
+        for (String hunkLine : hunk.lines) {
+            hunkIdx++;
+            if (isAdditionLine(hunkLine)) {
+                continue;
+            }
+            final boolean fuzzable = fuzz != 0 && !isRemovalLine(hunkLine)
+                    && (hunkIdx < fuzz || hunkIdx >= hunk.lines.size() - fuzz);
+            if (!fuzzable) {
+                final List<Integer> linePositions = positions.getOrDefault(normalize(hunkLine.substring(1)), List.of());
+                if (anchorPositions == null || linePositions.size() < anchorPositions.size()) {
+                    anchorPositions = linePositions;
+                    anchorOffset = offset;
+                }
+            }
+            offset++;
+        }
+        if (anchorPositions == null) {
+            return null;
+        }
+        final int[] candidates = new int[anchorPositions.size()];
+        for (int i = 0; i < candidates.length; i++) {
+            candidates[i] = anchorPositions.get(i) - anchorOffset + 1;
+        }
+        return candidates;
+    }
+
+    private TargetIndex getTargetIndex(List<String> target) {
+        if (targetIndex == null || targetIndex.target != target) {
+            targetIndex = new TargetIndex(target);
+        }
+        return targetIndex;
+    }
+
+    /**
+     * The normalized form of every line of a target, kept in sync as hunks get applied to it, and an index of where
+     * each normalized line occurs.
+     */
+    private final class TargetIndex {
+
+        final List<String> target;
+        final List<String> keys;
+        private Map<String, List<Integer>> positions;
+
+        TargetIndex(List<String> target) {
+            this.target = target;
+            this.keys = new ArrayList<>(target.size() + 16);
+            for (String line : target) {
+                keys.add(normalize(line));
+            }
+        }
+
+        Map<String, List<Integer>> getPositions() {
+            if (positions == null) {
+                positions = new HashMap<>(keys.size() * 2);
+                for (int i = 0; i < keys.size(); i++) {
+                    positions.computeIfAbsent(keys.get(i), k -> new ArrayList<>(1)).add(i);
+                }
+            }
+            return positions;
+        }
+
+        void lineAdded(int idx) {
+            keys.add(idx, normalize(target.get(idx)));
+            positions = null;
+        }
+
+        void lineRemoved(int idx) {
+            keys.remove(idx);
+            positions = null;
+        }
+    }
+
     /**
      * @return true if the application succeeded
      */
@@ -407,10 +541,17 @@ public final class ContextualPatch {
                     idx--;
                 }
             } else {
+                final TargetIndex index = (targetIndex != null && targetIndex.target == target) ? targetIndex : null;
                 if (isAddition) {
                     target.add(idx, hunkLine.substring(1));
+                    if (index != null) {
+                        index.lineAdded(idx);
+                    }
                 } else if (isRemovalLine(hunkLine)) {
                     target.remove(idx);
+                    if (index != null) {
+                        index.lineRemoved(idx);
+                    }
                     idx--;
                 }
             }
@@ -983,8 +1124,8 @@ public final class ContextualPatch {
     private boolean similar(String target, String hunk, char lineType) {
         if (c14nAccess) {
             if (c14nWhitespace) {
-                target = target.replaceAll("[\t| ]+", " ");
-                hunk = hunk.replaceAll("[\t| ]+", " ");
+                target = WHITESPACE_PATTERN.matcher(target).replaceAll(" ");
+                hunk = WHITESPACE_PATTERN.matcher(hunk).replaceAll(" ");
             }
             String[] t = target.split(" ");
             String[] h = hunk.split(" ");
@@ -1017,12 +1158,34 @@ public final class ContextualPatch {
             return h.length == hunkIndex && t.length == targetIndex;
         }
         if (c14nWhitespace) {
-            return target.replaceAll("[\t| ]+", " ").equals(hunk.replaceAll("[\t| ]+", " "));
+            return WHITESPACE_PATTERN.matcher(target).replaceAll(" ")
+                    .equals(WHITESPACE_PATTERN.matcher(hunk).replaceAll(" "));
         } else {
             return target.equals(hunk);
         }
     }
 
+    /**
+     * @return A key that is equal for any two lines that are {@link #similar(String, String, char)}, with access
+     *         modifiers dropped and labels unified when canonicalizing access
+     */
+    private String normalize(String line) {
+        if (c14nWhitespace) {
+            line = WHITESPACE_PATTERN.matcher(line).replaceAll(" ");
+        }
+        if (!c14nAccess) {
+            return line;
+        }
+        final StringBuilder key = new StringBuilder(line.length());
+        for (String part : line.split(" ")) {
+            if (isAccess(part)) {
+                continue;
+            }
+            key.append(' ').append(isLabel(part) ? "label" : part);
+        }
+        return key.toString();
+    }
+
     private boolean isAccess(String data) {
         return data.equalsIgnoreCase("public") || data.equalsIgnoreCase("private")
                 || data.equalsIgnoreCase("protected")
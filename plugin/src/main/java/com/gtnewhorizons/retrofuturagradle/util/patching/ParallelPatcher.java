@@ -0,0 +1,160 @@
+package com.gtnewhorizons.retrofuturagradle.util.patching;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nullable;
+
+import com.cloudbees.diff.PatchException;
+
+/**
+ * Applies patches to an in-memory jar on multiple threads. Patches are grouped by the files they modify, patches that
+ * share a target file end up in the same group and are applied in their original order, and separate groups run in
+ * parallel. The results are the same as applying every patch in sequence, as long as the context provider is
+ * thread-safe for distinct files.
+ */
+public final class ParallelPatcher {
+
+    private ParallelPatcher() {}
+
+    /**
+     * A single unit of patching, like a patch file or a set of alternative patch files for the same target.
+     */
+    public interface Job<R> {
+
+        /**
+         * @return The normalized paths of all the files this job may read or modify
+         */
+        List<String> getTargets() throws PatchException, IOException;
+
+        R apply() throws PatchException, IOException;
+    }
+
+    /**
+     * What a job returned or threw. Neither is set if the job was skipped because an earlier job of its group failed.
+     */
+    public record Result<R>(@Nullable R value, @Nullable Exception failure) {
+
+        public boolean isSkipped() {
+            return value == null && failure == null;
+        }
+    }
+
+    /**
+     * Runs all the jobs, grouped by their targets. Failing jobs don't stop the other groups, see
+     * {@link #rethrowFirstFailure(List)}.
+     *
+     * @param parallelism The maximum number of threads to use, 1 applies everything on the calling thread
+     * @return The results of the jobs, in the same order as the jobs
+     * @throws PatchException if the targets of a job can't be read
+     * @throws IOException    if the targets of a job can't be read
+     */
+    public static <R> List<Result<R>> applyAll(List<? extends Job<R>> jobs, int parallelism)
+            throws PatchException, IOException {
+        final List<Result<R>> results = new ArrayList<>(jobs.size());
+        for (int i = 0; i < jobs.size(); i++) {
+            results.add(new Result<>(null, null));
+        }
+
+        final List<List<Integer>> groups = groupByTargets(jobs);
+        final List<Callable<Void>> tasks = new ArrayList<>(groups.size());
+        for (List<Integer> group : groups) {
+            tasks.add(() -> {
+                for (int job : group) {
+                    try {
+                        results.set(job, new Result<>(jobs.get(job).apply(), null));
+                    } catch (Exception e) {
+                        results.set(job, new Result<>(null, e));
+                        // Later patches of the group depend on this one, like in a sequential run
+                        break;
+                    }
+                }
+                return null;
+            });
+        }
+
+        if (parallelism <= 1 || groups.size() <= 1) {
+            for (Callable<Void> task : tasks) {
+                try {
+                    task.call();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        } else {
+            final ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                for (Future<Void> future : pool.invokeAll(tasks)) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Throws the first failure in job order, if any job failed.
+     */
+    public static void rethrowFirstFailure(List<? extends Result<?>> results) throws PatchException, IOException {
+        for (Result<?> result : results) {
+            final Exception failure = result.failure();
+            if (failure instanceof PatchException pe) {
+                throw pe;
+            } else if (failure instanceof IOException ioe) {
+                throw ioe;
+            } else if (failure instanceof RuntimeException re) {
+                throw re;
+            } else if (failure != null) {
+                throw new RuntimeException(failure);
+            }
+        }
+    }
+
+    /**
+     * Merges jobs that share any target into groups, with a union-find over the job indices.
+     *
+     * @return The groups of job indices, each sorted in job order, ordered by their first job
+     */
+    private static List<List<Integer>> groupByTargets(List<? extends Job<?>> jobs) throws PatchException, IOException {
+        final int[] parent = new int[jobs.size()];
+        final Map<String, Integer> targetOwners = new HashMap<>();
+        for (int i = 0; i < jobs.size(); i++) {
+            parent[i] = i;
+            for (String target : jobs.get(i).getTargets()) {
+                final Integer owner = targetOwners.putIfAbsent(target, i);
+                if (owner != null) {
+                    parent[find(parent, i)] = find(parent, owner);
+                }
+            }
+        }
+        final Map<Integer, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < jobs.size(); i++) {
+            groups.computeIfAbsent(find(parent, i), k -> new ArrayList<>()).add(i);
+        }
+        return new ArrayList<>(groups.values());
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+}
@@ -0,0 +1,42 @@
+package com.gtnewhorizons.retrofuturagradle.fgpatchers;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks {@link FFPatcher} against output recorded before its patterns were shared between files.
+ */
+class FFPatcherTest {
+
+    @Test
+    void matchesGoldenOutput() throws IOException {
+        GoldenFiles.assertMatches(
+                "ff-patcher",
+                "EntitySample",
+                true,
+                input -> FFPatcher.processFile("EntitySample.java", input, true));
+    }
+
+    @Test
+    void sameOutputInParallel() throws IOException {
+        final String input = GoldenFiles.readInput("ff-patcher", "EntitySample");
+        final String expected = FFPatcher.processFile("EntitySample.java", input, true);
+        final List<String> outputs = IntStream.range(0, 1000).parallel().mapToObj(i -> {
+            try {
+                return FFPatcher.processFile("EntitySample.java", input, true);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).collect(Collectors.toList());
+        for (String output : outputs) {
+            assertEquals(expected, output);
+        }
+    }
+}
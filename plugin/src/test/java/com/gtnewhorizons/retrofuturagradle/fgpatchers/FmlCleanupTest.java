@@ -0,0 +1,22 @@
+package com.gtnewhorizons.retrofuturagradle.fgpatchers;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks {@link FmlCleanup} against output recorded with the previous one-replacement-per-variable renamer.
+ */
+class FmlCleanupTest {
+
+    @Test
+    void matchesGoldenOutput() throws IOException {
+        GoldenFiles.assertMatches("fml-cleanup", "RenderSample", false, FmlCleanup::renameClass);
+    }
+
+    /** Types like Var make new names that contain var, which the single pass can't do */
+    @Test
+    void matchesGoldenOutputWithVarTypes() throws IOException {
+        GoldenFiles.assertMatches("fml-cleanup", "VarSample", false, FmlCleanup::renameClass);
+    }
+}
@@ -0,0 +1,135 @@
+package com.gtnewhorizons.retrofuturagradle.fgpatchers;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+
+import org.junit.jupiter.api.Test;
+
+import com.gtnewhorizons.retrofuturagradle.json.GLConstantGroup;
+
+/**
+ * Checks the indexed {@link GLConstantFixer} against the previous implementation, which walked all constant groups for
+ * every literal in a GL call.
+ */
+class GLConstantFixerTest {
+
+    private static final String[] PACKAGES = { "GL11", "GL12", "GL13", "GL14", "GL15", "GL20", "GL21",
+            "ARBMultitexture", "ARBOcclusionQuery", "ARBVertexBufferObject", "ARBShaderObjects" };
+    private static final String IMPORT_GL11 = "import org.lwjgl.opengl.GL11;";
+    private static final String HEADER = "package net.minecraft.client;\n\nimport org.lwjgl.opengl.GL11;\n\n"
+            + "public class Sample {\n   public void render() {\n";
+
+    @Test
+    void matchesListWalkOnBundledConstants() throws IOException {
+        final List<GLConstantGroup> groups = GLConstantFixer.loadConstantGroups();
+        final List<String> calls = new ArrayList<>();
+        final List<String> literals = new ArrayList<>();
+        for (GLConstantGroup group : groups) {
+            for (Map.Entry<String, List<String>> functions : group.functions.entrySet()) {
+                for (String method : functions.getValue()) {
+                    calls.add(functions.getKey() + "." + method);
+                }
+            }
+            for (Map<String, String> constants : group.constants.values()) {
+                literals.addAll(constants.keySet());
+            }
+        }
+        calls.add("GL11.glNotInTheJson");
+        literals.add("123456");
+
+        final Random random = new Random(1234);
+        final GLConstantFixer fixer = new GLConstantFixer();
+        for (int file = 0; file < 200; file++) {
+            final StringBuilder source = new StringBuilder(HEADER);
+            for (int line = 0; line < 50; line++) {
+                source.append("      ").append(calls.get(random.nextInt(calls.size()))).append('(');
+                for (int arg = random.nextInt(4); arg >= 0; arg--) {
+                    switch (random.nextInt(4)) {
+                        case 0 -> source.append("this.field_1_a");
+                        case 1 -> source.append('-').append(literals.get(random.nextInt(literals.size())));
+                        default -> source.append(literals.get(random.nextInt(literals.size())));
+                    }
+                    source.append(arg == 0 ? "" : ", ");
+                }
+                source.append(");\n");
+            }
+            source.append("   }\n}\n");
+            final String text = source.toString();
+            assertEquals(fixWithListWalk(groups, text), fixer.fixOGL(text));
+        }
+    }
+
+    /** Literals defined more than once keep the last definition, across groups and across classes of one group */
+    @Test
+    void lastDuplicateDefinitionWins() {
+        final GLConstantGroup first = group(
+                Map.of("GL11", List.of("glFoo", "glFoo")),
+                Map.of("GL11", Map.of("1", "GL_FIRST", "2", "GL_TWO")));
+        final Map<String, Map<String, String>> secondConstants = new LinkedHashMap<>();
+        secondConstants.put("GL11", Map.of("1", "GL_SECOND", "3", "GL_THREE_OLD"));
+        secondConstants.put("GL12", Map.of("3", "GL_THREE"));
+        final GLConstantGroup second = group(Map.of("GL11", List.of("glFoo", "glBar")), secondConstants);
+        final List<GLConstantGroup> groups = List.of(first, second);
+
+        final String text = HEADER + "      GL11.glFoo(1, 2, 3);\n      GL11.glBar(1, 2);\n   }\n}\n";
+        final String fixed = new GLConstantFixer(groups).fixOGL(text);
+        assertEquals(fixWithListWalk(groups, text), fixed);
+        assertTrue(fixed.contains("GL11.glFoo(GL11.GL_SECOND, GL11.GL_TWO, GL12.GL_THREE);"), fixed);
+        assertTrue(fixed.contains("GL11.glBar(GL11.GL_SECOND, 2);"), fixed);
+    }
+
+    private static GLConstantGroup group(Map<String, List<String>> functions,
+            Map<String, Map<String, String>> constants) {
+        final GLConstantGroup group = new GLConstantGroup();
+        group.functions = functions;
+        group.constants = constants;
+        return group;
+    }
+
+    /** The previous implementation of {@link GLConstantFixer#fixOGL} */
+    private static String fixWithListWalk(List<GLConstantGroup> json, String text) {
+        final Matcher rootMatch = GLConstantFixer.CALL_REGEX.matcher(text);
+        final StringBuilder out = new StringBuilder(text.length());
+        while (rootMatch.find()) {
+            final String fullCall = rootMatch.group();
+            final String pack = rootMatch.group(1);
+            final String method = rootMatch.group(2);
+            final Matcher constantMatcher = GLConstantFixer.CONSTANT_REGEX.matcher(fullCall);
+            final StringBuilder innerOut = new StringBuilder();
+            while (constantMatcher.find()) {
+                final String constant = constantMatcher.group();
+                String answer = null;
+                for (GLConstantGroup group : json) {
+                    if (group.functions.containsKey(pack) && group.functions.get(pack).contains(method)) {
+                        for (Map.Entry<String, Map<String, String>> entry : group.constants.entrySet()) {
+                            if (entry.getValue().containsKey(constant)) {
+                                answer = entry.getKey() + "." + entry.getValue().get(constant);
+                            }
+                        }
+                    }
+                }
+                if (answer != null) {
+                    constantMatcher.appendReplacement(innerOut, Matcher.quoteReplacement(answer));
+                }
+            }
+            constantMatcher.appendTail(innerOut);
+            rootMatch.appendReplacement(out, Matcher.quoteReplacement(innerOut.toString()));
+        }
+        rootMatch.appendTail(out);
+        String result = out.toString();
+        for (String pack : PACKAGES) {
+            final String imp = "import org.lwjgl.opengl." + pack + ";";
+            if (result.contains(pack + ".") && !result.contains(imp)) {
+                result = result.replace(IMPORT_GL11, IMPORT_GL11 + System.lineSeparator() + imp);
+            }
+        }
+        return result;
+    }
+}
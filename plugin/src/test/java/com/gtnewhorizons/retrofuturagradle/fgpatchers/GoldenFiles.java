@@ -0,0 +1,56 @@
+package com.gtnewhorizons.retrofuturagradle.fgpatchers;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Golden file checks for the patchers: every sample is a pair of {@code <sample>.input.txt} and
+ * {@code <sample>.expected.txt} test resources in a directory per patcher, the expected output was recorded with an
+ * earlier implementation of the patcher.
+ */
+final class GoldenFiles {
+
+    /** A patcher under test */
+    interface Patcher {
+
+        String apply(String input) throws IOException;
+    }
+
+    private GoldenFiles() {}
+
+    /**
+     * @return The input of the sample, with \n line endings
+     */
+    static String readInput(String directory, String sample) throws IOException {
+        return readResource("/" + directory + "/" + sample + ".input.txt");
+    }
+
+    /**
+     * Asserts that the patcher turns the sample's input into its expected output, with the platform line separator.
+     *
+     * @param stripsTrailingNewline Whether the patcher drops the final newline of its input, the expected files still
+     *                              end with one
+     */
+    static void assertMatches(String directory, String sample, boolean stripsTrailingNewline, Patcher patcher)
+            throws IOException {
+        String expected = readResource("/" + directory + "/" + sample + ".expected.txt");
+        if (stripsTrailingNewline) {
+            expected = expected.stripTrailing();
+        }
+        assertEquals(
+                expected.replace("\n", System.lineSeparator()),
+                patcher.apply(readInput(directory, sample)),
+                sample);
+    }
+
+    private static String readResource(String name) throws IOException {
+        try (final InputStream stream = GoldenFiles.class.getResourceAsStream(name)) {
+            assertNotNull(stream, name);
+            // Don't depend on how git checked out the line endings
+            return new String(stream.readAllBytes(), StandardCharsets.UTF_8).replace("\r\n", "\n");
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.gtnewhorizons.retrofuturagradle.fgpatchers;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that the single pass {@link McpCleanupFg23#cleanup(String)} gives exactly the same output as running the
+ * cleanup patterns one after another.
+ */
+class McpCleanupFg23Test {
+
+    /** Pieces of decompiled code, and a few that only show up in broken code, to build random inputs from */
+    private static final String[] FRAGMENTS = { "3.141592653589793D", "3.1415927F", "6.2831855F", "1.5707964F",
+            "4.71238898038469D", "0.7853982F", "0.6283185307179586D", "57.29577951308232D", "0.69813174F",
+            "0.3141592653589793D", "1.2566371F", "0.21991149F", "5.811946409141117D", "0.8119F",
+            "1.7976931348623157E+308D", "1.7976931348623157E308D", "'\\u2014'", "'\\u00a7'", "'\\uABCD'",
+            "Character.valueOf('x')", "Character.valueOf('\\u2014')", "Character.valueOf('\n')",
+            "Character.valueOf('\uD83D\uDE00')", " /* GL_BLEND */ ", "if(a) {", "0.", "1", ".", "D", "F", "'", "C",
+            " ", "\t", "\n", "\r\n", "\r", "\u2028", "\u0085", "\f", "{", "}", ";", "x" };
+
+    @Test
+    void matchesGoldenOutput() throws IOException {
+        GoldenFiles.assertMatches("mcp-cleanup", "RenderSample", true, McpCleanupFg23::cleanupSequential);
+        GoldenFiles.assertMatches("mcp-cleanup", "RenderSample", true, McpCleanupFg23::cleanup);
+    }
+
+    @Test
+    void matchesSequentialCleanup() {
+        final Random random = new Random(1234);
+        for (int i = 0; i < 50_000; i++) {
+            final StringBuilder input = new StringBuilder();
+            final int count = 1 + random.nextInt(10);
+            for (int j = 0; j < count; j++) {
+                input.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+            }
+            final String text = input.toString();
+            assertEquals(McpCleanupFg23.cleanupSequential(text), McpCleanupFg23.cleanup(text), text);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.gtnewhorizons.retrofuturagradle.mcp;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Checks that a group's {@link ClassGroupHasher} key changes with the declarations of every class the decompiler could
+ * look at and with the class names its imports could clash with, and only with those.
+ */
+class ClassGroupHasherTest {
+
+    @TempDir
+    File tempDir;
+
+    /** A only mentions B in a method descriptor, so B is never in a class constant of A */
+    @Test
+    void descriptorOnlyDependencyChangesKey() throws IOException {
+        final byte[] user = abstractClass("pkg/A", "use", "(Lpkg/B;)V", null);
+        final String before = hashA(user, "pkg/B", emptyClass("pkg/B", "java/lang/Object", "foo"));
+        final String after = hashA(user, "pkg/B", emptyClass("pkg/B", "java/lang/Object", "foo", "bar"));
+        assertNotEquals(before, after);
+    }
+
+    /** A only mentions C as a type argument in a generic signature */
+    @Test
+    void signatureOnlyDependencyChangesKey() throws IOException {
+        final byte[] user = abstractClass("pkg/A", "get", "()Ljava/util/List;", "()Ljava/util/List<Lpkg/C;>;");
+        final String before = hashA(user, "pkg/C", emptyClass("pkg/C", "java/lang/Object", "foo"));
+        final String after = hashA(user, "pkg/C", emptyClass("pkg/C", "java/lang/Object", "foo", "bar"));
+        assertNotEquals(before, after);
+    }
+
+    /** A references B, whose superclass D changes */
+    @Test
+    void supertypeOfDependencyChangesKey() throws IOException {
+        final byte[] user = abstractClass("pkg/A", "use", "(Lpkg/B;)V", null);
+        final byte[] dependency = emptyClass("pkg/B", "pkg/D", "foo");
+        final Map<String, byte[]> before = new TreeMap<>();
+        before.put("pkg/A", user);
+        before.put("pkg/B", dependency);
+        before.put("pkg/D", emptyClass("pkg/D", "java/lang/Object", "foo"));
+        final Map<String, byte[]> after = new TreeMap<>(before);
+        after.put("pkg/D", emptyClass("pkg/D", "java/lang/Object", "foo", "bar"));
+        assertNotEquals(hashGroups(before).get("pkg/A"), hashGroups(after).get("pkg/A"));
+    }
+
+    /** Method bodies of other classes don't influence how a class decompiles */
+    @Test
+    void dependencyCodeChangeKeepsKey() throws IOException {
+        final byte[] user = abstractClass("pkg/A", "use", "(Lpkg/B;)V", null);
+        assertEquals(
+                hashA(user, "pkg/B", classWithCode("pkg/B", "foo", false)),
+                hashA(user, "pkg/B", classWithCode("pkg/B", "foo", true)));
+    }
+
+    /** The declarations of classes that aren't referenced don't influence the key, only their names */
+    @Test
+    void unrelatedClassKeepsKey() throws IOException {
+        final byte[] user = abstractClass("pkg/A", "use", "(Lpkg/B;)V", null);
+        final String before = hashA(user, "pkg/E", emptyClass("pkg/E", "java/lang/Object", "foo"));
+        final String after = hashA(user, "pkg/E", emptyClass("pkg/E", "java/lang/Object", "foo", "bar"));
+        assertEquals(before, after);
+    }
+
+    /** A new class in A's package can shadow a class A would otherwise import */
+    @Test
+    void samePackageClassChangesKey() throws IOException {
+        assertClassChangesKey("pkg/List", true);
+    }
+
+    /** Same for a class in the default package */
+    @Test
+    void defaultPackageClassChangesKey() throws IOException {
+        assertClassChangesKey("List", true);
+    }
+
+    /** Classes in other packages are only imported explicitly, so they can't clash with A's imports */
+    @Test
+    void otherPackageClassKeepsKey() throws IOException {
+        assertClassChangesKey("other/List", false);
+    }
+
+    private void assertClassChangesKey(String addedName, boolean changes) throws IOException {
+        final Map<String, byte[]> before = new TreeMap<>();
+        before.put("pkg/A", abstractClass("pkg/A", "get", "()Ljava/util/List;", null));
+        final Map<String, byte[]> after = new TreeMap<>(before);
+        after.put(addedName, emptyClass(addedName, "java/lang/Object"));
+        final String beforeKey = hashGroups(before).get("pkg/A");
+        final String afterKey = hashGroups(after).get("pkg/A");
+        if (changes) {
+            assertNotEquals(beforeKey, afterKey);
+        } else {
+            assertEquals(beforeKey, afterKey);
+        }
+    }
+
+    private String hashA(byte[] user, String dependencyName, byte[] dependency) throws IOException {
+        final Map<String, byte[]> classes = new TreeMap<>();
+        classes.put("pkg/A", user);
+        classes.put(dependencyName, dependency);
+        return hashGroups(classes).get("pkg/A");
+    }
+
+    private Map<String, String> hashGroups(Map<String, byte[]> classes) throws IOException {
+        final File jar = File.createTempFile("classes", ".jar", tempDir);
+        try (final FileOutputStream fos = new FileOutputStream(jar);
+                final ZipOutputStream zos = new ZipOutputStream(fos)) {
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                zos.putNextEntry(new ZipEntry(entry.getKey() + ".class"));
+                zos.write(entry.getValue());
+                zos.closeEntry();
+            }
+        }
+        return ClassGroupHasher.hashGroups(jar);
+    }
+
+    /** A class with a single abstract method, so that it has no code referencing other classes */
+    private static byte[] abstractClass(String name, String methodName, String methodDescriptor,
+            String methodSignature) {
+        final ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, name, null, "java/lang/Object", null);
+        cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, methodName, methodDescriptor, methodSignature, null)
+                .visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /** A class with the given abstract void methods */
+    private static byte[] emptyClass(String name, String superName, String... methods) {
+        final ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, name, null, superName, null);
+        for (String method : methods) {
+            cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, method, "()V", null, null).visitEnd();
+        }
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /** A class with a single void method that only returns, with a no-op in front if padded */
+    private static byte[] classWithCode(String name, String method, boolean padded) {
+        final ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, name, null, "java/lang/Object", null);
+        final MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, method, "()V", null, null);
+        mv.visitCode();
+        if (padded) {
+            mv.visitInsn(Opcodes.NOP);
+        }
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+}
@@ -0,0 +1,85 @@
+package com.gtnewhorizons.retrofuturagradle.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+import java.util.function.UnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks {@link SrgTokenScanner} against the SRG_FINDER regex RemapSourceJarTask used before it.
+ */
+class SrgTokenScannerTest {
+
+    private static final Pattern SRG_FINDER = Pattern
+            .compile("(func_\\d+_[a-zA-Z_]+|field_\\d+_[a-zA-Z_]+|p_\\w+_\\d+_)([^\\w$]|$)");
+
+    /** Marks every name, so that any token found by only one of the implementations shows up in the output */
+    private static final UnaryOperator<String> MARK_ALL = name -> "<" + name + ">";
+
+    private static final String[] FRAGMENTS = { "func_", "field_", "p_", "i", "_", "__", "1", "23", "456", "a", "g",
+            "Z", "$", " ", "(", ")", ".", ",", ";", "\t", "x", "é", "λ", "\n" };
+
+    @Test
+    void matchesRegexOnEdgeCases() {
+        final String[] lines = { "", "func_", "func_1", "func_1_", "func_1_a", "this.func_1_a();", "field_12_b",
+                "this.field_12_b = 0;", "field_12_b$", "field_12_b$1", "func_1_a1", "func_1_ab_", "func_1_a__b(x)",
+                "func__a", "func_x_a", "myfunc_1_a", "somefield_2_b;", "Func_1_a", "func_1_aé", "p_", "p_1_",
+                "p_1_2_", "p_i1_2_", "p_a_1_", "p_a_b_1_", "p_70_a_1_", "p_i1234_1_)", "p_1234_1_;", "p_a_1_$",
+                "p_a_1_x", "p_a_1_2", "p_a__1_", "p_a_1__", "p_a_1_1_", "p__1_", "p___1_", "p_a_1_b_2_",
+                "xp_a_1_ + yp_b_2_", "func_1_a func_2_b,field_3_c.p_4_5_", "func_1_a(p_i1_1_, p_i1_2_)$",
+                "// JAVADOC METHOD $$ func_1_a", "\"func_1_a\"", "func_1_a\tfield_2_b\n" };
+        for (String line : lines) {
+            assertRemapsLikeRegex(line);
+        }
+    }
+
+    @Test
+    void matchesRegexOnRandomInput() {
+        final Random random = new Random(1234);
+        final StringBuilder line = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            line.setLength(0);
+            for (int fragment = random.nextInt(12); fragment >= 0; fragment--) {
+                line.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+            }
+            assertRemapsLikeRegex(line.toString());
+        }
+    }
+
+    @Test
+    void returnsSameInstanceWithoutReplacements() {
+        final String line = "this.func_1_a(p_i1_1_);";
+        assertSame(line, SrgTokenScanner.remapTokens(line, UnaryOperator.identity(), new StringBuilder()));
+        assertSame(line, SrgTokenScanner.remapTokens(line, name -> null, new StringBuilder()));
+    }
+
+    @Test
+    void discardsPreviousBufferContents() {
+        final StringBuilder buffer = new StringBuilder("leftover");
+        assertEquals("a<func_1_a> b", SrgTokenScanner.remapTokens("afunc_1_a b", MARK_ALL, buffer));
+        assertEquals("<p_a_1_>;", SrgTokenScanner.remapTokens("p_a_1_;", MARK_ALL, buffer));
+    }
+
+    private static void assertRemapsLikeRegex(String line) {
+        assertEquals(remapWithRegex(line), SrgTokenScanner.remapTokens(line, MARK_ALL, new StringBuilder()), line);
+        final Matcher matcher = SRG_FINDER.matcher(line);
+        final int expectedStart = matcher.find() ? matcher.start() : -1;
+        assertEquals(expectedStart, SrgTokenScanner.findToken(line, 0), line);
+    }
+
+    /** The replacement loop RemapSourceJarTask ran before the scanner */
+    private static String remapWithRegex(String line) {
+        final StringBuilder mappedLine = new StringBuilder();
+        final Matcher matcher = SRG_FINDER.matcher(line);
+        while (matcher.find()) {
+            matcher.appendReplacement(mappedLine, Matcher.quoteReplacement(MARK_ALL.apply(matcher.group(1))));
+            mappedLine.append(matcher.group(2));
+        }
+        matcher.appendTail(mappedLine);
+        return mappedLine.toString();
+    }
+}